@@ -0,0 +1,114 @@
+/**
+ * PatronBenchmarkFixture runs the PatronManager operations for the JMH
+ * benchmarks in jmh/benchmarks (see benchmarks.PatronOperations for why it
+ * is a separate class). The data comes from PatronDataGenerator, so every
+ * run uses the same files.
+ *
+ * Output printed by PatronManager while loading is hidden, so it does not
+ * end up in the benchmark log.
+ */
+
+
+import benchmarks.PatronOperations;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+public class PatronBenchmarkFixture implements PatronOperations {
+
+    private File dataFile;
+    private File outputFile;
+
+    // IDs of the patrons in the file, and of patrons that are not in it (for adds)
+    private int[] fileIds;
+    private int[] newIds;
+
+    private PatronManager manager;
+
+    @Override
+    public void setUp(int patrons, long seed, String dir) throws IOException {
+        dataFile = new File(dir, "patrons-" + patrons + "-" + seed + ".txt");
+        outputFile = new File(dir, "patrons-" + patrons + "-" + seed + "-out.txt");
+        if (!dataFile.exists()) {
+            PatronDataGenerator.generate(dataFile.getPath(), patrons, seed, 0, 0);
+        }
+
+        fileIds = new int[patrons];
+        for (int i = 0; i < patrons; i++) {
+            fileIds[i] = PatronDataGenerator.patronId(i, seed);
+        }
+        newIds = new int[Math.min(patrons, 9_000_000 - patrons)];
+        for (int i = 0; i < newIds.length; i++) {
+            newIds[i] = PatronDataGenerator.patronId(patrons + i, seed);
+        }
+
+        manager = newManager();
+    }
+
+    @Override
+    public int load() {
+        return newManager().getPatronCount();
+    }
+
+    @Override
+    public Object find(int i) {
+        return manager.findPatronById(fileIds[i]);
+    }
+
+    @Override
+    public boolean add(int i) {
+        return manager.addPatron(newPatron(newIds[i]));
+    }
+
+    @Override
+    public boolean remove(int i) {
+        return manager.removePatronById(fileIds[i]);
+    }
+
+    @Override
+    public boolean restore(int i) {
+        return manager.addPatron(newPatron(fileIds[i]));
+    }
+
+    @Override
+    public boolean undoAdd(int i) {
+        return manager.removePatronById(newIds[i]);
+    }
+
+    @Override
+    public boolean saveAll() {
+        return manager.saveAllToFile(outputFile.getPath());
+    }
+
+    @Override
+    public boolean append(int i) {
+        return manager.appendPatronToFile(outputFile.getPath(), newPatron(fileIds[i]));
+    }
+
+    @Override
+    public void resetOutput() {
+        manager.closeWriters();
+        outputFile.delete();
+    }
+
+    // ===== Helpers =====
+
+    // Loads the data file into a new manager with PatronManager's output hidden
+    private PatronManager newManager() {
+        PatronManager loaded = new PatronManager();
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            loaded.loadFromFile(dataFile.getPath());
+        } finally {
+            System.setOut(console);
+        }
+        return loaded;
+    }
+
+    private static Patron newPatron(int patronId) {
+        return new Patron(patronId, "Bench Patron", "1 Benchmark St", 12.5);
+    }
+}
@@ -0,0 +1,123 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks of the main PatronManager operations at 10k, 1M and 5M
+ * patrons, on files made by PatronDataGenerator (same seed, same data).
+ *
+ *  - loadFromFile and saveAllToFile: one call per measurement (single shot)
+ *  - findPatronById and appendPatronToFile: average time per call
+ *  - addPatron and removePatronById: time per batch of BATCH calls; every
+ *    measurement starts from the roster in the file (changes are undone after it)
+ *
+ * Every benchmark returns its result, so JMH consumes it and the JIT cannot
+ * remove the work. Run with "gradle jmh" (see build.gradle).
+ */
+@State(Scope.Benchmark)
+public class PatronManagerBenchmark {
+
+    // Calls per measurement of addPatron and removePatronById
+    public static final int BATCH = 1000;
+
+    @Param({"10000", "1000000", "5000000"})
+    public int patrons;
+
+    @Param({"42"})
+    public long seed;
+
+    private PatronOperations lms;
+
+    // Next patron number used by find and append
+    private int next;
+
+    // Patrons added and removed during the current measurement (undone after it)
+    private int added;
+    private int removed;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        lms = (PatronOperations) Class.forName("PatronBenchmarkFixture").getDeclaredConstructor().newInstance();
+        lms.setUp(patrons, seed, System.getProperty("java.io.tmpdir"));
+    }
+
+    // Puts the roster back as it was loaded and deletes the output file
+    @TearDown(Level.Iteration)
+    public void undoChanges() {
+        for (int i = 0; i < added; i++) {
+            lms.undoAdd(i);
+        }
+        for (int i = 0; i < removed; i++) {
+            lms.restore(i);
+        }
+        added = 0;
+        removed = 0;
+        lms.resetOutput();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int loadFromFile() {
+        return lms.load();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Object findPatronById() {
+        return lms.find(nextPatron());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(batchSize = BATCH)
+    @Measurement(batchSize = BATCH)
+    public boolean addPatron() {
+        return lms.add(added++);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(batchSize = BATCH)
+    @Measurement(batchSize = BATCH)
+    public boolean removePatronById() {
+        return lms.remove(removed++);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public boolean saveAllToFile() {
+        return lms.saveAll();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public boolean appendPatronToFile() {
+        return lms.append(nextPatron());
+    }
+
+    // Returns the next patron number, going round the file
+    private int nextPatron() {
+        int i = next;
+        next = i + 1 == patrons ? 0 : i + 1;
+        return i;
+    }
+}
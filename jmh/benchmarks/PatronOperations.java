@@ -0,0 +1,52 @@
+package benchmarks;
+
+import java.io.IOException;
+
+/**
+ * The PatronManager operations timed by the JMH benchmarks.
+ *
+ * JMH only accepts benchmark classes in a named package, and Java code in a
+ * named package cannot refer to the LMS classes (they are in the default
+ * package). So the benchmarks call the LMS through this interface, implemented
+ * by PatronBenchmarkFixture in the default package. The calls go to a single
+ * implementation, so the JIT inlines them like direct calls.
+ */
+public interface PatronOperations {
+
+    /**
+     * Generates (once per size and seed) a data file with PatronDataGenerator
+     * and loads it into a fresh PatronManager.
+     *
+     * @param patrons number of patrons in the file
+     * @param seed data seed
+     * @param dir folder for the generated file
+     */
+    void setUp(int patrons, long seed, String dir) throws IOException;
+
+    // Loads the data file into a new PatronManager; returns the number of patrons loaded
+    int load();
+
+    // Looks up the i-th patron of the file (0 to patrons - 1); returns the patron found
+    Object find(int i);
+
+    // Adds a patron that is not in the file (the i-th one after the file's patrons)
+    boolean add(int i);
+
+    // Removes the i-th patron of the file
+    boolean remove(int i);
+
+    // Adds back the i-th patron of the file after remove(i)
+    boolean restore(int i);
+
+    // Removes the patron added by add(i)
+    boolean undoAdd(int i);
+
+    // Writes every patron to the output file
+    boolean saveAll();
+
+    // Appends the i-th patron of the file to the output file
+    boolean append(int i);
+
+    // Deletes the output file and closes the files kept open for appending
+    void resetOutput();
+}
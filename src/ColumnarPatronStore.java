@@ -0,0 +1,312 @@
+/**
+ * ColumnarPatronStore keeps patrons as a struct of arrays instead of one
+ * object per patron, to cut the per-record heap overhead for large rosters.
+ *
+ * Layout per slot (slots are in the order patrons were added):
+ *      ids[slot]           patron ID (0 = removed slot)
+ *      fines[slot]         overdue fine
+ *      nameRefs[slot]      offset of the name in the text arena
+ *      addressRefs[slot]   offset of the address in the text arena
+ *
+ * Names and addresses live in one shared byte arena as a varint byte length
+ * followed by UTF-8 bytes. Changed text is appended to the arena and the old
+ * bytes are reclaimed when the arena is compacted.
+ *
+ * Patron objects are only created when get() or the iterator asks for one.
+ * Those objects are copies, so changes must be written back with update()
+ * (PatronManager does this automatically through PatronListener).
+ */
+
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+public class ColumnarPatronStore implements PatronStore {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int INITIAL_ARENA_SIZE = 64 * 1024;
+
+    // Compact once this many removed slots have built up (and they are at least half of all slots)
+    private static final int MIN_REMOVED_BEFORE_COMPACT = 64;
+
+    // Compact the arena once this many bytes are unused (and they are at least half of it)
+    private static final int MIN_GARBAGE_BEFORE_COMPACT = 1 << 20;
+
+    // ===== Columns =====
+    private int[] ids;
+    private double[] fines;
+    private int[] nameRefs;
+    private int[] addressRefs;
+    private int slotCount;          // Slots in use (including removed slots)
+    private int removedSlots;       // Slots whose patron was removed
+
+    // ===== Text Arena =====
+    private byte[] arena;
+    private int arenaSize;          // Bytes in use (including garbage)
+    private int garbageBytes;       // Bytes of text that is no longer referenced
+
+    // Maps each patron ID to its slot
+    private final PatronIdIndex index;
+
+    // Constructor creates an empty store
+    public ColumnarPatronStore() {
+        this.index = new PatronIdIndex();
+        clear();
+    }
+
+    @Override
+    public int size() {
+        return index.size();
+    }
+
+    @Override
+    public boolean contains(int patronId) {
+        return index.contains(patronId);
+    }
+
+    @Override
+    public Patron get(int patronId) {
+        int slot = index.get(patronId);
+        if (slot == PatronIdIndex.NOT_FOUND) return null;
+        return materialize(slot);
+    }
+
+    @Override
+    public boolean add(Patron patron) {
+        int id = patron.getPatronId();
+        if (index.contains(id)) return false;
+
+        if (slotCount == ids.length) {
+            growColumns(ids.length * 2);
+        }
+
+        int slot = slotCount++;
+        ids[slot] = id;
+        fines[slot] = patron.getOverdueFine();
+        nameRefs[slot] = appendText(patron.getName());
+        addressRefs[slot] = appendText(patron.getAddress());
+        index.put(id, slot);
+        return true;
+    }
+
+    @Override
+    public Patron remove(int patronId) {
+        int slot = index.get(patronId);
+        if (slot == PatronIdIndex.NOT_FOUND) return null;
+
+        Patron removed = materialize(slot);
+        index.remove(patronId);
+
+        garbageBytes += textSize(nameRefs[slot]) + textSize(addressRefs[slot]);
+        ids[slot] = 0;
+        removedSlots++;
+
+        if (removedSlots >= MIN_REMOVED_BEFORE_COMPACT && removedSlots * 2 >= slotCount) {
+            compact();
+        } else {
+            compactArenaIfNeeded();
+        }
+        return removed;
+    }
+
+    @Override
+    public void update(Patron patron) {
+        int slot = index.get(patron.getPatronId());
+        if (slot == PatronIdIndex.NOT_FOUND) return;
+
+        fines[slot] = patron.getOverdueFine();
+        nameRefs[slot] = replaceText(nameRefs[slot], patron.getName());
+        addressRefs[slot] = replaceText(addressRefs[slot], patron.getAddress());
+        compactArenaIfNeeded();
+    }
+
+    @Override
+    public void clear() {
+        ids = new int[INITIAL_CAPACITY];
+        fines = new double[INITIAL_CAPACITY];
+        nameRefs = new int[INITIAL_CAPACITY];
+        addressRefs = new int[INITIAL_CAPACITY];
+        slotCount = 0;
+        removedSlots = 0;
+
+        arena = new byte[INITIAL_ARENA_SIZE];
+        arenaSize = 0;
+        garbageBytes = 0;
+
+        index.clear();
+    }
+
+    // Iterates the stored patrons in the order they were added (a new Patron per element)
+    @Override
+    public Iterator<Patron> iterator() {
+        return new Iterator<Patron>() {
+            private int next = skipRemoved(0);
+
+            @Override
+            public boolean hasNext() {
+                return next < slotCount;
+            }
+
+            @Override
+            public Patron next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                Patron p = materialize(next);
+                next = skipRemoved(next + 1);
+                return p;
+            }
+        };
+    }
+
+    // Returns the number of bytes held by the columns and the text arena (not counting the ID index)
+    public long getFootprintBytes() {
+        return (long) ids.length * (4 + 8 + 4 + 4) + arena.length;
+    }
+
+    // ===== Helpers =====
+
+    // Creates a Patron object from the columns of a slot
+    private Patron materialize(int slot) {
+        return new Patron(ids[slot], readText(nameRefs[slot]), readText(addressRefs[slot]), fines[slot]);
+    }
+
+    // Returns the first slot at or after "slot" that holds a patron
+    private int skipRemoved(int slot) {
+        while (slot < slotCount && ids[slot] == 0) {
+            slot++;
+        }
+        return slot;
+    }
+
+    // Keeps the old text if it did not change, otherwise appends the new text
+    private int replaceText(int ref, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int length = readLength(ref);
+        int start = ref + varintSize(length);
+        if (length == bytes.length
+                && Arrays.equals(arena, start, start + length, bytes, 0, bytes.length)) {
+            return ref;
+        }
+
+        garbageBytes += varintSize(length) + length;
+        return appendBytes(bytes);
+    }
+
+    // Appends a string to the arena and returns its offset
+    private int appendText(String value) {
+        return appendBytes(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private int appendBytes(byte[] bytes) {
+        int needed = varintSize(bytes.length) + bytes.length;
+        if (arenaSize + needed > arena.length) {
+            long newSize = Math.max((long) arena.length * 2, (long) arenaSize + needed);
+            if (newSize > Integer.MAX_VALUE - 8) {
+                throw new IllegalStateException("Patron text storage is full.");
+            }
+            arena = Arrays.copyOf(arena, (int) newSize);
+        }
+
+        int ref = arenaSize;
+        int length = bytes.length;
+        while ((length & ~0x7F) != 0) {
+            arena[arenaSize++] = (byte) ((length & 0x7F) | 0x80);
+            length >>>= 7;
+        }
+        arena[arenaSize++] = (byte) length;
+        System.arraycopy(bytes, 0, arena, arenaSize, bytes.length);
+        arenaSize += bytes.length;
+        return ref;
+    }
+
+    // Decodes the string stored at an arena offset
+    private String readText(int ref) {
+        int length = readLength(ref);
+        return new String(arena, ref + varintSize(length), length, StandardCharsets.UTF_8);
+    }
+
+    // Total arena bytes used by the string at an offset (length prefix included)
+    private int textSize(int ref) {
+        int length = readLength(ref);
+        return varintSize(length) + length;
+    }
+
+    private int readLength(int ref) {
+        int length = 0;
+        int shift = 0;
+        while (true) {
+            byte b = arena[ref++];
+            length |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return length;
+            shift += 7;
+        }
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private void growColumns(int capacity) {
+        ids = Arrays.copyOf(ids, capacity);
+        fines = Arrays.copyOf(fines, capacity);
+        nameRefs = Arrays.copyOf(nameRefs, capacity);
+        addressRefs = Arrays.copyOf(addressRefs, capacity);
+    }
+
+    private void compactArenaIfNeeded() {
+        if (garbageBytes >= MIN_GARBAGE_BEFORE_COMPACT && garbageBytes * 2 >= arenaSize) {
+            compact();
+        }
+    }
+
+    /**
+     * Removes removed slots and unused arena bytes. Live patrons keep their order,
+     * and the index is pointed at their new slots.
+     */
+    private void compact() {
+        byte[] oldArena = arena;
+        arena = new byte[Math.max(INITIAL_ARENA_SIZE, arenaSize - garbageBytes)];
+        arenaSize = 0;
+
+        int write = 0;
+        for (int read = 0; read < slotCount; read++) {
+            if (ids[read] == 0) continue;
+
+            ids[write] = ids[read];
+            fines[write] = fines[read];
+            nameRefs[write] = copyText(oldArena, nameRefs[read]);
+            addressRefs[write] = copyText(oldArena, addressRefs[read]);
+            index.put(ids[write], write);
+            write++;
+        }
+
+        slotCount = write;
+        removedSlots = 0;
+        garbageBytes = 0;
+    }
+
+    // Copies one string (with its length prefix) from the old arena into the current one
+    private int copyText(byte[] from, int ref) {
+        int length = 0;
+        int shift = 0;
+        int i = ref;
+        while (true) {
+            byte b = from[i++];
+            length |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) break;
+            shift += 7;
+        }
+        int size = (i - ref) + length;
+
+        int newRef = arenaSize;
+        System.arraycopy(from, ref, arena, arenaSize, size);
+        arenaSize += size;
+        return newRef;
+    }
+}
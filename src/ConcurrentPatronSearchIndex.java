@@ -0,0 +1,108 @@
+/**
+ * ConcurrentPatronSearchIndex is a thread-safe PatronSearchIndex for managers
+ * whose store is changed from several threads at once.
+ *
+ * Patrons are spread over stripes by a hash of their ID, like in
+ * ConcurrentPatronStore. Each stripe is a PatronSearchIndex guarded by its own
+ * lock, so adds, removals and changes of patrons in different stripes run in
+ * parallel. A search asks every stripe in turn (holding one stripe lock at a
+ * time) until it has enough results.
+ *
+ * Queries too short for the index scan all patrons once, without any lock.
+ */
+
+
+import java.util.ArrayList;
+import java.util.function.IntFunction;
+
+public class ConcurrentPatronSearchIndex {
+
+    private final PatronSearchIndex[] stripes;
+    private final int stripeMask;
+
+    // Constructor creates an index with 4 stripes per available core
+    public ConcurrentPatronSearchIndex() {
+        this(Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    // Constructor creates an index with at least the given number of stripes (rounded up to a power of two)
+    public ConcurrentPatronSearchIndex(int minStripes) {
+        int count = 1;
+        while (count < minStripes && count < (1 << 16)) {
+            count <<= 1;
+        }
+
+        stripes = new PatronSearchIndex[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new PatronSearchIndex();
+        }
+        stripeMask = count - 1;
+    }
+
+    // ===== Updates =====
+
+    // Indexes a patron's name and address
+    public void add(int patronId, String name, String address) {
+        PatronSearchIndex stripe = stripeFor(patronId);
+        synchronized (stripe) {
+            stripe.add(patronId, name, address);
+        }
+    }
+
+    // Forgets a patron's name and address (call with the values that were indexed)
+    public void remove(int patronId, String name, String address) {
+        PatronSearchIndex stripe = stripeFor(patronId);
+        synchronized (stripe) {
+            stripe.remove(patronId, name, address);
+        }
+    }
+
+    // Re-indexes a patron whose name or address changed
+    public void update(int patronId, String oldName, String oldAddress, String newName, String newAddress) {
+        PatronSearchIndex stripe = stripeFor(patronId);
+        synchronized (stripe) {
+            stripe.update(patronId, oldName, oldAddress, newName, newAddress);
+        }
+    }
+
+    // Checks if any stripe has built up enough stale entries for the index to be rebuilt
+    public boolean needsRebuild() {
+        for (PatronSearchIndex stripe : stripes) {
+            synchronized (stripe) {
+                if (stripe.needsRebuild()) return true;
+            }
+        }
+        return false;
+    }
+
+    // ===== Queries =====
+
+    /**
+     * Finds patrons whose name or address matches the query (see PatronSearchIndex.search).
+     *
+     * @return matching patrons, at most limit of them
+     */
+    public ArrayList<Patron> search(String query, boolean prefixOnly, int limit,
+                                    IntFunction<Patron> lookup, Iterable<Patron> allPatrons) {
+        // A scan does not use the index, so it needs no stripe (and must run only once)
+        if (PatronSearchIndex.needsScan(query, prefixOnly)) {
+            return stripes[0].search(query, prefixOnly, limit, lookup, allPatrons);
+        }
+
+        ArrayList<Patron> results = new ArrayList<>();
+        for (PatronSearchIndex stripe : stripes) {
+            if (results.size() >= limit) break;
+            synchronized (stripe) {
+                results.addAll(stripe.search(query, prefixOnly, limit - results.size(), lookup, allPatrons));
+            }
+        }
+        return results;
+    }
+
+    // ===== Helpers =====
+
+    private PatronSearchIndex stripeFor(int patronId) {
+        int h = patronId * 0x9E3779B9;
+        return stripes[(h ^ (h >>> 16)) & stripeMask];
+    }
+}
@@ -0,0 +1,311 @@
+/**
+ * ConcurrentPatronStore is a thread-safe PatronStore for serving several
+ * front desks or background jobs from one process.
+ *
+ * Patrons are spread over stripes by a hash of their ID. Each stripe is an
+ * ObjectPatronStore guarded by its own StampedLock:
+ *  - Lookups (get, contains) use an optimistic read, so they take no lock at all
+ *    unless a writer changed that same stripe at the same moment
+ *  - Adds and removals lock one stripe only, so writers on different stripes
+ *    run in parallel
+ *
+ * Iteration copies every stripe under its read lock first, so display and
+ * save never see a half-done change and never fail mid-iteration. Each patron
+ * gets a sequence number when it is added, and the copies are merged by it,
+ * so patrons are still listed in the order they were added.
+ */
+
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.StampedLock;
+
+public class ConcurrentPatronStore implements PatronStore {
+
+    private final Stripe[] stripes;
+    private final int stripeMask;
+
+    // Next sequence number (records the order patrons were added in)
+    private final AtomicInteger nextSequence = new AtomicInteger(1);
+
+    // Renumber well before the counter overflows (leaves room for adds already past the check)
+    private static final int RENUMBER_AT = Integer.MAX_VALUE - (1 << 24);
+
+    /**
+     * One stripe: a plain store plus the sequence numbers of its patrons,
+     * both guarded by the stripe's lock.
+     */
+    private static class Stripe {
+        final StampedLock lock = new StampedLock();
+        final ObjectPatronStore store = new ObjectPatronStore();
+        final PatronIdIndex sequences = new PatronIdIndex();
+    }
+
+    // Constructor creates a store with 4 stripes per available core
+    public ConcurrentPatronStore() {
+        this(Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    // Constructor creates a store with at least the given number of stripes (rounded up to a power of two)
+    public ConcurrentPatronStore(int minStripes) {
+        int count = 1;
+        while (count < minStripes && count < (1 << 16)) {
+            count <<= 1;
+        }
+
+        stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe();
+        }
+        stripeMask = count - 1;
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            long stamp = stripe.lock.readLock();
+            try {
+                size += stripe.store.size();
+            } finally {
+                stripe.lock.unlockRead(stamp);
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public boolean contains(int patronId) {
+        return get(patronId) != null;
+    }
+
+    @Override
+    public Patron get(int patronId) {
+        Stripe stripe = stripeFor(patronId);
+
+        // Optimistic read: no lock, but the result only counts if no writer got in between
+        long stamp = stripe.lock.tryOptimisticRead();
+        if (stamp != 0) {
+            Patron p;
+            try {
+                p = stripe.store.get(patronId);
+            } catch (IndexOutOfBoundsException e) {
+                p = null;   // Read a table that a writer was resizing; validate() fails below
+            }
+            if (stripe.lock.validate(stamp)) {
+                return p;
+            }
+        }
+
+        // A writer was active: read again under the read lock
+        stamp = stripe.lock.readLock();
+        try {
+            return stripe.store.get(patronId);
+        } finally {
+            stripe.lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public boolean add(Patron patron) {
+        int id = patron.getPatronId();
+        Stripe stripe = stripeFor(id);
+        renumberIfNeeded();
+
+        long stamp = stripe.lock.writeLock();
+        try {
+            if (!stripe.store.add(patron)) return false;
+            stripe.sequences.put(id, nextSequence.getAndIncrement());
+            return true;
+        } finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public Patron remove(int patronId) {
+        Stripe stripe = stripeFor(patronId);
+
+        long stamp = stripe.lock.writeLock();
+        try {
+            Patron removed = stripe.store.remove(patronId);
+            if (removed != null) {
+                stripe.sequences.remove(patronId);
+            }
+            return removed;
+        } finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void update(Patron patron) {
+        // Nothing to do: the stored object is the patron itself
+    }
+
+    @Override
+    public void clear() {
+        long[] stamps = writeLockAll();
+        try {
+            for (Stripe stripe : stripes) {
+                stripe.store.clear();
+                stripe.sequences.clear();
+            }
+            nextSequence.set(1);
+        } finally {
+            unlockWriteAll(stamps);
+        }
+    }
+
+    /**
+     * Iterates a consistent copy of all patrons in the order they were added.
+     * Changes made while iterating are not seen by the iterator.
+     */
+    @Override
+    public Iterator<Patron> iterator() {
+        return snapshot().iterator();
+    }
+
+    // ===== Helpers =====
+
+    private Stripe stripeFor(int patronId) {
+        int h = patronId * 0x9E3779B9;
+        return stripes[(h ^ (h >>> 16)) & stripeMask];
+    }
+
+    /**
+     * Gives every patron a new sequence number 1..n in its current order.
+     * Only needed after about two billion adds; takes every write lock in stripe
+     * order, which cannot deadlock because other threads hold at most one lock.
+     */
+    private void renumberIfNeeded() {
+        if (nextSequence.get() < RENUMBER_AT) return;
+
+        long[] stamps = writeLockAll();
+        try {
+            if (nextSequence.get() < RENUMBER_AT) return;
+
+            int sequence = 1;
+            for (Patron p : mergeStripes()) {
+                stripeFor(p.getPatronId()).sequences.put(p.getPatronId(), sequence++);
+            }
+            nextSequence.set(sequence);
+        } finally {
+            unlockWriteAll(stamps);
+        }
+    }
+
+    // Copies all stripes under their read locks and merges them into one list
+    private ArrayList<Patron> snapshot() {
+        long[] stamps = new long[stripes.length];
+        for (int i = 0; i < stripes.length; i++) {
+            stamps[i] = stripes[i].lock.readLock();
+        }
+        try {
+            return mergeStripes();
+        } finally {
+            for (int i = 0; i < stripes.length; i++) {
+                stripes[i].lock.unlockRead(stamps[i]);
+            }
+        }
+    }
+
+    /**
+     * Merges the stripes by sequence number. Every stripe already iterates in
+     * the order its patrons were added, so this is a k-way merge.
+     * Caller must hold a lock on every stripe.
+     */
+    private ArrayList<Patron> mergeStripes() {
+        int total = 0;
+        Patron[][] lists = new Patron[stripes.length][];
+        int[][] sequences = new int[stripes.length][];
+
+        for (int s = 0; s < stripes.length; s++) {
+            Stripe stripe = stripes[s];
+            int n = stripe.store.size();
+            lists[s] = new Patron[n];
+            sequences[s] = new int[n];
+
+            int i = 0;
+            for (Patron p : stripe.store) {
+                lists[s][i] = p;
+                sequences[s][i] = stripe.sequences.get(p.getPatronId());
+                i++;
+            }
+            total += n;
+        }
+
+        // Min-heap of stripe numbers, ordered by the sequence of each stripe's next patron
+        int[] positions = new int[stripes.length];
+        int[] heap = new int[stripes.length];
+        int heapSize = 0;
+        for (int s = 0; s < stripes.length; s++) {
+            if (lists[s].length > 0) {
+                heap[heapSize++] = s;
+                siftUp(heap, heapSize - 1, sequences, positions);
+            }
+        }
+
+        ArrayList<Patron> merged = new ArrayList<>(total);
+        while (heapSize > 0) {
+            int s = heap[0];
+            merged.add(lists[s][positions[s]]);
+            positions[s]++;
+
+            if (positions[s] == lists[s].length) {
+                heap[0] = heap[--heapSize];
+            }
+            siftDown(heap, heapSize, sequences, positions);
+        }
+        return merged;
+    }
+
+    private static int headSequence(int stripe, int[][] sequences, int[] positions) {
+        return sequences[stripe][positions[stripe]];
+    }
+
+    private static void siftUp(int[] heap, int i, int[][] sequences, int[] positions) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (headSequence(heap[parent], sequences, positions) <= headSequence(heap[i], sequences, positions)) break;
+            int t = heap[parent];
+            heap[parent] = heap[i];
+            heap[i] = t;
+            i = parent;
+        }
+    }
+
+    private static void siftDown(int[] heap, int size, int[][] sequences, int[] positions) {
+        int i = 0;
+        while (true) {
+            int left = 2 * i + 1;
+            if (left >= size) break;
+            int smallest = left;
+            int right = left + 1;
+            if (right < size && headSequence(heap[right], sequences, positions)
+                    < headSequence(heap[left], sequences, positions)) {
+                smallest = right;
+            }
+            if (headSequence(heap[i], sequences, positions) <= headSequence(heap[smallest], sequences, positions)) break;
+            int t = heap[i];
+            heap[i] = heap[smallest];
+            heap[smallest] = t;
+            i = smallest;
+        }
+    }
+
+    private long[] writeLockAll() {
+        long[] stamps = new long[stripes.length];
+        for (int i = 0; i < stripes.length; i++) {
+            stamps[i] = stripes[i].lock.writeLock();
+        }
+        return stamps;
+    }
+
+    private void unlockWriteAll(long[] stamps) {
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i].lock.unlockWrite(stamps[i]);
+        }
+    }
+}
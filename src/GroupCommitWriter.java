@@ -0,0 +1,301 @@
+/**
+ * GroupCommitWriter appends text lines to one file from many threads.
+ *
+ * The file stays open (one FileChannel) for the life of the writer. Callers
+ * only queue their line and get a future back; one background thread takes
+ * everything that is queued, writes it with a single channel write and
+ * completes the futures. Under load many records share one write (and one
+ * fsync), which gives much higher throughput than opening the file per record.
+ *
+ * A group is written once it holds maxBatchRecords lines or once the oldest
+ * line has waited maxDelayMillis, whichever comes first. The default delay is 0:
+ * the group is whatever queued up while the previous write was running, which
+ * batches well under load without slowing down a single caller.
+ *
+ * If given a PatronStats, every byte written (header included) is added to its
+ * bytes written once the write succeeded. A RangeListener set with
+ * setRangeListener is told where in the file each write landed.
+ */
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class GroupCommitWriter implements AutoCloseable {
+
+    /**
+     * When written data is forced to the disk (fsync).
+     */
+    public enum SyncPolicy {
+        NONE,           // Leave it to the operating system (fastest, may lose the last records on power loss)
+        PER_BATCH,      // Force once after each group of records
+        PER_RECORD      // Force after every record (slowest, nothing is lost once its future completes)
+    }
+
+    /**
+     * Told the file positions of every write (start inclusive, end exclusive),
+     * for example to recognise this program's own lines when reading the file back.
+     */
+    public interface RangeListener {
+        void written(long start, long end);
+    }
+
+    // Default group limits
+    public static final int DEFAULT_MAX_BATCH_RECORDS = 4096;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 0;
+
+    // Queued line and the future completed once it is written
+    private static class Entry {
+        final byte[] bytes;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Entry(byte[] bytes) {
+            this.bytes = bytes;
+        }
+    }
+
+    // Marks the end of the queue when closing
+    private static final Entry CLOSE = new Entry(new byte[0]);
+
+    private final FileChannel channel;
+    private final SyncPolicy syncPolicy;
+    private final int maxBatchRecords;
+    private final long maxDelayNanos;
+
+    // Counts the bytes written (null for none)
+    private final PatronStats stats;
+
+    // Told where each write landed (null for none)
+    private volatile RangeListener rangeListener;
+
+    private final LinkedBlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+    private final Thread flusher;
+    private volatile boolean closed;
+
+    // Reused between groups by the flusher thread
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+
+    /**
+     * Opens (or creates) the file for appending and starts the flusher thread.
+     *
+     * @param file file to append to
+     * @param header line written first if the file is empty (null for none)
+     * @param syncPolicy when to force data to the disk
+     * @throws IOException if the file cannot be opened
+     */
+    public GroupCommitWriter(Path file, String header, SyncPolicy syncPolicy) throws IOException {
+        this(file, header, syncPolicy, DEFAULT_MAX_BATCH_RECORDS, DEFAULT_MAX_DELAY_MILLIS, null);
+    }
+
+    /**
+     * Opens (or creates) the file for appending, counting the bytes written in stats.
+     *
+     * @param file file to append to
+     * @param header line written first if the file is empty (null for none)
+     * @param syncPolicy when to force data to the disk
+     * @param stats statistics the written bytes are added to (null for none)
+     * @throws IOException if the file cannot be opened
+     */
+    public GroupCommitWriter(Path file, String header, SyncPolicy syncPolicy, PatronStats stats) throws IOException {
+        this(file, header, syncPolicy, DEFAULT_MAX_BATCH_RECORDS, DEFAULT_MAX_DELAY_MILLIS, stats);
+    }
+
+    /**
+     * Opens (or creates) the file for appending and starts the flusher thread.
+     *
+     * @param file file to append to
+     * @param header line written first if the file is empty (null for none)
+     * @param syncPolicy when to force data to the disk
+     * @param maxBatchRecords most records written as one group
+     * @param maxDelayMillis longest a record waits for more records to join its group
+     * @param stats statistics the written bytes are added to (null for none)
+     * @throws IOException if the file cannot be opened
+     */
+    public GroupCommitWriter(Path file, String header, SyncPolicy syncPolicy,
+                             int maxBatchRecords, long maxDelayMillis, PatronStats stats) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.syncPolicy = syncPolicy;
+        this.maxBatchRecords = Math.max(1, maxBatchRecords);
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxDelayMillis));
+        this.stats = stats;
+
+        if (header != null && channel.size() == 0) {
+            ByteBuffer bytes = ByteBuffer.wrap((header + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+            writeFully(bytes);
+            countWritten(bytes.limit());
+        }
+
+        this.flusher = new Thread(this::flushLoop, "group-commit-" + file.getFileName());
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    // Sets who is told where each later write lands in the file (null for nobody)
+    public void setRangeListener(RangeListener listener) {
+        this.rangeListener = listener;
+    }
+
+    /**
+     * Queues one line (a line separator is added).
+     *
+     * @param line text to append
+     * @return future completed when the line is written (and forced, depending on the policy),
+     *         or completed exceptionally if the write failed or the writer is closed
+     */
+    public CompletableFuture<Void> append(String line) {
+        return appendBytes((line + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Queues bytes that already end with a line separator.
+     *
+     * @param lineBytes UTF-8 encoded line, separator included
+     * @return future completed when the bytes are written (see append)
+     */
+    public CompletableFuture<Void> appendBytes(byte[] lineBytes) {
+        Entry entry = new Entry(lineBytes);
+
+        // Checked and queued under the lock so nothing can be queued behind the close marker
+        synchronized (queue) {
+            if (closed) {
+                entry.done.completeExceptionally(new IOException("Writer is closed."));
+            } else {
+                queue.add(entry);
+            }
+        }
+        return entry.done;
+    }
+
+    /**
+     * Writes everything queued so far, stops the flusher thread and closes the file.
+     */
+    @Override
+    public void close() {
+        synchronized (queue) {
+            if (closed) return;
+            closed = true;
+            queue.add(CLOSE);
+        }
+
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.out.println("Error closing file: " + e.getMessage());
+        }
+    }
+
+    // ===== Flusher Thread =====
+
+    private void flushLoop() {
+        ArrayList<Entry> group = new ArrayList<>();
+        boolean stopping = false;
+
+        while (!stopping) {
+            try {
+                // Wait for the first record, then give others a short time to join the group
+                Entry first = queue.take();
+                if (first == CLOSE) break;
+                group.add(first);
+
+                long deadline = System.nanoTime() + maxDelayNanos;
+                while (group.size() < maxBatchRecords) {
+                    long wait = deadline - System.nanoTime();
+                    Entry next = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) break;
+                    if (next == CLOSE) {
+                        stopping = true;
+                        break;
+                    }
+                    group.add(next);
+                }
+            } catch (InterruptedException e) {
+                // Only close() stops the flusher, so nothing queued is ever dropped
+                continue;
+            }
+
+            writeGroup(group);
+            group.clear();
+        }
+    }
+
+    // Writes one group and completes its futures
+    private void writeGroup(ArrayList<Entry> group) {
+        if (group.isEmpty()) return;
+
+        try {
+            if (syncPolicy == SyncPolicy.PER_RECORD) {
+                for (Entry entry : group) {
+                    writeFully(ByteBuffer.wrap(entry.bytes));
+                    countWritten(entry.bytes.length);
+                    reportRange(entry.bytes.length);
+                    channel.force(false);
+                    entry.done.complete(null);
+                }
+                return;
+            }
+
+            int size = 0;
+            for (Entry entry : group) {
+                size += entry.bytes.length;
+            }
+            if (buffer.capacity() < size) {
+                buffer = ByteBuffer.allocateDirect(Math.max(size, buffer.capacity() * 2));
+            }
+            buffer.clear();
+            for (Entry entry : group) {
+                buffer.put(entry.bytes);
+            }
+            buffer.flip();
+            writeFully(buffer);
+            countWritten(size);
+            reportRange(size);
+
+            if (syncPolicy == SyncPolicy.PER_BATCH) {
+                channel.force(false);
+            }
+            for (Entry entry : group) {
+                entry.done.complete(null);
+            }
+
+        } catch (IOException e) {
+            for (Entry entry : group) {
+                entry.done.completeExceptionally(e);
+            }
+        }
+    }
+
+    private void writeFully(ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+
+    // Reports the write that just ended (in append mode the position is just past it)
+    private void reportRange(long bytes) throws IOException {
+        RangeListener listener = rangeListener;
+        if (listener != null) {
+            long end = channel.position();
+            listener.written(end - bytes, end);
+        }
+    }
+
+    private void countWritten(long bytes) {
+        if (stats != null) {
+            stats.addBytesWritten(bytes);
+        }
+    }
+}
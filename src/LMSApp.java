@@ -10,12 +10,25 @@
  *      - Handles user input
  *      - Delegates patron operations to PatronManager
  *      - Maintain the currently loaded file name for saving updates
+ *      - Logs each change to a journal next to that file and compacts it on exit
+ *      - Shows operation statistics (also published over JMX)
+ *      - Optionally follows the loaded file and picks up lines other programs append to it
+ *      - Optionally keeps the roster in a folder of ID-range shard files instead of one file
  *
  * This is a console-based (text-based) application
  */
 
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.Scanner;
+import java.util.function.BooleanSupplier;
 
 public class LMSApp {
 
@@ -25,24 +38,402 @@ public class LMSApp {
     //Used to read user input from the console
     private final Scanner scanner;
 
+    //Files at least this large are loaded in parallel (smaller files load faster on one thread)
+    private static final long PARALLEL_LOAD_THRESHOLD = 8L * 1024 * 1024;
+
+    //Maximum number of patrons shown for one search
+    private static final int SEARCH_RESULT_LIMIT = 20;
+
+    //Width in dollars of each fine band in the statistics, and how many of the largest fines are listed
+    private static final int FINE_BAND_DOLLARS = 25;
+    private static final int TOP_DEBTOR_COUNT = 5;
+
+    //Patrons shown per page when browsing, unless the user picks another size
+    private static final int DEFAULT_PAGE_SIZE = 25;
+
+    //Shard files for a new shard folder, and patrons kept in memory unless --shard-budget says otherwise
+    private static final int DEFAULT_SHARD_COUNT = 64;
+    private static final long DEFAULT_SHARD_BUDGET = 1_000_000;
+
     //Stores the currently loaded file name so we know where to save updates
     private String currentFileName = null;
 
+    //Change log next to the current file, so a change does not rewrite the whole file
+    private PatronJournal journal = null;
+
+    //When journal records are forced to disk
+    private final GroupCommitWriter.SyncPolicy syncPolicy;
+
+    //Follows the loaded file for lines appended by other programs (null unless watch mode is on)
+    private boolean watchFile = false;
+    private PatronFileWatcher watcher = null;
+
+    //True when the store saves to its own shard files, so changes do not need a loaded file
+    private final boolean sharded;
+
+    //True when the store keeps immutable versions, so CSV exports can run in the background
+    private final boolean versioned;
+
     //Constructor initializes PatronManager and Scanner
     public LMSApp() {
-        manager = new PatronManager();
+        this(new ObjectPatronStore(), GroupCommitWriter.SyncPolicy.NONE);
+    }
+
+    //Constructor initializes PatronManager (with the given storage) and Scanner
+    public LMSApp(PatronStore store) {
+        this(store, GroupCommitWriter.SyncPolicy.NONE);
+    }
+
+    //Constructor initializes PatronManager (with the given storage and fsync policy) and Scanner
+    public LMSApp(PatronStore store, GroupCommitWriter.SyncPolicy syncPolicy) {
+        manager = new PatronManager(store);
+        manager.setSyncPolicy(syncPolicy);
+        manager.getStats().register("LMSApp");
         scanner = new Scanner(System.in);
+        this.syncPolicy = syncPolicy;
+        sharded = store instanceof ShardedPatronStore;
+        versioned = store instanceof PersistentPatronStore;
+    }
+
+    /**
+     * Turns on watch mode: the loaded file is followed and lines appended to it
+     * by other programs are added right away. Loading a file then replaces the
+     * roster instead of adding to it. Needs a thread-safe (concurrent) store.
+     */
+    public void enableFileWatching() {
+        watchFile = true;
     }
 
     /**
      * Program entry point
      * Creates the app and starts the main loop
+     *
+     * Options:
+     *      --columnar      keep patrons in compact column arrays (for very large rosters; not with --watch or --server)
+     *      --concurrent    use the thread-safe store (for sharing one roster between threads)
+     *      --lazy          only index data files when loading them; patrons are read when first used
+     *                      (not with --watch or --server)
+     *      --versioned     keep the roster as immutable versions, so CSV exports run in the background
+     *                      while changes go on (also used by --server instead of the concurrent store)
+     *      --server PORT   run without the menu and serve desk clients over TCP (see PatronServer)
+     *      --bind ADDRESS  address the server listens on (default: loopback only, since clients are not authenticated)
+     *      --batch SCRIPT  run the commands in SCRIPT ("-" for standard input) without the menu
+     *      --file NAME     data file to load at startup (server and batch mode)
+     *      --fsync POLICY  when saved changes are forced to disk: none (default), batch or record
+     *      --watch         follow the loaded file and pick up lines other programs append to it
+     *      --sharded DIR   keep the roster in DIR, one file per ID range, loading ranges on first use
+     *                      (menu only: not with --watch, --kiosk, --server, --fines or --batch)
+     *      --shard-budget N  patrons kept in memory in sharded mode before ranges are dropped (default 1000000)
+     *      --fines CHANGES apply a file of "patronId,amount" fine changes to --file and save it once
+     *      --clamp         with --fines, set fines outside 0 to 250 to the nearest limit instead of rejecting them
+     *      --kiosk FILE    only look patrons up by ID in a lookup file (format 3) or block file (format 5), without loading it
+     *      --shared-text   keep names and addresses as words shared between patrons (less memory, slower reads)
      */
     public static void main(String[] args) {
-        LMSApp app = new LMSApp();
+        PatronStore store = new ObjectPatronStore();
+        int serverPort = -1;
+        String bindAddress = null;
+        String batchScript = null;
+        String fileName = null;
+        GroupCommitWriter.SyncPolicy syncPolicy = GroupCommitWriter.SyncPolicy.NONE;
+        boolean watch = false;
+        String shardFolder = null;
+        String kioskFile = null;
+        String finesFile = null;
+        boolean clampFines = false;
+        long shardBudget = DEFAULT_SHARD_BUDGET;
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--columnar")) {
+                store = new ColumnarPatronStore();
+            } else if (arg.equals("--concurrent")) {
+                store = new ConcurrentPatronStore();
+            } else if (arg.equals("--lazy")) {
+                store = new LazyPatronStore();
+            } else if (arg.equals("--versioned")) {
+                store = new PersistentPatronStore();
+            } else if (arg.equals("--shared-text")) {
+                PatronTextDictionary.setEnabled(true);
+            } else if (arg.equals("--server") && i + 1 < args.length) {
+                try {
+                    serverPort = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    System.out.println("Server port must be a number.");
+                    return;
+                }
+            } else if (arg.equals("--bind") && i + 1 < args.length) {
+                bindAddress = args[++i];
+            } else if (arg.equals("--batch") && i + 1 < args.length) {
+                batchScript = args[++i];
+            } else if (arg.equals("--file") && i + 1 < args.length) {
+                fileName = args[++i];
+            } else if (arg.equals("--watch")) {
+                watch = true;
+            } else if (arg.equals("--fines") && i + 1 < args.length) {
+                finesFile = args[++i];
+            } else if (arg.equals("--clamp")) {
+                clampFines = true;
+            } else if (arg.equals("--kiosk") && i + 1 < args.length) {
+                kioskFile = args[++i];
+            } else if (arg.equals("--sharded") && i + 1 < args.length) {
+                shardFolder = args[++i];
+            } else if (arg.equals("--shard-budget") && i + 1 < args.length) {
+                try {
+                    shardBudget = Long.parseLong(args[++i]);
+                } catch (NumberFormatException e) {
+                    System.out.println("Shard budget must be a number.");
+                    return;
+                }
+            } else if (arg.equals("--fsync") && i + 1 < args.length) {
+                syncPolicy = parseSyncPolicy(args[++i]);
+                if (syncPolicy == null) {
+                    System.out.println("Fsync policy must be none, batch or record.");
+                    return;
+                }
+            } else {
+                System.out.println("Unknown option: " + arg);
+                return;
+            }
+        }
+
+        //Only the menu writes changed shards back, so the other modes would lose them
+        if (shardFolder != null) {
+            if (watch) {
+                System.out.println("--watch cannot be combined with --sharded.");
+                return;
+            }
+            if (kioskFile != null || serverPort >= 0 || finesFile != null || batchScript != null) {
+                System.out.println("--sharded cannot be combined with --kiosk, --server, --fines or --batch.");
+                return;
+            }
+            try {
+                store = new ShardedPatronStore(new File(shardFolder), DEFAULT_SHARD_COUNT, shardBudget);
+            } catch (IOException e) {
+                System.out.println("Error opening shard folder: " + e.getMessage());
+                return;
+            }
+        }
+
+        //These stores are not thread-safe, and swapping them would quietly drop what they were chosen for
+        if ((watch || serverPort >= 0)
+                && (store instanceof ColumnarPatronStore || store instanceof LazyPatronStore)) {
+            System.out.println("--columnar and --lazy cannot be combined with --watch or --server"
+                    + " (use --concurrent or --versioned).");
+            return;
+        }
+
+        if (kioskFile != null) {
+            runKiosk(kioskFile);
+            return;
+        }
+        if (serverPort >= 0) {
+            runServer(serverPort, bindAddress, fileName, store, syncPolicy);
+            return;
+        }
+        if (finesFile != null) {
+            runFineAdjustments(finesFile, fileName, store, clampFines);
+            return;
+        }
+        if (batchScript != null) {
+            runBatch(batchScript, fileName, store, syncPolicy);
+            return;
+        }
+
+        //The watcher thread changes the roster while the menu uses it
+        if (watch && store instanceof ObjectPatronStore) {
+            store = new ConcurrentPatronStore();
+        }
+
+        LMSApp app = new LMSApp(store, syncPolicy);
+        if (watch) {
+            app.enableFileWatching();
+        }
         app.run();
     }
 
+    // Returns the fsync policy for an option value, or null if it is not one
+    private static GroupCommitWriter.SyncPolicy parseSyncPolicy(String value) {
+        switch (value.toLowerCase()) {
+            case "none":
+                return GroupCommitWriter.SyncPolicy.NONE;
+            case "batch":
+                return GroupCommitWriter.SyncPolicy.PER_BATCH;
+            case "record":
+                return GroupCommitWriter.SyncPolicy.PER_RECORD;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Runs a batch script against a data file without prompts. Journal writes are
+     * grouped, and the journal is folded into the data file once at the end.
+     */
+    private static void runBatch(String script, String fileName, PatronStore store,
+                                 GroupCommitWriter.SyncPolicy syncPolicy) {
+        if (fileName == null) {
+            System.out.println("Batch mode needs a data file: --file NAME");
+            return;
+        }
+
+        PatronManager manager = new PatronManager(store);
+        manager.loadFromFile(fileName);
+        PatronJournal journal = new PatronJournal(fileName, syncPolicy, manager.getStats());
+        journal.replay(manager);
+
+        PatronBatchRunner runner = new PatronBatchRunner(manager, journal, PatronBatchRunner.DEFAULT_FLUSH_EVERY);
+
+        try (BufferedReader in = script.equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in))
+                : new BufferedReader(new FileReader(script))) {
+            runner.run(in);
+        } catch (IOException e) {
+            System.out.println("Error opening batch script: " + e.getMessage());
+        }
+
+        if (journal.getRecordCount() > 0 && journal.compact(manager)) {
+            System.out.println("Saved all changes to " + fileName + ".");
+        }
+        journal.close();
+    }
+
+    /**
+     * Applies a file of fine changes to a data file (see PatronFineAdjuster).
+     * The data file is rewritten once at the end, together with any pending
+     * journal records; failed and clamped changes are listed in CHANGES.report.
+     * A record file is closed right after loading, so it too is replaced as a
+     * whole (temp file and rename) instead of being saved in place.
+     */
+    private static void runFineAdjustments(String changesFile, String fileName, PatronStore store, boolean clamp) {
+        if (fileName == null) {
+            System.out.println("Fine adjustments need a data file: --file NAME");
+            return;
+        }
+
+        PatronManager manager = new PatronManager(store);
+        manager.loadFromFile(fileName);
+        //Nothing is changed yet, so this writes nothing; a crash can then never leave half a run in the file
+        manager.closeRecordFile();
+        PatronJournal journal = new PatronJournal(fileName, GroupCommitWriter.SyncPolicy.NONE, manager.getStats());
+        journal.replay(manager);
+
+        PatronFineAdjuster adjuster = new PatronFineAdjuster(manager, clamp);
+        if (!adjuster.applyFile(changesFile)) {
+            journal.close();
+            return;
+        }
+
+        String reportFile = changesFile + ".report";
+        if (adjuster.writeReport(reportFile) && !adjuster.getReport().isEmpty()) {
+            System.out.println("Failed and clamped changes are listed in " + reportFile + ".");
+        }
+
+        if (journal.compact(manager)) {
+            System.out.println("Saved all changes to " + fileName + ".");
+        } else {
+            System.out.println("Warning: fine changes could not be saved.");
+        }
+        journal.close();
+    }
+
+    /**
+     * Runs the kiosk mode: patrons are only looked up by ID, straight from a
+     * memory-mapped lookup file, so nothing is loaded at startup.
+     * A compressed block file works too: each lookup decompresses only the
+     * block that can hold the ID (see PatronBlockFile.find).
+     * An empty line or "q" ends the program.
+     */
+    private static void runKiosk(String fileName) {
+        PatronManager manager = null;
+        PatronBlockFile blocks = null;
+        try {
+            if (PatronBlockFile.isBlockFile(fileName)) {
+                blocks = PatronBlockFile.open(fileName);
+            } else {
+                manager = new PatronManager(new MappedPatronStore(fileName));
+            }
+        } catch (IOException e) {
+            System.out.println("Error opening lookup file: " + e.getMessage());
+            return;
+        }
+        if (blocks != null) {
+            System.out.println("Kiosk ready: " + blocks.getBlockCount() + " compressed blocks in " + fileName + ".");
+        } else {
+            System.out.println("Kiosk ready: " + manager.getPatronCount() + " patrons in " + fileName + ".");
+        }
+
+        Scanner in = new Scanner(System.in);
+        while (true) {
+            System.out.print("Enter 7-digit Patron ID (empty to quit): ");
+            if (!in.hasNextLine()) break;
+            String line = in.nextLine().trim();
+            if (line.isEmpty() || line.equalsIgnoreCase("q")) break;
+
+            int patronId;
+            try {
+                patronId = Integer.parseInt(line);
+            } catch (NumberFormatException e) {
+                System.out.println("Patron ID must be a number.");
+                continue;
+            }
+
+            Patron p;
+            if (blocks != null) {
+                try {
+                    p = blocks.find(patronId);
+                } catch (IOException e) {
+                    System.out.println("Error reading block file: " + e.getMessage());
+                    continue;
+                }
+            } else {
+                p = manager.findPatronById(patronId);
+            }
+            System.out.println(p == null ? "No patron found with that ID." : p.toString());
+        }
+        in.close();
+
+        if (blocks != null) {
+            try {
+                blocks.close();
+            } catch (IOException e) {
+                System.out.println("Error closing block file: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Runs the headless server mode. All connections share one thread-safe
+     * PatronManager; pending journal changes are saved when the process stops.
+     */
+    private static void runServer(int port, String bindAddress, String fileName, PatronStore store,
+                                  GroupCommitWriter.SyncPolicy syncPolicy) {
+        InetAddress address;
+        try {
+            address = bindAddress == null ? InetAddress.getLoopbackAddress() : InetAddress.getByName(bindAddress);
+        } catch (UnknownHostException e) {
+            System.out.println("Unknown bind address: " + bindAddress);
+            return;
+        }
+
+        //Connections share the store, so it must be thread-safe
+        if (store instanceof ObjectPatronStore) {
+            store = new ConcurrentPatronStore();
+        }
+        PatronServer server = new PatronServer(new PatronManager(store), syncPolicy);
+        if (fileName != null) {
+            server.loadFile(fileName);
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+
+        try {
+            server.start(port, address);
+        } catch (IOException e) {
+            System.out.println("Error starting server: " + e.getMessage());
+        }
+    }
+
     /**
      * Runs the main application loop until the user chooses Exit
      * Displays the menu, processes user choice, and calls the appropriate methods
@@ -69,14 +460,24 @@ public class LMSApp {
                     findPatron();
                     break;
                 case 5:
-                    manager.displayAllPatrons();
+                    searchPatrons();
                     break;
                 case 6:
+                    browsePatrons();
+                    break;
+                case 7:
+                    exportPatrons();
+                    break;
+                case 8:
+                    showStatistics();
+                    break;
+                case 9:
+                    compactJournal();
                     System.out.println("Exiting program. Goodbye!");
                     running = false;
                     break;
                 default:
-                    System.out.println("Invalid choice. Please enter a number from 1 to 6.");
+                    System.out.println("Invalid choice. Please enter a number from 1 to 9.");
             }
 
             System.out.println();
@@ -92,13 +493,20 @@ public class LMSApp {
      */
     private void displayMenu() {
         System.out.println("===== Library Management System (LMS) =====");
-        System.out.println("Current file: " + (currentFileName == null ? "(none loaded)" : currentFileName));
+        if (sharded) {
+            System.out.println("Current file: " + (currentFileName == null ? "(shard folder)" : currentFileName + " (imported into shard folder)"));
+        } else {
+            System.out.println("Current file: " + (currentFileName == null ? "(none loaded)" : currentFileName));
+        }
         System.out.println("1. Load patrons from file");
         System.out.println("2. Add a patron (auto-save)");
         System.out.println("3. Remove a patron (auto-save)");
         System.out.println("4. Find a patron by ID");
-        System.out.println("5. Display all patrons");
-        System.out.println("6. Exit");
+        System.out.println("5. Search patrons by name or address");
+        System.out.println("6. Display patrons (page by page, sorted)");
+        System.out.println("7. Export patrons (CSV, snapshot, kiosk lookup, record or block file)");
+        System.out.println("8. Statistics");
+        System.out.println("9. Exit");
         System.out.println("==========================================");
     }
 
@@ -118,16 +526,88 @@ public class LMSApp {
 
         //Store file name for future auto-save operations
         currentFileName = fileName;
-        //Load patron records from file into PatronManager
-        manager.loadFromFile(fileName);
+
+        //Save and close a record file loaded before, so patrons loaded now are not saved into it
+        manager.closeRecordFile();
+
+        //In watch mode the roster is the file's content, so start from an empty roster
+        if (watchFile) {
+            startWatching(fileName);
+        }
+
+        //Load patron records from file into PatronManager (large files are parsed on all cores)
+        if (new File(fileName).length() >= PARALLEL_LOAD_THRESHOLD) {
+            manager.loadFromFileParallel(fileName);
+        } else {
+            manager.loadFromFile(fileName);
+        }
+
+        //Apply changes logged since the file was last rewritten (the old file's journal is closed first)
+        if (journal != null) {
+            journal.close();
+        }
+        journal = new PatronJournal(fileName, syncPolicy, manager.getStats());
+        journal.replay(manager);
+
+        //In sharded mode the shard files keep every change, so the import is one-way:
+        //the imported file (and its journal) is only read, never written
+        if (sharded) {
+            journal.close();
+            journal = null;
+            manager.closeRecordFile();
+            if (!manager.flushStore()) {
+                System.out.println("Warning: some shard files could not be saved.");
+            }
+            return;
+        }
+
+        //A record file saves each change in place, so it needs no journal (replayed records are saved now)
+        if (fileName.equals(manager.getRecordFileName())) {
+            journal.compact(manager);
+            journal.close();
+            journal = null;
+        }
+
+        if (watcher != null) {
+            try {
+                watcher.start();
+                System.out.println("Watching " + fileName + " for appended patrons.");
+            } catch (IOException e) {
+                System.out.println("Error watching file: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Stops following the previous file, clears the roster and prepares to
+     * follow the given file. The offset is taken before loading, so lines
+     * appended while loading are not missed (see PatronFileWatcher.skipToEnd).
+     */
+    private void startWatching(String fileName) {
+        if (watcher != null) {
+            watcher.close();
+        }
+        manager.clearPatrons();
+
+        watcher = new PatronFileWatcher(manager, fileName, () -> {
+            // Records this program journaled itself are already applied
+            PatronJournal own = journal;
+            return own != null && own.getDataFileName().equals(fileName) ? own : null;
+        }, loaded -> {
+            // After a full reload, apply this file's journal again
+            if (journal != null && journal.getDataFileName().equals(fileName)) {
+                journal.replay(loaded);
+            }
+        });
+        watcher.skipToEnd();
     }
 
     /**
      * Collects patron details from the user, validates them, adds the patron,
-     * and immediately appends the new patron to the currently loaded file
+     * and immediately logs the new patron to the journal of the currently loaded file
      */
     private void addPatronAndSave() {
-        if (currentFileName == null) {
+        if (currentFileName == null && !sharded) {
             System.out.println("Please load a file first (Option 1) so the system knows where to save.");
             return;
         }
@@ -161,8 +641,8 @@ public class LMSApp {
                 return;
             }
 
-            // Append patron to file so it persists even after program exits
-            boolean saved = manager.appendPatronToFile(currentFileName, patron);
+            // Log patron to the journal so it persists even after program exits
+            boolean saved = saveChange(() -> journal.appendAdd(patron));
 
             if (saved) {
                 System.out.println("Patron added and saved successfully.");
@@ -177,12 +657,12 @@ public class LMSApp {
     }
 
     /**
-     * Removes a patron by ID from memory and then overwrites the file
-     * so the file matches the updated in-memory list
+     * Removes a patron by ID from memory and logs the removal to the journal.
+     * The file itself is only rewritten when the journal is compacted.
      */
     private void removePatronAndSave() {
         // Must load a file first so we know which file to update
-        if (currentFileName == null) {
+        if (currentFileName == null && !sharded) {
             System.out.println("Please load a file first (Option 1) so the system knows which file to update.");
             return;
         }
@@ -195,8 +675,8 @@ public class LMSApp {
             return;
         }
 
-        // Rewrite the file so the removed patron is deleted from the file too
-        boolean saved = manager.saveAllToFile(currentFileName);
+        // Log the removal (one short line) instead of rewriting the whole file
+        boolean saved = saveChange(() -> journal.appendRemove(patronId));
 
         if (saved) {
             System.out.println("Patron removed and file updated successfully.");
@@ -218,6 +698,272 @@ public class LMSApp {
         }
     }
 
+    //Finds patrons whose name or address contains the text entered by the user
+    private void searchPatrons() {
+        System.out.print("Enter part of a name or address: ");
+        String query = scanner.nextLine().trim();
+
+        if (query.isEmpty()) {
+            System.out.println("Search text cannot be empty.");
+            return;
+        }
+
+        ArrayList<Patron> results = manager.searchPatrons(query, false, SEARCH_RESULT_LIMIT);
+        if (results.isEmpty()) {
+            System.out.println("No patrons found.");
+            return;
+        }
+
+        System.out.println("----- Search Results -----");
+        for (Patron p : results) {
+            System.out.println(p);
+        }
+        if (results.size() == SEARCH_RESULT_LIMIT) {
+            System.out.println("(showing the first " + SEARCH_RESULT_LIMIT + " matches - refine the search to see others)");
+        }
+        System.out.println("--------------------------");
+    }
+
+    /**
+     * Saves all patrons in memory to a file chosen by the user,
+     * either as CSV text (for other programs), as a binary snapshot (fast to load)
+     * as a sorted lookup file (for --kiosk), as a fixed-width record file (saves changes in place)
+     * or as a compressed block file (smallest on disk)
+     */
+    private void exportPatrons() {
+        System.out.print("Enter the export file name: ");
+        String fileName = scanner.nextLine().trim();
+
+        if (fileName.isEmpty()) {
+            System.out.println("File name cannot be empty.");
+            return;
+        }
+
+        System.out.print("Format - 1 for CSV text, 2 for binary snapshot, 3 for kiosk lookup file, 4 for record file, 5 for compressed block file: ");
+        String format = scanner.nextLine().trim();
+
+        //A versioned roster is exported from a snapshot, so the menu can be used meanwhile
+        if (format.equals("1") && versioned) {
+            int count = manager.getPatronCount();
+            manager.saveAllToFileInBackground(fileName).thenAccept(saved -> System.out.println(saved
+                    ? "Background export of " + count + " patrons to " + fileName + " finished."
+                    : "Warning: patrons could not be exported."));
+            System.out.println("Exporting to " + fileName + " in the background.");
+            return;
+        }
+
+        boolean saved;
+        if (format.equals("1")) {
+            saved = manager.saveAllToFile(fileName);
+        } else if (format.equals("2")) {
+            saved = manager.saveSnapshotToFile(fileName);
+        } else if (format.equals("3")) {
+            saved = manager.saveLookupFile(fileName);
+        } else if (format.equals("4")) {
+            saved = manager.saveRecordFile(fileName);
+        } else if (format.equals("5")) {
+            saved = manager.saveBlockFile(fileName);
+        } else {
+            System.out.println("Invalid format. Please enter 1 to 5.");
+            return;
+        }
+
+        if (saved) {
+            System.out.println("Exported " + manager.getPatronCount() + " patrons to " + fileName + ".");
+        } else {
+            System.out.println("Warning: patrons could not be exported.");
+        }
+    }
+
+    /**
+     * Shows the patrons one page at a time in the order the user picks.
+     * The list is sorted once; moving between pages only prints that page.
+     */
+    private void browsePatrons() {
+        if (manager.getPatronCount() == 0) {
+            System.out.println("No patrons found.");
+            return;
+        }
+
+        System.out.print("Sort by - 1 added order, 2 ID, 3 name, 4 fine (highest first) [1]: ");
+        PatronListing.SortKey sortKey;
+        switch (scanner.nextLine().trim()) {
+            case "":
+            case "1":
+                sortKey = PatronListing.SortKey.ADDED;
+                break;
+            case "2":
+                sortKey = PatronListing.SortKey.ID;
+                break;
+            case "3":
+                sortKey = PatronListing.SortKey.NAME;
+                break;
+            case "4":
+                sortKey = PatronListing.SortKey.FINE;
+                break;
+            default:
+                System.out.println("Invalid choice. Please enter 1 to 4.");
+                return;
+        }
+
+        int pageSize = readInt("Patrons per page (0 for all, " + DEFAULT_PAGE_SIZE + " suggested): ");
+        if (pageSize < 0) {
+            System.out.println("Page size cannot be negative.");
+            return;
+        }
+        if (pageSize == 0) pageSize = Integer.MAX_VALUE;
+
+        PatronListing listing = manager.listPatrons(sortKey);
+        int pageCount = listing.getPageCount(pageSize);
+        int page = 1;
+        PatronLineWriter out = PatronLineWriter.toConsole();
+
+        while (true) {
+            try {
+                out.writeLine("----- Page " + page + " of " + pageCount + " (" + listing.size() + " patrons) -----");
+                listing.write(out, (page - 1) * pageSize, pageSize);
+                out.writeLine("-----------------------");
+                out.flush();
+            } catch (IOException e) {
+                System.out.println("Error displaying patrons: " + e.getMessage());
+                return;
+            }
+
+            if (pageCount == 1) return;
+
+            System.out.print("n = next, p = previous, page number = go to page, q = back to menu: ");
+            String input = scanner.nextLine().trim().toLowerCase();
+
+            if (input.equals("q")) {
+                return;
+            } else if (input.equals("n") || input.isEmpty()) {
+                if (page < pageCount) page++;
+            } else if (input.equals("p")) {
+                if (page > 1) page--;
+            } else {
+                try {
+                    page = Math.max(1, Math.min(pageCount, Integer.parseInt(input)));
+                } catch (NumberFormatException e) {
+                    System.out.println("Please enter n, p, q or a page number.");
+                }
+            }
+        }
+    }
+
+    /**
+     * Shows how often each operation ran and how long it took, plus bytes
+     * read and written and why rows were skipped while loading.
+     * The same numbers are available over JMX (lms:type=PatronStats).
+     *
+     * Fine totals come from the fine index. Building it reads every patron,
+     * which in lazy or sharded mode means the whole roster, so the user is
+     * asked first if it does not exist yet.
+     */
+    private void showStatistics() {
+        System.out.println("----- Statistics -----");
+        System.out.println(manager.getStats().report());
+        if (manager.hasFineIndex()) {
+            showFineSummary();
+        } else if (manager.getPatronCount() > 0) {
+            System.out.print("Fines are not indexed yet. Read every patron to show fine totals? (y/n) [n]: ");
+            if (scanner.nextLine().trim().equalsIgnoreCase("y")) {
+                showFineSummary();
+            }
+        }
+        System.out.println("----------------------");
+    }
+
+    //Shows the fine totals, how fines are spread, and the largest debtors (kept up to date by the manager)
+    private void showFineSummary() {
+        System.out.printf("Total fines: $%.2f owed by %d patrons%n", manager.getTotalFines(), manager.getPatronsOwingCount());
+
+        int[] histogram = manager.getFineHistogram();
+        for (int band = 0; band < histogram.length; band += FINE_BAND_DOLLARS) {
+            int count = 0;
+            for (int d = band; d < Math.min(band + FINE_BAND_DOLLARS, histogram.length); d++) {
+                count += histogram[d];
+            }
+            String range = band + FINE_BAND_DOLLARS < histogram.length
+                    ? "$" + band + "-" + (band + FINE_BAND_DOLLARS - 1) + ".99"
+                    : "$" + band;
+            System.out.println("  " + range + ": " + count);
+        }
+
+        ArrayList<Patron> top = manager.findTopDebtors(TOP_DEBTOR_COUNT);
+        if (!top.isEmpty()) {
+            System.out.println("Largest fines:");
+            for (Patron p : top) {
+                System.out.println("  " + p);
+            }
+        }
+    }
+
+    // ===== Journal Helpers =====
+
+    /**
+     * Saves one change: logs it to the journal of the loaded file, or writes
+     * the changed record in place if a record file is loaded. In sharded mode
+     * the changed shard is also written back to its file.
+     *
+     * @param logChange appends the change to the journal
+     * @return true if saved, false otherwise
+     */
+    private boolean saveChange(BooleanSupplier logChange) {
+        boolean saved = true;
+        if (journal != null) {
+            saved = logChange.getAsBoolean();
+            compactJournalIfNeeded();
+        }
+        if (manager.getRecordFileName() != null) {
+            saved &= manager.saveDirtyRecords();
+        }
+        if (sharded) {
+            saved &= manager.flushStore();
+        }
+        return saved;
+    }
+
+    //Folds the journal into the data file once it has grown large
+    private void compactJournalIfNeeded() {
+        if (journal != null && journal.needsCompaction(manager.getPatronCount())) {
+            compactJournalFile();
+        }
+    }
+
+    //Rewrites the data file from memory; while watching, appended lines are picked up first
+    private boolean compactJournalFile() {
+        if (watcher == null) {
+            return journal.compact(manager);
+        }
+        boolean[] compacted = new boolean[1];
+        watcher.rewrite(() -> compacted[0] = journal.compact(manager));
+        return compacted[0];
+    }
+
+    //Folds any pending journal records into the data file and closes open files (used on exit)
+    private void compactJournal() {
+        manager.closeWriters();
+        if (!manager.closeRecordFile()) {
+            System.out.println("Warning: some changed records could not be saved.");
+        }
+        if (sharded && !manager.flushStore()) {
+            System.out.println("Warning: some shard files could not be saved.");
+        }
+        if (journal == null) return;
+
+        if (journal.getRecordCount() > 0) {
+            if (compactJournalFile()) {
+                System.out.println("Saved all changes to " + journal.getDataFileName() + ".");
+            } else {
+                System.out.println("Warning: changes are kept in the journal and will be applied on the next load.");
+            }
+        }
+        journal.close();
+        if (watcher != null) {
+            watcher.close();
+        }
+    }
+
     // ===== Input Helpers =====
 
     /**
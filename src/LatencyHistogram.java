@@ -0,0 +1,122 @@
+/**
+ * LatencyHistogram counts how long an operation took, in nanoseconds, so that
+ * percentiles such as p50, p99 and p999 can be read at any time.
+ *
+ * Values are counted in log-linear buckets: every power of two is split into
+ * 16 equal buckets, so a reported percentile is within about 6% of the true
+ * value. All buckets are allocated up front and recording only increments
+ * counters, so record() allocates nothing and takes no lock.
+ */
+
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+public class LatencyHistogram {
+
+    // 16 sub-buckets per power of two
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    // Enough buckets for any non-negative long
+    private static final int BUCKET_COUNT = 64 * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    // Records one operation that took the given number of nanoseconds
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        buckets.incrementAndGet(bucketOf(nanos));
+        count.increment();
+        total.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    // Returns the number of operations recorded
+    public long getCount() {
+        return count.sum();
+    }
+
+    // Returns the total time of all recorded operations in nanoseconds
+    public long getTotalNanos() {
+        return total.sum();
+    }
+
+    // Returns the longest recorded time in nanoseconds
+    public long getMaxNanos() {
+        return max.get();
+    }
+
+    // Returns the average time in nanoseconds (0 if nothing was recorded)
+    public double getMeanNanos() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) total.sum() / n;
+    }
+
+    /**
+     * Returns the time that the given share of operations did not exceed.
+     *
+     * @param percentile 0 to 100 (for example 99.9 for p999)
+     * @return time in nanoseconds (0 if nothing was recorded)
+     */
+    public long getPercentileNanos(double percentile) {
+        long[] counts = new long[BUCKET_COUNT];
+        long n = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets.get(i);
+            n += counts[i];
+        }
+        if (n == 0) return 0;
+
+        long rank = (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * n);
+        if (rank < 1) rank = 1;
+
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                // The top of the bucket, but never above the real maximum
+                return Math.min(bucketUpperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    // Forgets every recorded value
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.set(i, 0);
+        }
+        count.reset();
+        total.reset();
+        max.reset();
+    }
+
+    // ===== Helpers =====
+
+    /**
+     * Values below 32 get a bucket each. Above that, the bucket is the position
+     * of the highest set bit (the power of two) plus the next 4 bits.
+     */
+    private static int bucketOf(long value) {
+        if (value < 2 * SUB_BUCKETS) return (int) value;
+
+        int highestBit = 63 - Long.numberOfLeadingZeros(value);
+        int shift = highestBit - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    // Largest value that falls into the bucket
+    private static long bucketUpperBound(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) return bucket;
+
+        int shift = bucket / SUB_BUCKETS - 1;
+        long subBucket = bucket % SUB_BUCKETS + SUB_BUCKETS;
+        long lower = subBucket << shift;
+        return lower + (1L << shift) - 1;
+    }
+}
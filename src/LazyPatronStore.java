@@ -0,0 +1,423 @@
+/**
+ * LazyPatronStore loads a data file by indexing it: one pass checks every row
+ * and remembers only the patron ID and where the row is in the file. A row is
+ * turned into a Patron the first time it is needed (a lookup, a listing or a
+ * save), so startup only costs the indexing pass.
+ *
+ * Patron objects read from the file are kept in a bounded LRU cache. Patrons
+ * that were added or changed in memory are kept until they are removed (the
+ * file does not have their current values).
+ *
+ * Each indexed file stays open, so the rows can still be read after the file
+ * is replaced by a save (the old content stays readable through the open file,
+ * as long as the platform allows replacing an open file).
+ *
+ * Iteration is in the order patrons were added (file order first). get()
+ * may return a new Patron object on each call; use update() to store changes.
+ *
+ * Every method takes the store's lock (reads change the cache and share one
+ * parser), so several threads may use the store at once, for example the
+ * parallel lookups of PatronFineAdjuster; they just take turns.
+ */
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+public class LazyPatronStore implements PatronStore {
+
+    // Patrons read from files that are kept unless another cache size is given
+    public static final int DEFAULT_CACHE_SIZE = 10_000;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    // Size of the byte blocks read by the indexing pass and by iteration
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    // Values of files[slot] for slots without a file row
+    private static final byte IN_MEMORY = -1;     // Added or changed: the patron is in held
+    private static final byte REMOVED = -2;
+
+    // Slot of every patron ID
+    private final PatronIdIndex index = new PatronIdIndex();
+
+    // Per slot (in the order patrons were added): ID, file number, row position and row length
+    private int[] ids = new int[INITIAL_CAPACITY];
+    private byte[] files = new byte[INITIAL_CAPACITY];
+    private long[] positions = new long[INITIAL_CAPACITY];
+    private int[] lengths = new int[INITIAL_CAPACITY];
+    private int slotCount;
+    private int size;
+
+    // Open indexed files (the file number is the position in this list)
+    private final ArrayList<FileChannel> channels = new ArrayList<>();
+
+    // Patrons added or changed in memory, by ID
+    private final HashMap<Integer, Patron> held = new HashMap<>();
+
+    // Recently read patrons, least recently used first
+    private final LinkedHashMap<Integer, Patron> cache;
+
+    // Parses rows read back from the files
+    private final PatronLineParser parser = new PatronLineParser();
+
+    /**
+     * Result of indexing one file.
+     */
+    public static class IndexResult {
+        private int indexedCount;
+        private int skippedCount;
+        private long bytesRead;
+        private final int[] skippedByResult = new int[PatronLineParser.EMPTY_TEXT + 1];
+
+        // Returns the number of rows indexed
+        public int getIndexedCount() {
+            return indexedCount;
+        }
+
+        // Returns the number of rows skipped (invalid, or an ID already stored)
+        public int getSkippedCount() {
+            return skippedCount;
+        }
+
+        // Returns the number of rows skipped because of the given PatronLineParser result
+        public int getSkippedCount(int result) {
+            return result >= 0 && result < skippedByResult.length ? skippedByResult[result] : 0;
+        }
+
+        // Returns the number of rows skipped because their ID was already stored
+        public int getDuplicateCount() {
+            int invalid = 0;
+            for (int n : skippedByResult) {
+                invalid += n;
+            }
+            return skippedCount - invalid;
+        }
+
+        public long getBytesRead() {
+            return bytesRead;
+        }
+    }
+
+    // Constructor creates an empty store with the default cache size
+    public LazyPatronStore() {
+        this(DEFAULT_CACHE_SIZE);
+    }
+
+    // Constructor creates an empty store that keeps up to cacheSize patrons read from files
+    public LazyPatronStore(int cacheSize) {
+        int maxCached = Math.max(0, cacheSize);
+        cache = new LinkedHashMap<Integer, Patron>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Patron> eldest) {
+                return size() > maxCached;
+            }
+        };
+    }
+
+    /**
+     * Indexes a CSV data file: every row is checked with the same rules as
+     * PatronManager.loadFromFile (so the same rows are skipped), but only the
+     * ID and position of the valid rows are kept. IDs already stored are skipped.
+     *
+     * @param fileName data file to index (kept open until close)
+     * @return counts of indexed and skipped rows
+     * @throws IOException if the file cannot be read
+     */
+    public synchronized IndexResult indexFile(String fileName) throws IOException {
+        if (channels.size() > Byte.MAX_VALUE) {
+            throw new IOException("Too many files indexed.");
+        }
+        FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+        byte fileNumber = (byte) channels.size();
+        channels.add(channel);
+
+        IndexResult result = new IndexResult();
+        PatronLineParser check = new PatronLineParser();
+
+        // Rows indexed before a read error stay readable, so the channel stays open either way
+        InputStream in = Channels.newInputStream(channel);
+        byte[] buf = new byte[BLOCK_SIZE];
+        int filled = 0;
+        long bufStart = 0;      // File position of buf[0]
+        boolean firstLine = true;
+        boolean endOfFile = false;
+
+        while (!endOfFile) {
+            int n = in.read(buf, filled, buf.length - filled);
+            if (n < 0) {
+                endOfFile = true;
+            } else {
+                filled += n;
+                result.bytesRead += n;
+            }
+
+            int lineStart = 0;
+            for (int i = 0; i < filled; i++) {
+                byte c = buf[i];
+                if (c != '\n' && c != '\r') continue;
+
+                indexLine(check, buf, lineStart, i, firstLine, fileNumber, bufStart, result);
+                firstLine = false;
+                lineStart = i + 1;
+            }
+
+            if (endOfFile) {
+                if (lineStart < filled) {
+                    indexLine(check, buf, lineStart, filled, firstLine, fileNumber, bufStart, result);
+                }
+                break;
+            }
+
+            // Move the unfinished line to the front (grow the buffer for very long lines)
+            int remaining = filled - lineStart;
+            if (lineStart == 0 && remaining == buf.length) {
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            } else {
+                System.arraycopy(buf, lineStart, buf, 0, remaining);
+            }
+            bufStart += lineStart;
+            filled = remaining;
+        }
+        return result;
+    }
+
+    // Returns the number of patrons currently kept as objects (cached plus added or changed)
+    public synchronized int getMaterializedCount() {
+        return cache.size() + held.size();
+    }
+
+    /**
+     * Closes the indexed files. Patrons not read yet cannot be read afterwards,
+     * so only call this when the store is no longer used (clear also closes them).
+     */
+    public synchronized void close() {
+        for (FileChannel channel : channels) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.out.println("Error closing file: " + e.getMessage());
+            }
+        }
+    }
+
+    // ===== PatronStore =====
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized boolean contains(int patronId) {
+        return index.contains(patronId);
+    }
+
+    @Override
+    public synchronized Patron get(int patronId) {
+        int slot = index.get(patronId);
+        if (slot == PatronIdIndex.NOT_FOUND) return null;
+        if (files[slot] == IN_MEMORY) return held.get(patronId);
+
+        Patron p = cache.get(patronId);
+        if (p == null) {
+            p = read(slot);
+            if (p != null) cache.put(patronId, p);
+        }
+        return p;
+    }
+
+    @Override
+    public synchronized boolean add(Patron patron) {
+        if (index.contains(patron.getPatronId())) return false;
+
+        int slot = newSlot(patron.getPatronId(), IN_MEMORY, 0, 0);
+        index.put(patron.getPatronId(), slot);
+        held.put(patron.getPatronId(), patron);
+        size++;
+        return true;
+    }
+
+    @Override
+    public synchronized Patron remove(int patronId) {
+        Patron removed = get(patronId);
+        if (removed == null) return null;
+
+        int slot = index.remove(patronId);
+        files[slot] = REMOVED;
+        held.remove(patronId);
+        cache.remove(patronId);
+        size--;
+        return removed;
+    }
+
+    @Override
+    public synchronized void update(Patron patron) {
+        int slot = index.get(patron.getPatronId());
+        if (slot == PatronIdIndex.NOT_FOUND) return;
+
+        // The file no longer has the current values: keep the patron in memory from now on
+        files[slot] = IN_MEMORY;
+        cache.remove(patron.getPatronId());
+        held.put(patron.getPatronId(), patron);
+    }
+
+    @Override
+    public synchronized void clear() {
+        index.clear();
+        held.clear();
+        cache.clear();
+        slotCount = 0;
+        size = 0;
+
+        // No slot refers to the indexed files any more
+        close();
+        channels.clear();
+    }
+
+    /**
+     * Iterates in the order patrons were added. Rows are read from the files in
+     * blocks and parsed as they are reached; they are not put in the cache, so
+     * a save or listing does not push out the patrons used most.
+     */
+    @Override
+    public Iterator<Patron> iterator() {
+        return new Iterator<Patron>() {
+            private int slot = skipRemoved(0);
+
+            // Block of file bytes read last: which file, where it starts, and how many bytes are valid
+            private final ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+            private int blockFile = -1;
+            private long blockStart;
+
+            @Override
+            public boolean hasNext() {
+                synchronized (LazyPatronStore.this) {
+                    return slot < slotCount;
+                }
+            }
+
+            @Override
+            public Patron next() {
+                synchronized (LazyPatronStore.this) {
+                    if (slot >= slotCount) throw new NoSuchElementException();
+                    int current = slot;
+                    slot = skipRemoved(slot + 1);
+
+                    if (files[current] == IN_MEMORY) return held.get(ids[current]);
+                    Patron cached = cache.get(ids[current]);
+                    if (cached != null) return cached;
+
+                    // Rows longer than a block are read on their own
+                    if (lengths[current] > BLOCK_SIZE) return read(current);
+
+                    long start = positions[current];
+                    long end = start + lengths[current];
+                    if (blockFile != files[current] || start < blockStart || end > blockStart + block.limit()) {
+                        fillBlock(files[current], start);
+                    }
+                    int offset = (int) (start - blockStart);
+                    return parse(block.array(), offset, offset + lengths[current]);
+                }
+            }
+
+            private void fillBlock(int file, long start) {
+                block.clear();
+                try {
+                    FileChannel channel = channels.get(file);
+                    while (block.hasRemaining()) {
+                        if (channel.read(block, start + block.position()) < 0) break;
+                    }
+                } catch (IOException e) {
+                    throw new IllegalStateException("Error reading file: " + e.getMessage(), e);
+                }
+                block.flip();
+                blockFile = file;
+                blockStart = start;
+            }
+        };
+    }
+
+    // ===== Helpers =====
+
+    // Checks one row; indexes it if it is valid and its ID is new
+    private void indexLine(PatronLineParser check, byte[] buf, int start, int end, boolean firstLine,
+                           byte fileNumber, long bufStart, IndexResult result) {
+        int parsed = check.parse(buf, start, end, firstLine);
+        if (parsed == PatronLineParser.BLANK || parsed == PatronLineParser.HEADER) return;
+
+        if (parsed != PatronLineParser.OK) {
+            result.skippedCount++;
+            result.skippedByResult[parsed]++;
+            return;
+        }
+        int patronId = check.getPatronId();
+        if (index.contains(patronId)) {
+            result.skippedCount++;
+            return;
+        }
+
+        int slot = newSlot(patronId, fileNumber, bufStart + start, end - start);
+        index.put(patronId, slot);
+        size++;
+        result.indexedCount++;
+    }
+
+    private int newSlot(int patronId, byte file, long position, int length) {
+        if (slotCount == ids.length) {
+            int capacity = ids.length * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            files = Arrays.copyOf(files, capacity);
+            positions = Arrays.copyOf(positions, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+        }
+        ids[slotCount] = patronId;
+        files[slotCount] = file;
+        positions[slotCount] = position;
+        lengths[slotCount] = length;
+        return slotCount++;
+    }
+
+    private int skipRemoved(int slot) {
+        while (slot < slotCount && files[slot] == REMOVED) {
+            slot++;
+        }
+        return slot;
+    }
+
+    // Reads and parses the file row of a slot
+    private Patron read(int slot) {
+        ByteBuffer row = ByteBuffer.allocate(lengths[slot]);
+        try {
+            FileChannel channel = channels.get(files[slot]);
+            while (row.hasRemaining()) {
+                if (channel.read(row, positions[slot] + row.position()) < 0) {
+                    throw new IOException("File is shorter than when it was indexed.");
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Error reading patron " + ids[slot] + ": " + e.getMessage(), e);
+        }
+        return parse(row.array(), 0, lengths[slot]);
+    }
+
+    // Parses a row that passed the indexing check
+    private Patron parse(byte[] buf, int start, int end) {
+        if (parser.parse(buf, start, end, false) != PatronLineParser.OK) {
+            throw new IllegalStateException("File changed since it was indexed.");
+        }
+        return parser.toPatron();
+    }
+}
@@ -0,0 +1,377 @@
+/**
+ * MappedPatronStore is a read-only store that looks patrons up directly in a
+ * lookup file on disk, for kiosks that only find patrons by ID.
+ *
+ * The lookup file is sorted by patron ID and starts with an index of fixed-width
+ * entries, so a lookup is a binary search over the memory-mapped index plus one
+ * record read. Nothing is loaded up front: opening the store only maps the file,
+ * and a lookup touches a handful of pages. A small cache in front keeps the most
+ * recently found patrons decoded.
+ *
+ * Layout (all numbers big-endian):
+ *      int     magic ("LMSL")
+ *      int     format version
+ *      int     record count (n)
+ *      long    size of the record section in bytes
+ *      n index entries, sorted by patron ID:
+ *          int     patron ID
+ *          long    offset of the record in the record section
+ *      record section, one record per patron:
+ *          long    overdue fine in cents
+ *          name and address, each a varint byte length followed by UTF-8 bytes
+ *
+ * add, remove, update and clear throw UnsupportedOperationException.
+ * get returns a new Patron object on every call. Iteration is in ID order.
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+public class MappedPatronStore implements PatronStore {
+
+    // "LMSL" in ASCII
+    public static final int MAGIC = 0x4C4D534C;
+
+    // Current format version (increase when the layout changes)
+    public static final int VERSION = 1;
+
+    // Patrons kept decoded unless another cache size is given
+    public static final int DEFAULT_CACHE_SIZE = 1024;
+
+    // magic + version + count + record section size
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 8;
+
+    // patron ID + record offset
+    private static final int INDEX_ENTRY_SIZE = 4 + 8;
+
+    // Size of the buffer used by write
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final String fileName;
+    private final int count;
+    private final MappedByteBuffer index;
+    private final MappedByteBuffer records;
+
+    // Most recently found patrons, least recently used first (guarded by itself)
+    private final LinkedHashMap<Integer, Patron> cache;
+
+    /**
+     * Opens a lookup file with the default cache size.
+     *
+     * @param fileName lookup file written by write()
+     * @throws IOException if the file cannot be read or is not a valid lookup file
+     */
+    public MappedPatronStore(String fileName) throws IOException {
+        this(fileName, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Opens a lookup file.
+     *
+     * @param fileName lookup file written by write()
+     * @param cacheSize number of patrons kept decoded (0 for no cache)
+     * @throws IOException if the file cannot be read or is not a valid lookup file
+     */
+    public MappedPatronStore(String fileName, int cacheSize) throws IOException {
+        this.fileName = fileName;
+
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException("Not a patron lookup file.");
+            }
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Not a patron lookup file.");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported lookup file version: " + version);
+            }
+            count = header.getInt();
+            long recordBytes = header.getLong();
+            long indexBytes = (long) INDEX_ENTRY_SIZE * count;
+            if (count < 0 || recordBytes < 0 || recordBytes > Integer.MAX_VALUE
+                    || HEADER_SIZE + indexBytes + recordBytes != channel.size()) {
+                throw new IOException("Lookup file is damaged (size does not match header).");
+            }
+
+            // The mappings stay valid after the channel is closed
+            index = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, indexBytes);
+            records = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + indexBytes, recordBytes);
+        }
+
+        int size = Math.max(0, cacheSize);
+        cache = new LinkedHashMap<Integer, Patron>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Patron> eldest) {
+                return size() > size;
+            }
+        };
+    }
+
+    /**
+     * Checks if a file starts with the lookup file magic number.
+     *
+     * @param fileName file to check
+     * @return true if the file is a lookup file, false if it is missing, too short or something else
+     */
+    public static boolean isLookupFile(String fileName) {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            while (magic.hasRemaining()) {
+                if (channel.read(magic) < 0) return false;
+            }
+            magic.flip();
+            return magic.getInt() == MAGIC;
+
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Writes a lookup file of the given patrons, sorted by ID. Null entries are
+     * skipped; if an ID occurs more than once, the first one is kept.
+     *
+     * @param fileName file to overwrite
+     * @param patrons patrons to save
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(String fileName, Iterable<Patron> patrons) throws IOException {
+        ArrayList<Patron> list = new ArrayList<>();
+        for (Patron p : patrons) {
+            if (p != null) list.add(p);
+        }
+
+        // Sort by (ID, position) packed into one long, so the first of equal IDs comes first
+        long[] keys = new long[list.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = ((long) list.get(i).getPatronId() << 32) | i;
+        }
+        Arrays.sort(keys);
+
+        Patron[] sorted = new Patron[keys.length];
+        int count = 0;
+        for (long key : keys) {
+            Patron p = list.get((int) key);
+            if (count > 0 && sorted[count - 1].getPatronId() == p.getPatronId()) continue;
+            sorted[count++] = p;
+        }
+
+        // Encode the records first: the index needs their offsets
+        byte[][] encoded = new byte[count][];
+        long recordBytes = 0;
+        for (int i = 0; i < count; i++) {
+            encoded[i] = encodeRecord(sorted[i]);
+            recordBytes += encoded[i].length;
+        }
+        if (recordBytes > Integer.MAX_VALUE) {
+            throw new IOException("Too many patrons for one lookup file.");
+        }
+
+        // Written under a temp name and renamed, so a kiosk that has the old file mapped keeps working
+        File temp = new File(fileName + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            buf.putInt(MAGIC).putInt(VERSION).putInt(count).putLong(recordBytes);
+
+            long offset = 0;
+            for (int i = 0; i < count; i++) {
+                if (buf.remaining() < INDEX_ENTRY_SIZE) flush(channel, buf);
+                buf.putInt(sorted[i].getPatronId()).putLong(offset);
+                offset += encoded[i].length;
+            }
+
+            for (byte[] record : encoded) {
+                int written = 0;
+                while (written < record.length) {
+                    if (!buf.hasRemaining()) flush(channel, buf);
+                    int n = Math.min(buf.remaining(), record.length - written);
+                    buf.put(record, written, n);
+                    written += n;
+                }
+            }
+            flush(channel, buf);
+
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+        Files.move(temp.toPath(), Paths.get(fileName),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Returns the file this store reads from
+    public String getFileName() {
+        return fileName;
+    }
+
+    // ===== PatronStore =====
+
+    @Override
+    public int size() {
+        return count;
+    }
+
+    @Override
+    public boolean contains(int patronId) {
+        return indexOf(patronId) >= 0;
+    }
+
+    @Override
+    public Patron get(int patronId) {
+        Patron cached;
+        synchronized (cache) {
+            cached = cache.get(patronId);
+        }
+
+        if (cached == null) {
+            int i = indexOf(patronId);
+            if (i < 0) return null;
+            cached = readRecord(i);
+            synchronized (cache) {
+                cache.put(patronId, cached);
+            }
+        }
+
+        // A copy, so changes by the caller never reach the cache
+        return new Patron(cached.getPatronId(), cached.getName(), cached.getAddress(), cached.getOverdueFine());
+    }
+
+    @Override
+    public boolean add(Patron patron) {
+        throw new UnsupportedOperationException("Lookup files are read-only.");
+    }
+
+    @Override
+    public Patron remove(int patronId) {
+        throw new UnsupportedOperationException("Lookup files are read-only.");
+    }
+
+    @Override
+    public void update(Patron patron) {
+        throw new UnsupportedOperationException("Lookup files are read-only.");
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException("Lookup files are read-only.");
+    }
+
+    @Override
+    public Iterator<Patron> iterator() {
+        return new Iterator<Patron>() {
+            int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < count;
+            }
+
+            @Override
+            public Patron next() {
+                if (next >= count) throw new NoSuchElementException();
+                return readRecord(next++);
+            }
+        };
+    }
+
+    // ===== Helpers =====
+
+    // Returns the position of an ID in the index, or -1 (binary search; reads never move the buffer)
+    private int indexOf(int patronId) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int id = index.getInt(mid * INDEX_ENTRY_SIZE);
+            if (id < patronId) {
+                low = mid + 1;
+            } else if (id > patronId) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    // Decodes the record of the i-th index entry
+    private Patron readRecord(int i) {
+        int id = index.getInt(i * INDEX_ENTRY_SIZE);
+        int position = (int) index.getLong(i * INDEX_ENTRY_SIZE + 4);
+
+        long cents = records.getLong(position);
+        position += 8;
+
+        // Each call gets its own view, so threads do not share a position
+        ByteBuffer view = records.duplicate();
+        view.position(position);
+        String name = getString(view);
+        String address = getString(view);
+        return new Patron(id, name, address, cents / 100.0);
+    }
+
+    // Reads a varint length and that many UTF-8 bytes
+    private static String getString(ByteBuffer buf) {
+        int length = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buf.get();
+            length |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Returns the fine, name and address of a patron in record format
+    private static byte[] encodeRecord(Patron p) {
+        byte[] name = p.getName().getBytes(StandardCharsets.UTF_8);
+        byte[] address = p.getAddress().getBytes(StandardCharsets.UTF_8);
+
+        ByteBuffer buf = ByteBuffer.allocate(8 + 5 + name.length + 5 + address.length);
+        buf.putLong(PatronSnapshot.toCents(p.getOverdueFine()));
+        putString(buf, name);
+        putString(buf, address);
+        return Arrays.copyOf(buf.array(), buf.position());
+    }
+
+    private static void putString(ByteBuffer buf, byte[] bytes) {
+        int length = bytes.length;
+        while ((length & ~0x7F) != 0) {
+            buf.put((byte) ((length & 0x7F) | 0x80));
+            length >>>= 7;
+        }
+        buf.put((byte) length);
+        buf.put(bytes);
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+        buf.clear();
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * ObjectPatronStore keeps one Patron object per patron in a list,
+ * in the order they were added, with a PatronIdIndex for lookups by ID.
+ *
+ * A removed patron leaves a null slot behind so the slots of the other
+ * patrons stay the same; the list is compacted once removed slots dominate.
+ */
+
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+public class ObjectPatronStore implements PatronStore {
+
+    // Compact the slot list once this many removed slots have built up (and they are at least half of it)
+    private static final int MIN_REMOVED_BEFORE_COMPACT = 64;
+
+    // Stores all patrons in the order they were added (null = removed slot)
+    private final ArrayList<Patron> patrons;
+
+    // Maps each patron ID to its slot in the patrons list
+    private final PatronIdIndex index;
+
+    // Number of null (removed) slots in the patrons list
+    private int removedSlots;
+
+    // Constructor initializes the patron list and ID index
+    public ObjectPatronStore() {
+        this.patrons = new ArrayList<>();
+        this.index = new PatronIdIndex();
+    }
+
+    @Override
+    public int size() {
+        return index.size();
+    }
+
+    @Override
+    public boolean contains(int patronId) {
+        return index.contains(patronId);
+    }
+
+    @Override
+    public Patron get(int patronId) {
+        int slot = index.get(patronId);
+        if (slot == PatronIdIndex.NOT_FOUND) return null;
+        return patrons.get(slot);
+    }
+
+    @Override
+    public boolean add(Patron patron) {
+        int id = patron.getPatronId();
+        if (index.contains(id)) return false;
+
+        index.put(id, patrons.size());
+        patrons.add(patron);
+        return true;
+    }
+
+    @Override
+    public Patron remove(int patronId) {
+        int slot = index.remove(patronId);
+        if (slot == PatronIdIndex.NOT_FOUND) return null;
+
+        // Leave a hole so the slots of the other patrons (and the list order) stay the same
+        Patron removed = patrons.set(slot, null);
+        removedSlots++;
+
+        if (removedSlots >= MIN_REMOVED_BEFORE_COMPACT && removedSlots * 2 >= patrons.size()) {
+            compactSlots();
+        }
+        return removed;
+    }
+
+    @Override
+    public void update(Patron patron) {
+        // Nothing to do: the stored object is the patron itself
+    }
+
+    @Override
+    public void clear() {
+        patrons.clear();
+        index.clear();
+        removedSlots = 0;
+    }
+
+    // Iterates the stored patrons in the order they were added
+    @Override
+    public Iterator<Patron> iterator() {
+        return new Iterator<Patron>() {
+            private int next = skipRemoved(0);
+
+            @Override
+            public boolean hasNext() {
+                return next < patrons.size();
+            }
+
+            @Override
+            public Patron next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                Patron p = patrons.get(next);
+                next = skipRemoved(next + 1);
+                return p;
+            }
+        };
+    }
+
+    // ===== Helpers =====
+
+    // Returns the first slot at or after "slot" that holds a patron
+    private int skipRemoved(int slot) {
+        while (slot < patrons.size() && patrons.get(slot) == null) {
+            slot++;
+        }
+        return slot;
+    }
+
+    // Removes the null slots left by removals and points the index at the new slots
+    private void compactSlots() {
+        int write = 0;
+        for (int read = 0; read < patrons.size(); read++) {
+            Patron p = patrons.get(read);
+            if (p == null) continue;
+
+            patrons.set(write, p);
+            index.put(p.getPatronId(), write);
+            write++;
+        }
+        patrons.subList(write, patrons.size()).clear();
+        removedSlots = 0;
+    }
+}
@@ -0,0 +1,207 @@
+/**
+ * ParallelPatronLoader parses a patron data file on several threads.
+ *
+ * The file is memory-mapped with FileChannel.map and cut into chunks that
+ * always end on a line break. Each chunk is parsed on the fork/join pool into
+ * its own list of patrons, so the parsing threads never share any state.
+ *
+ * Duplicate IDs are NOT removed here: the chunks are returned in file order and
+ * PatronManager adds them one by one, so the first occurrence of an ID still wins
+ * exactly as it does with the single-threaded loader.
+ */
+
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public class ParallelPatronLoader {
+
+    // Chunks are never smaller than this (small files end up as a single chunk)
+    private static final long MIN_CHUNK_SIZE = 1 << 20;
+
+    // Chunks are never larger than this (one chunk is copied into one byte array)
+    private static final long MAX_CHUNK_SIZE = 64L << 20;
+
+    // Number of chunks per worker thread, so a slow chunk does not hold up the others
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    /**
+     * Holds the result of parsing one chunk of the file.
+     */
+    public static class Chunk {
+        private final long start;           // First byte of the chunk in the file
+        private final long end;             // One past the last byte of the chunk
+        private final ArrayList<Patron> patrons = new ArrayList<>();   // Valid rows in file order
+        private int skippedCount;           // Rows rejected by the parser
+        private final int[] skippedByResult = new int[PatronLineParser.EMPTY_TEXT + 1];    // Same, by parser result
+
+        private Chunk(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        public ArrayList<Patron> getPatrons() {
+            return patrons;
+        }
+
+        public int getSkippedCount() {
+            return skippedCount;
+        }
+
+        // Returns the number of rows rejected with the given PatronLineParser result
+        public int getSkippedCount(int result) {
+            return result >= 0 && result < skippedByResult.length ? skippedByResult[result] : 0;
+        }
+    }
+
+    private ParallelPatronLoader() {
+    }
+
+    /**
+     * Parses the whole file on the common fork/join pool.
+     *
+     * @param fileName file to parse
+     * @return chunks in file order
+     * @throws IOException if the file cannot be read
+     */
+    public static ArrayList<Chunk> parse(String fileName) throws IOException {
+        return parse(fileName, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Parses the whole file on the given fork/join pool.
+     *
+     * @param fileName file to parse
+     * @param pool pool that runs the chunk tasks
+     * @return chunks in file order
+     * @throws IOException if the file cannot be read
+     */
+    public static ArrayList<Chunk> parse(String fileName, ForkJoinPool pool) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            ArrayList<Chunk> chunks = splitIntoChunks(channel, pool.getParallelism());
+
+            ChunkTask root = new ChunkTask(channel, chunks, 0, chunks.size());
+            pool.invoke(root);
+            if (root.error != null) {
+                throw root.error;
+            }
+            return chunks;
+        }
+    }
+
+    // ===== Helpers =====
+
+    /**
+     * Cuts the file into chunks of roughly equal size. Every chunk except the
+     * last one ends just after a line break, so no line is split between chunks.
+     */
+    private static ArrayList<Chunk> splitIntoChunks(FileChannel channel, int parallelism) throws IOException {
+        long size = channel.size();
+        long target = size / ((long) Math.max(1, parallelism) * CHUNKS_PER_THREAD);
+        target = Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, target));
+
+        ArrayList<Chunk> chunks = new ArrayList<>();
+        long start = 0;
+        while (start < size) {
+            long end = Math.min(size, start + target);
+            if (end < size) {
+                end = nextLineStart(channel, end, size);
+            }
+            chunks.add(new Chunk(start, end));
+            start = end;
+        }
+        return chunks;
+    }
+
+    // Returns the position just after the first line break at or after "from"
+    private static long nextLineStart(FileChannel channel, long from, long size) throws IOException {
+        long window = Math.min(size - from, 64 * 1024);
+        while (window > 0) {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, from, window);
+            for (int i = 0; i < window; i++) {
+                byte c = map.get(i);
+                if (c == '\n' || c == '\r') {
+                    return from + i + 1;
+                }
+            }
+            from += window;
+            window = Math.min(size - from, 64 * 1024);
+        }
+        return size;
+    }
+
+    // Parses one chunk into its patron list
+    private static void parseChunk(FileChannel channel, Chunk chunk) throws IOException {
+        int length = (int) (chunk.end - chunk.start);
+        MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, chunk.start, length);
+        byte[] buf = new byte[length];
+        map.get(buf);
+
+        PatronLineParser parser = new PatronLineParser();
+        boolean firstLine = chunk.start == 0;
+        int lineStart = 0;
+
+        for (int i = 0; i <= length; i++) {
+            if (i < length && buf[i] != '\n' && buf[i] != '\r') continue;
+            if (i == length && lineStart == length) break;
+
+            int result = parser.parse(buf, lineStart, i, firstLine);
+            if (result == PatronLineParser.OK) {
+                chunk.patrons.add(parser.toPatron());
+            } else if (result != PatronLineParser.BLANK && result != PatronLineParser.HEADER) {
+                chunk.skippedCount++;
+                chunk.skippedByResult[result]++;
+            }
+
+            firstLine = false;
+            lineStart = i + 1;
+        }
+    }
+
+    /**
+     * Fork/join task that parses chunks [from, to), splitting the range in half
+     * until a single chunk is left.
+     */
+    private static class ChunkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final ArrayList<Chunk> chunks;
+        private final int from;
+        private final int to;
+        private IOException error;
+
+        ChunkTask(FileChannel channel, ArrayList<Chunk> chunks, int from, int to) {
+            this.channel = channel;
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                if (from < to) {
+                    try {
+                        parseChunk(channel, chunks.get(from));
+                    } catch (IOException e) {
+                        error = e;
+                    }
+                }
+                return;
+            }
+
+            int mid = (from + to) >>> 1;
+            ChunkTask left = new ChunkTask(channel, chunks, from, mid);
+            ChunkTask right = new ChunkTask(channel, chunks, mid, to);
+            invokeAll(left, right);
+            error = left.error != null ? left.error : right.error;
+        }
+    }
+}
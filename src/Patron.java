@@ -6,6 +6,10 @@
  * Patron ID must be exactly 7 digits
  * Name and address cannot be empty
  * Overdue fine must be between $0 and $250
+ *
+ * When PatronTextDictionary is enabled (--shared-text), name and address
+ * are kept as words shared with other patrons to save memory on large
+ * rosters; otherwise they are plain Strings.
  */
 
 
@@ -13,9 +17,13 @@ public class Patron {
 
     // ===== Fields =====
     private final int patronId;      // Unique ID for the patron
-    private String name;            // Patron's full name
-    private String address;         // Patron's address
-    private double overdueFine;     // Fine owed by the patron must be 0 and 250
+    // Volatile so a change made on one thread is seen by the others (concurrent mode)
+    private volatile Object name;           // Patron's full name (String, or shared words)
+    private volatile Object address;        // Patron's address (String, or shared words)
+    private volatile double overdueFine;    // Fine owed by the patron must be 0 and 250
+
+    // Notified when a setter changes this patron (set by PatronManager, may be null)
+    private volatile PatronListener listener;
 
     // ===== Constructor =====
 
@@ -39,11 +47,22 @@ public class Patron {
 
         // Assign validated values to fields
         this.patronId = patronId;
-        this.name = name.trim();
-        this.address = address.trim();
+        this.name = PatronTextDictionary.compact(name.trim());
+        this.address = PatronTextDictionary.compact(address.trim());
         this.overdueFine = overdueFine;
     }
 
+    // Copies another patron's current values (already validated and encoded; the listener is not copied)
+    // (locks the other patron so a setter running at the same time is copied fully or not at all)
+    Patron(Patron other) {
+        this.patronId = other.patronId;
+        synchronized (other) {
+            this.name = other.name;
+            this.address = other.address;
+            this.overdueFine = other.overdueFine;
+        }
+    }
+
     // ===== Getters =====
 
     /**
@@ -56,12 +75,12 @@ public class Patron {
 
     // Returns the patron's name
     public String getName() {
-        return name;
+        return PatronTextDictionary.expand(name);
     }
 
     // Returns the patron's address
     public String getAddress() {
-        return address;
+        return PatronTextDictionary.expand(address);
     }
 
     // Returns the overdue fine amount
@@ -71,25 +90,44 @@ public class Patron {
 
     // ===== Setters =====
     // Updates the patron's name, address, overdue fine after validation
-    public void setName(String name) {
+    // (synchronized so the listener always sees the matching old values)
+    public synchronized void setName(String name) {
         if (name == null || name.trim().isEmpty()) {
             throw new IllegalArgumentException("Name cannot be empty.");
         }
-        this.name = name.trim();
+        String oldName = getName();
+        this.name = PatronTextDictionary.compact(name.trim());
+        notifyChanged(oldName, getAddress(), overdueFine);
     }
 
-    public void setAddress(String address) {
+    public synchronized void setAddress(String address) {
         if (address == null || address.trim().isEmpty()) {
             throw new IllegalArgumentException("Address cannot be empty.");
         }
-        this.address = address.trim();
+        String oldAddress = getAddress();
+        this.address = PatronTextDictionary.compact(address.trim());
+        notifyChanged(getName(), oldAddress, overdueFine);
     }
 
-    public void setOverdueFine(double overdueFine) {
+    public synchronized void setOverdueFine(double overdueFine) {
         if (!isValidFine(overdueFine)) {
             throw new IllegalArgumentException("Overdue fine must be between 0 and 250.");
         }
+        double oldFine = this.overdueFine;
         this.overdueFine = overdueFine;
+        notifyChanged(getName(), getAddress(), oldFine);
+    }
+
+    // Sets the listener told about changes (only PatronManager should call this)
+    void setListener(PatronListener listener) {
+        this.listener = listener;
+    }
+
+    // Tells the listener (if any) that a setter changed this patron
+    private void notifyChanged(String oldName, String oldAddress, double oldFine) {
+        if (listener != null) {
+            listener.patronChanged(this, oldName, oldAddress, oldFine);
+        }
     }
 
     // ===== Static Validation Methods =====
@@ -112,8 +150,8 @@ public class Patron {
     @Override
     public String toString() {
         return "Patron ID: " + patronId +
-                ", Name: " + name +
-                ", Address: " + address +
+                ", Name: " + getName() +
+                ", Address: " + getAddress() +
                 ", Overdue Fine: $" + overdueFine;
     }
 }
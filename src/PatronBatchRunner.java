@@ -0,0 +1,189 @@
+/**
+ * PatronBatchRunner runs a script of patron commands without any prompts,
+ * for bulk data entry such as importing thousands of new patrons.
+ *
+ * Script format: one command per line (blank lines and lines starting with # are ignored)
+ *
+ *      ADD id,name,address,fine
+ *      UPDATE id,name,address,fine
+ *      REMOVE id
+ *      FIND id
+ *
+ * Changes are applied in memory right away, but they are written to the journal
+ * in groups: one append of every pending record per group of commands (and one
+ * at the end), instead of opening and closing the file once per patron.
+ */
+
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+public class PatronBatchRunner {
+
+    // Default number of commands between two writes to the journal
+    public static final int DEFAULT_FLUSH_EVERY = 10_000;
+
+    private final PatronManager manager;
+    private final PatronJournal journal;
+    private final int flushEvery;
+
+    // Parses ADD and UPDATE arguments (same rules as the data file)
+    private final PatronLineParser parser = new PatronLineParser(StandardCharsets.UTF_8);
+
+    // Journal records waiting for the next write
+    private final ArrayList<String> pending = new ArrayList<>();
+
+    private int succeeded;
+    private int failed;
+
+    /**
+     * @param manager manager to apply the commands to
+     * @param journal journal of the data file the changes belong to
+     * @param flushEvery number of commands between two journal writes
+     */
+    public PatronBatchRunner(PatronManager manager, PatronJournal journal, int flushEvery) {
+        this.manager = manager;
+        this.journal = journal;
+        this.flushEvery = Math.max(1, flushEvery);
+    }
+
+    /**
+     * Runs every command in the script, then writes what is still pending.
+     * Errors are reported with their line number and do not stop the batch.
+     *
+     * @param script commands to run
+     * @return true if all changes were saved, false if a journal write failed
+     */
+    public boolean run(BufferedReader script) {
+        long startTime = System.nanoTime();
+        boolean saved = true;
+        int lineNumber = 0;
+        int sinceFlush = 0;
+
+        try {
+            String line;
+            while ((line = script.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+
+                String error = execute(line);
+                if (error == null) {
+                    succeeded++;
+                } else {
+                    failed++;
+                    System.out.println("Line " + lineNumber + ": " + error);
+                }
+
+                if (++sinceFlush >= flushEvery) {
+                    saved &= flush();
+                    sinceFlush = 0;
+                }
+            }
+
+        } catch (IOException e) {
+            System.out.println("Error reading batch script: " + e.getMessage());
+        }
+
+        saved &= flush();
+
+        long elapsedMillis = (System.nanoTime() - startTime) / 1_000_000;
+        System.out.println("Commands succeeded: " + succeeded);
+        System.out.println("Commands failed: " + failed);
+        System.out.println("Batch time: " + elapsedMillis + " ms");
+        return saved;
+    }
+
+    // ===== Commands =====
+
+    // Runs one command; returns null on success or an error message
+    private String execute(String line) {
+        int space = line.indexOf(' ');
+        String command = (space < 0 ? line : line.substring(0, space)).toUpperCase();
+        String argument = space < 0 ? "" : line.substring(space + 1).trim();
+
+        switch (command) {
+            case "ADD":
+                return add(argument);
+            case "UPDATE":
+                return update(argument);
+            case "REMOVE":
+                return remove(argument);
+            case "FIND":
+                return find(argument);
+            default:
+                return "Unknown command: " + command;
+        }
+    }
+
+    private String add(String csv) {
+        String error = parser.parseArgument(csv);
+        if (error != null) return error;
+
+        Patron patron = parser.toPatron();
+        if (!manager.addPatron(patron)) {
+            return "Patron ID " + patron.getPatronId() + " already exists.";
+        }
+        pending.add(PatronJournal.addRecord(patron));
+        return null;
+    }
+
+    private String update(String csv) {
+        String error = parser.parseArgument(csv);
+        if (error != null) return error;
+
+        Patron patron = manager.findPatronById(parser.getPatronId());
+        if (patron == null) {
+            return "No patron found with ID " + parser.getPatronId() + ".";
+        }
+
+        patron.setName(parser.getName());
+        patron.setAddress(parser.getAddress());
+        patron.setOverdueFine(parser.getFine());
+        pending.add(PatronJournal.updateRecord(patron));
+        return null;
+    }
+
+    private String remove(String idText) {
+        int patronId = PatronLineParser.parsePatronId(idText);
+        if (patronId < 0) return "Patron ID must be exactly 7 digits.";
+
+        if (!manager.removePatronById(patronId)) {
+            return "No patron found with ID " + patronId + ".";
+        }
+        pending.add(PatronJournal.removeRecord(patronId));
+        return null;
+    }
+
+    private String find(String idText) {
+        int patronId = PatronLineParser.parsePatronId(idText);
+        if (patronId < 0) return "Patron ID must be exactly 7 digits.";
+
+        Patron p = manager.findPatronById(patronId);
+        if (p == null) return "No patron found with ID " + patronId + ".";
+
+        System.out.println(p);
+        return null;
+    }
+
+    // ===== Helpers =====
+
+    // Writes all pending records with one journal append, then compacts if the journal got large
+    private boolean flush() {
+        if (pending.isEmpty()) return true;
+
+        boolean saved = journal.appendAll(pending);
+        pending.clear();
+        if (!saved) {
+            System.out.println("Warning: changes are in memory but could not be saved to the journal.");
+            return false;
+        }
+
+        if (journal.needsCompaction(manager.getPatronCount())) {
+            journal.compact(manager);
+        }
+        return true;
+    }
+}
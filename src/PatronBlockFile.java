@@ -0,0 +1,451 @@
+/**
+ * PatronBlockFile is a compressed data file format. Patrons are sorted by ID,
+ * packed into blocks of about BLOCK_SIZE bytes of data file lines, and each
+ * block is compressed on its own with Deflater. An index of the blocks at the
+ * end of the file gives each block's position and ID range, so
+ *
+ *  - loading decompresses and parses the blocks on all cores, and
+ *  - finding one ID (or a range of IDs) reads and decompresses only the blocks
+ *    whose range covers it.
+ *
+ * Roster files are very repetitive (street names, first names, fines), so a
+ * block file is a fraction of the size of the CSV text file.
+ *
+ * Layout (all numbers big-endian):
+ *      int     magic ("LMSZ")
+ *      int     format version
+ *      blocks: Deflater-compressed UTF-8 data file lines (no header row)
+ *      block index, one entry per block:
+ *          long    position of the block in the file
+ *          int     compressed size
+ *          int     uncompressed size
+ *          int     first patron ID in the block
+ *          int     last patron ID in the block
+ *      long    position of the block index
+ *      int     block count
+ *      int     magic again (marks a complete file)
+ *
+ * Patrons are stored in ID order, so a loaded block file lists patrons by ID
+ * as their added order.
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+public class PatronBlockFile implements AutoCloseable {
+
+    // "LMSZ" in ASCII
+    public static final int MAGIC = 0x4C4D535A;
+
+    // Current format version (increase when the layout changes)
+    public static final int VERSION = 1;
+
+    // Uncompressed bytes of data file lines per block (a block ends after the line that reaches it)
+    public static final int BLOCK_SIZE = 64 * 1024;
+
+    // magic + version
+    private static final int HEADER_SIZE = 4 + 4;
+
+    // position + compressed size + uncompressed size + first ID + last ID
+    private static final int INDEX_ENTRY_SIZE = 8 + 4 + 4 + 4 + 4;
+
+    // index position + block count + magic
+    private static final int TRAILER_SIZE = 8 + 4 + 4;
+
+    private final FileChannel channel;
+    private final long[] positions;
+    private final int[] compressedSizes;
+    private final int[] sizes;
+    private final int[] firstIds;
+    private final int[] lastIds;
+
+    // Bytes read from the file so far (index and blocks)
+    private long bytesRead;
+
+    /**
+     * Result of loading a whole block file.
+     */
+    public static class Contents {
+        private final ArrayList<Patron> patrons;
+        private final int skippedCount;
+
+        private Contents(ArrayList<Patron> patrons, int skippedCount) {
+            this.patrons = patrons;
+            this.skippedCount = skippedCount;
+        }
+
+        // Returns the patrons in file (ID) order
+        public ArrayList<Patron> getPatrons() {
+            return patrons;
+        }
+
+        // Returns the number of lines the parser rejected
+        public int getSkippedCount() {
+            return skippedCount;
+        }
+    }
+
+    private PatronBlockFile(FileChannel channel, int blockCount) {
+        this.channel = channel;
+        positions = new long[blockCount];
+        compressedSizes = new int[blockCount];
+        sizes = new int[blockCount];
+        firstIds = new int[blockCount];
+        lastIds = new int[blockCount];
+    }
+
+    /**
+     * Checks if a file starts with the block file magic number.
+     *
+     * @param fileName file to check
+     * @return true if the file is a block file, false if it is missing, too short or something else
+     */
+    public static boolean isBlockFile(String fileName) {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            while (magic.hasRemaining()) {
+                if (channel.read(magic) < 0) return false;
+            }
+            magic.flip();
+            return magic.getInt() == MAGIC;
+
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Writes a block file of the given patrons (null entries are skipped; if an
+     * ID occurs more than once, the first one is kept). Blocks are compressed
+     * on all cores. The file is written under a temp name and renamed over the old one.
+     *
+     * @param fileName file to overwrite
+     * @param patrons patrons to save
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(String fileName, Iterable<Patron> patrons) throws IOException {
+        ArrayList<Patron> list = new ArrayList<>();
+        for (Patron p : patrons) {
+            if (p != null) list.add(p);
+        }
+
+        // Sort by (ID, position) packed into one long, so the first of equal IDs comes first
+        long[] keys = new long[list.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = ((long) list.get(i).getPatronId() << 32) | i;
+        }
+        Arrays.parallelSort(keys);
+
+        // Cut the sorted lines into blocks
+        ArrayList<byte[]> blocks = new ArrayList<>();
+        ArrayList<int[]> ranges = new ArrayList<>();
+        StringBuilder block = new StringBuilder(BLOCK_SIZE + 256);
+        int firstId = 0;
+        int lastId = -1;
+
+        for (long key : keys) {
+            Patron p = list.get((int) key);
+            if (p.getPatronId() == lastId) continue;    // Later duplicate
+
+            if (block.length() == 0) firstId = p.getPatronId();
+            lastId = p.getPatronId();
+            block.append(PatronManager.toFileLine(p)).append('\n');
+
+            if (block.length() >= BLOCK_SIZE) {
+                blocks.add(block.toString().getBytes(StandardCharsets.UTF_8));
+                ranges.add(new int[] { firstId, lastId });
+                block.setLength(0);
+            }
+        }
+        if (block.length() > 0) {
+            blocks.add(block.toString().getBytes(StandardCharsets.UTF_8));
+            ranges.add(new int[] { firstId, lastId });
+        }
+
+        // Compress every block on its own (on all cores)
+        byte[][] compressed = new byte[blocks.size()][];
+        IntStream.range(0, blocks.size()).parallel().forEach(i -> compressed[i] = deflate(blocks.get(i)));
+
+        File temp = new File(fileName + ".tmp");
+        try (FileChannel out = FileChannel.open(temp.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION);
+            header.flip();
+            writeFully(out, header);
+
+            long position = HEADER_SIZE;
+            ByteBuffer index = ByteBuffer.allocate(compressed.length * INDEX_ENTRY_SIZE + TRAILER_SIZE);
+            for (int i = 0; i < compressed.length; i++) {
+                writeFully(out, ByteBuffer.wrap(compressed[i]));
+                index.putLong(position).putInt(compressed[i].length).putInt(blocks.get(i).length)
+                        .putInt(ranges.get(i)[0]).putInt(ranges.get(i)[1]);
+                position += compressed[i].length;
+            }
+            index.putLong(position).putInt(compressed.length).putInt(MAGIC);
+            index.flip();
+            writeFully(out, index);
+
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+        Files.move(temp.toPath(), Paths.get(fileName),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Opens a block file and reads its block index (the blocks are read on demand).
+     *
+     * @param fileName block file
+     * @return the open file (close it when done)
+     * @throws IOException if the file cannot be read or is not a complete block file
+     */
+    public static PatronBlockFile open(String fileName) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size < HEADER_SIZE + TRAILER_SIZE) {
+                throw new IOException("Not a patron block file.");
+            }
+            ByteBuffer header = readFully(channel, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Not a patron block file.");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported block file version: " + version);
+            }
+
+            ByteBuffer trailer = readFully(channel, size - TRAILER_SIZE, TRAILER_SIZE);
+            long indexPosition = trailer.getLong();
+            int blockCount = trailer.getInt();
+            if (trailer.getInt() != MAGIC || blockCount < 0
+                    || indexPosition + (long) blockCount * INDEX_ENTRY_SIZE + TRAILER_SIZE != size) {
+                throw new IOException("Block file is damaged or incomplete.");
+            }
+
+            PatronBlockFile file = new PatronBlockFile(channel, blockCount);
+            ByteBuffer index = readFully(channel, indexPosition, blockCount * INDEX_ENTRY_SIZE);
+            for (int i = 0; i < blockCount; i++) {
+                file.positions[i] = index.getLong();
+                file.compressedSizes[i] = index.getInt();
+                file.sizes[i] = index.getInt();
+                file.firstIds[i] = index.getInt();
+                file.lastIds[i] = index.getInt();
+                if (file.positions[i] < HEADER_SIZE || file.compressedSizes[i] < 0 || file.sizes[i] < 0
+                        || file.positions[i] + file.compressedSizes[i] > indexPosition) {
+                    throw new IOException("Block file is damaged (bad block " + (i + 1) + ").");
+                }
+            }
+            file.bytesRead = HEADER_SIZE + TRAILER_SIZE + (long) blockCount * INDEX_ENTRY_SIZE;
+            return file;
+
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // Returns the number of blocks in the file
+    public int getBlockCount() {
+        return positions.length;
+    }
+
+    // Returns the number of bytes read from the file so far
+    public synchronized long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Reads every block (decompressed and parsed on all cores).
+     *
+     * @return the patrons in ID order, and how many lines were rejected
+     * @throws IOException if a block cannot be read or decompressed
+     */
+    public Contents readAll() throws IOException {
+        int blockCount = positions.length;
+        ArrayList<ArrayList<Patron>> parsed = new ArrayList<>(blockCount);
+        for (int i = 0; i < blockCount; i++) {
+            parsed.add(new ArrayList<>());
+        }
+        int[] skipped = new int[blockCount];
+        IOException[] failure = new IOException[1];
+
+        IntStream.range(0, blockCount).parallel().forEach(i -> {
+            try {
+                skipped[i] = parse(readBlock(i), parsed.get(i));
+            } catch (IOException e) {
+                synchronized (failure) {
+                    failure[0] = e;
+                }
+            }
+        });
+        if (failure[0] != null) throw failure[0];
+
+        int total = 0;
+        for (ArrayList<Patron> block : parsed) {
+            total += block.size();
+        }
+        ArrayList<Patron> patrons = new ArrayList<>(total);
+        int skippedCount = 0;
+        for (int i = 0; i < blockCount; i++) {
+            patrons.addAll(parsed.get(i));
+            skippedCount += skipped[i];
+        }
+        return new Contents(patrons, skippedCount);
+    }
+
+    /**
+     * Finds one patron, reading only the block whose ID range covers it.
+     *
+     * @param patronId ID to look for
+     * @return the patron, or null if the file does not have it
+     * @throws IOException if the block cannot be read or decompressed
+     */
+    public Patron find(int patronId) throws IOException {
+        List<Patron> found = readRange(patronId, patronId);
+        return found.isEmpty() ? null : found.get(0);
+    }
+
+    /**
+     * Reads the patrons with IDs from fromId to toId (inclusive), reading only
+     * the blocks whose ID range overlaps it.
+     *
+     * @return patrons in ID order
+     * @throws IOException if a block cannot be read or decompressed
+     */
+    public ArrayList<Patron> readRange(int fromId, int toId) throws IOException {
+        ArrayList<Patron> result = new ArrayList<>();
+
+        // First block that can hold fromId: blocks are in ID order, so binary search the last IDs
+        int low = 0;
+        int high = positions.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (lastIds[mid] < fromId) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        ArrayList<Patron> block = new ArrayList<>();
+        for (int i = low; i < positions.length && firstIds[i] <= toId; i++) {
+            block.clear();
+            parse(readBlock(i), block);
+            for (Patron p : block) {
+                if (p.getPatronId() >= fromId && p.getPatronId() <= toId) {
+                    result.add(p);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // ===== Helpers =====
+
+    // Reads and decompresses one block
+    private byte[] readBlock(int i) throws IOException {
+        ByteBuffer compressed = readFully(channel, positions[i], compressedSizes[i]);
+        synchronized (this) {
+            bytesRead += compressedSizes[i];
+        }
+
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed.array(), 0, compressedSizes[i]);
+            byte[] data = new byte[sizes[i]];
+            int n = 0;
+            while (n < data.length && !inflater.finished()) {
+                int inflated = inflater.inflate(data, n, data.length - n);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                n += inflated;
+            }
+            if (n != data.length) {
+                throw new IOException("Block file is damaged (block " + (i + 1) + " is too short).");
+            }
+            return data;
+
+        } catch (DataFormatException e) {
+            throw new IOException("Block file is damaged (block " + (i + 1) + "): " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    // Parses the lines of a block into patrons; returns the number of rejected lines
+    private static int parse(byte[] data, List<Patron> patrons) {
+        PatronLineParser parser = new PatronLineParser(StandardCharsets.UTF_8);
+        int skipped = 0;
+        int lineStart = 0;
+        for (int i = 0; i <= data.length; i++) {
+            if (i < data.length && data[i] != '\n') continue;
+            if (i > lineStart) {
+                int result = parser.parse(data, lineStart, i, false);
+                if (result == PatronLineParser.OK) {
+                    patrons.add(parser.toPatron());
+                } else if (result != PatronLineParser.BLANK) {
+                    skipped++;
+                }
+            }
+            lineStart = i + 1;
+        }
+        return skipped;
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            byte[] out = new byte[Math.max(64, data.length / 2)];
+            int n = 0;
+            while (!deflater.finished()) {
+                if (n == out.length) out = Arrays.copyOf(out, out.length * 2);
+                n += deflater.deflate(out, n, out.length - n);
+            }
+            return Arrays.copyOf(out, n);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0) {
+                throw new IOException("Block file ended unexpectedly.");
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/**
+ * PatronDataGenerator writes synthetic patron data files in the same CSV
+ * format as patronsdata.txt, for load testing and benchmarks.
+ *
+ * The output depends only on the arguments: the same seed always gives the
+ * same file, so results from different runs can be compared.
+ *
+ * A share of the rows can be made duplicates (an ID that already appeared) or
+ * bad rows (wrong field count, bad numbers, values out of range, empty text),
+ * which loadFromFile has to skip.
+ *
+ * Usage:
+ *      java PatronDataGenerator fileName patrons [seed] [duplicateRate] [badRowRate]
+ */
+
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Random;
+
+public class PatronDataGenerator {
+
+    // Valid patron IDs are 1000000..9999999
+    private static final int FIRST_ID = 1_000_000;
+    private static final int ID_RANGE = 9_000_000;
+
+    // Step through the ID range; shares no factor with ID_RANGE, so every ID is visited once
+    private static final int ID_STEP = 7_368_787;
+
+    private static final String[] FIRST_NAMES = {
+            "Alice", "Kevin", "Maria", "James", "Aisha", "Chen", "Olivia", "Liam", "Sofia", "Noah",
+            "Fatima", "Lucas", "Emma", "Mateo", "Priya", "Ethan", "Yuki", "Daniel", "Grace", "Omar"
+    };
+    private static final String[] LAST_NAMES = {
+            "Brown", "Amin", "Garcia", "Smith", "Khan", "Wang", "Johnson", "Lee", "Martinez", "Davis",
+            "Patel", "Nguyen", "Wilson", "Lopez", "Clark", "Young", "Hall", "Allen", "King", "Scott"
+    };
+    private static final String[] STREETS = {
+            "Pine Ave", "Palm Dr", "Oak St", "Maple Rd", "Cedar Ln", "Elm St", "Lake Blvd", "Hill Ct",
+            "River Rd", "Park Ave", "Sunset Dr", "Bay St"
+    };
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: java PatronDataGenerator fileName patrons [seed] [duplicateRate] [badRowRate]");
+            return;
+        }
+
+        try {
+            String fileName = args[0];
+            int patrons = Integer.parseInt(args[1]);
+            long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+            double duplicateRate = args.length > 3 ? Double.parseDouble(args[3]) : 0;
+            double badRowRate = args.length > 4 ? Double.parseDouble(args[4]) : 0;
+
+            long startTime = System.nanoTime();
+            int rows = generate(fileName, patrons, seed, duplicateRate, badRowRate);
+            long elapsedMillis = (System.nanoTime() - startTime) / 1_000_000;
+            System.out.println("Wrote " + rows + " rows (" + patrons + " patrons) to " + fileName
+                    + " in " + elapsedMillis + " ms");
+
+        } catch (NumberFormatException e) {
+            System.out.println("Patrons, seed and rates must be numbers.");
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+        } catch (IOException e) {
+            System.out.println("Error writing file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes a data file with a header and the given number of valid, unique patrons,
+     * plus duplicate and bad rows mixed in at the given rates.
+     *
+     * @param fileName file to create (overwritten if it exists)
+     * @param patrons number of valid patrons (at most 9,000,000)
+     * @param seed random seed
+     * @param duplicateRate extra duplicate rows per valid patron (0 for none)
+     * @param badRowRate extra bad rows per valid patron (0 for none)
+     * @return total number of data rows written
+     * @throws IOException if the file cannot be written
+     */
+    public static int generate(String fileName, int patrons, long seed,
+                               double duplicateRate, double badRowRate) throws IOException {
+        if (patrons < 0 || patrons > ID_RANGE) {
+            throw new IllegalArgumentException("Patrons must be between 0 and " + ID_RANGE + ".");
+        }
+        if (duplicateRate < 0 || badRowRate < 0) {
+            throw new IllegalArgumentException("Rates cannot be negative.");
+        }
+
+        Random random = new Random(seed);
+        int idOffset = random.nextInt(ID_RANGE);
+        int rows = 0;
+
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(fileName, false), 64 * 1024)) {
+            out.write("patronId,name,address,overdueFine");
+            out.newLine();
+
+            StringBuilder line = new StringBuilder(96);
+            for (int i = 0; i < patrons; i++) {
+                int patronId = idFor(i, idOffset);
+                appendPatron(line, patronId, random);
+                out.append(line);
+                out.newLine();
+                rows++;
+
+                // Each rate is an expected number of extra rows per patron (can be above 1)
+                for (double d = duplicateRate; d > 0 && random.nextDouble() < d; d -= 1) {
+                    appendPatron(line, idFor(random.nextInt(i + 1), idOffset), random);
+                    out.append(line);
+                    out.newLine();
+                    rows++;
+                }
+                for (double b = badRowRate; b > 0 && random.nextDouble() < b; b -= 1) {
+                    appendBadRow(line, random);
+                    out.append(line);
+                    out.newLine();
+                    rows++;
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Returns the ID of the i-th generated patron (for picking IDs that exist).
+     *
+     * @param i patron number, 0 to patrons - 1
+     * @param seed seed the file was generated with
+     * @return patron ID
+     */
+    public static int patronId(int i, long seed) {
+        return idFor(i, new Random(seed).nextInt(ID_RANGE));
+    }
+
+    // ===== Helpers =====
+
+    private static int idFor(int i, int idOffset) {
+        return FIRST_ID + (int) ((idOffset + (long) i * ID_STEP) % ID_RANGE);
+    }
+
+    private static void appendPatron(StringBuilder line, int patronId, Random random) {
+        line.setLength(0);
+        line.append(patronId).append(',')
+                .append(pick(FIRST_NAMES, random)).append(' ').append(pick(LAST_NAMES, random)).append(',')
+                .append(1 + random.nextInt(9999)).append(' ').append(pick(STREETS, random)).append(',');
+
+        // About half of the patrons owe nothing
+        if (random.nextBoolean()) {
+            line.append("0.0");
+        } else {
+            line.append(random.nextInt(25_001) / 100.0);
+        }
+    }
+
+    private static void appendBadRow(StringBuilder line, Random random) {
+        line.setLength(0);
+        switch (random.nextInt(5)) {
+            case 0:     // Missing a field
+                line.append(FIRST_ID + random.nextInt(ID_RANGE)).append(',').append(pick(FIRST_NAMES, random));
+                break;
+            case 1:     // ID is not a number
+                line.append("ID").append(random.nextInt(1000)).append(",X,Y,0.0");
+                break;
+            case 2:     // ID is not 7 digits
+                line.append(random.nextInt(FIRST_ID)).append(",").append(pick(FIRST_NAMES, random)).append(",1 Oak St,0.0");
+                break;
+            case 3:     // Fine above the maximum
+                line.append(FIRST_ID + random.nextInt(ID_RANGE)).append(",").append(pick(LAST_NAMES, random))
+                        .append(",2 Elm St,").append(250 + 1 + random.nextInt(1000));
+                break;
+            default:    // Empty name
+                line.append(FIRST_ID + random.nextInt(ID_RANGE)).append(", ,3 Bay St,1.0");
+                break;
+        }
+    }
+
+    private static String pick(String[] values, Random random) {
+        return values[random.nextInt(values.length)];
+    }
+}
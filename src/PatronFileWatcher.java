@@ -0,0 +1,307 @@
+/**
+ * PatronFileWatcher keeps a PatronManager in step with a data file that
+ * another program (or another LMS instance) appends to.
+ *
+ * It remembers the byte offset it has loaded up to. When the file grows, only
+ * the new lines are parsed and added (see PatronManager.loadAppended). If the
+ * file shrank or its content before that offset changed, it was rewritten
+ * (for example by a journal compaction), so the whole file is loaded again.
+ *
+ * The file's journal ("<file>.journal", see PatronJournal) is followed the
+ * same way: records appended to it are applied (PatronJournal.replayAppended),
+ * and a journal that shrank or changed also means a full reload. Records this
+ * program's own journal appended are skipped, since they are already applied.
+ *
+ * A full reload reads the file (and replays its journal) into a separate
+ * manager first and then brings the roster in line with it
+ * (PatronManager.replacePatrons), so the menu never sees an empty or half
+ * loaded roster. For that moment the file is in memory twice.
+ *
+ * Changes are noticed through a WatchService on the file's folder. The file is
+ * also checked once a second, in case an event is missed or the platform only
+ * polls for changes.
+ *
+ * The watcher thread changes the roster while other threads use it, so the
+ * manager should use a ConcurrentPatronStore.
+ */
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+public class PatronFileWatcher implements AutoCloseable {
+
+    // Returned by catchUp when the whole file was loaded again
+    public static final int RELOADED = -1;
+
+    // Number of bytes before the offset compared to tell an append from a rewrite
+    private static final int FINGERPRINT_BYTES = 64;
+
+    // How often the file is checked when no event arrives
+    private static final long CHECK_INTERVAL_MILLIS = 1000;
+
+    private final PatronManager manager;
+    private final String fileName;
+    private final Path file;
+    private final Path journal;
+
+    // This program's journal of the file, whose records are not applied twice; may be null or return null
+    private final Supplier<PatronJournal> ownJournal;
+
+    // Run on the separate manager after a full reload (for example to replay the journal); may be null
+    private final Consumer<PatronManager> afterReload;
+
+    // Bytes of the file loaded so far, and the last bytes before that offset
+    private long offset;
+    private byte[] fingerprint = new byte[0];
+
+    // The same for the journal
+    private long journalOffset;
+    private byte[] journalFingerprint = new byte[0];
+
+    private WatchService watchService;
+    private Thread thread;
+    private volatile boolean running;
+
+    /**
+     * @param manager manager holding the patrons of the file
+     * @param fileName data file to follow
+     * @param ownJournal returns this program's journal of the file, if it has one open
+     *                   (null for none)
+     * @param afterReload run on the manager holding the whole file loaded again, before
+     *                    it replaces the roster (null for nothing)
+     */
+    public PatronFileWatcher(PatronManager manager, String fileName, Supplier<PatronJournal> ownJournal,
+                             Consumer<PatronManager> afterReload) {
+        this.manager = manager;
+        this.fileName = fileName;
+        this.file = Paths.get(fileName).toAbsolutePath();
+        this.journal = Paths.get(fileName + PatronJournal.JOURNAL_SUFFIX).toAbsolutePath();
+        this.ownJournal = ownJournal;
+        this.afterReload = afterReload;
+    }
+
+    /**
+     * Marks the whole file and its journal as loaded. Call before loading the
+     * file, and after this program rewrote it itself (so that is not mistaken
+     * for a rewrite by someone else).
+     *
+     * The offset is put after the last line break, so a line that is still
+     * being written is read in full later. Lines read twice this way are
+     * skipped as duplicate IDs.
+     */
+    public synchronized void skipToEnd() {
+        try {
+            offset = endOfLastLine(file, Files.size(file));
+            fingerprint = readFingerprint(file, offset);
+        } catch (IOException e) {
+            offset = 0;
+            fingerprint = new byte[0];
+        }
+        try {
+            journalOffset = endOfLastLine(journal, Files.size(journal));
+            journalFingerprint = readFingerprint(journal, journalOffset);
+        } catch (IOException e) {
+            journalOffset = 0;      // No journal yet (or it was just compacted away)
+            journalFingerprint = new byte[0];
+        }
+    }
+
+    /**
+     * Runs a rewrite of the file by this program (such as a journal compaction)
+     * without the watcher reloading the result. Lines appended by others are
+     * picked up first, so the rewrite does not drop them.
+     *
+     * @param rewrite code that rewrites the file from memory
+     */
+    public synchronized void rewrite(Runnable rewrite) {
+        catchUp();
+        rewrite.run();
+        skipToEnd();
+    }
+
+    /**
+     * Starts following the file on a background thread.
+     *
+     * @throws IOException if the file's folder cannot be watched
+     */
+    public synchronized void start() throws IOException {
+        if (running) return;
+
+        watchService = FileSystems.getDefault().newWatchService();
+        file.getParent().register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+        running = true;
+        thread = new Thread(this::watchLoop, "watch-" + file.getFileName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Stops following the file
+    @Override
+    public void close() {
+        running = false;
+        try {
+            if (watchService != null) watchService.close();
+        } catch (IOException e) {
+            System.out.println("Error closing file watcher: " + e.getMessage());
+        }
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Applies whatever changed in the file and its journal since the last call.
+     *
+     * @return change in the number of patrons from appended lines and records,
+     *         or RELOADED if the file was loaded again
+     */
+    public synchronized int catchUp() {
+        long size;
+        long journalSize;
+        try {
+            size = Files.size(file);
+        } catch (NoSuchFileException e) {
+            return 0;   // Being replaced right now; the new file shows up as another event
+        } catch (IOException e) {
+            System.out.println("Error checking file: " + e.getMessage());
+            return 0;
+        }
+        try {
+            journalSize = Files.size(journal);
+        } catch (NoSuchFileException e) {
+            journalSize = 0;
+        } catch (IOException e) {
+            System.out.println("Error checking journal: " + e.getMessage());
+            return 0;
+        }
+
+        try {
+            if (size < offset || !Arrays.equals(readFingerprint(file, offset), fingerprint)
+                    || journalSize < journalOffset || !Arrays.equals(readFingerprint(journal, journalOffset), journalFingerprint)) {
+                reload();
+                return RELOADED;
+            }
+            if (size == offset && journalSize == journalOffset) return 0;
+
+            int before = manager.getPatronCount();
+            if (size > offset) {
+                offset = manager.loadAppended(fileName, offset);
+                fingerprint = readFingerprint(file, offset);
+            }
+            if (journalSize > journalOffset) {
+                PatronJournal own = ownJournal != null ? ownJournal.get() : null;
+                journalOffset = PatronJournal.replayAppended(manager, journal.toString(), journalOffset, own);
+                journalFingerprint = readFingerprint(journal, journalOffset);
+            }
+            return manager.getPatronCount() - before;
+
+        } catch (IOException e) {
+            System.out.println("Error reading file: " + e.getMessage());
+            return 0;
+        }
+    }
+
+    // ===== Helpers =====
+
+    private void watchLoop() {
+        while (running) {
+            try {
+                WatchKey key = watchService.poll(CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    // Events are per folder; simply check the file whatever changed
+                    key.pollEvents();
+                    key.reset();
+                }
+                report(catchUp());
+
+            } catch (InterruptedException e) {
+                // close() was called
+            } catch (RuntimeException e) {
+                // ClosedWatchServiceException after close(), or an unexpected error; keep the app running
+                if (running) {
+                    System.out.println("Error following file: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void report(int added) {
+        if (added == RELOADED) {
+            System.out.println("[" + file.getFileName() + "] file was rewritten; reloaded " + manager.getPatronCount() + " patrons");
+        } else if (added > 0) {
+            System.out.println("[" + file.getFileName() + "] picked up " + added + " new patron(s)");
+        }
+    }
+
+    /**
+     * Loads the whole file again into a separate manager, then makes the
+     * roster match it (offsets first, so later appends are not missed).
+     */
+    private void reload() {
+        skipToEnd();
+        PatronManager loaded = new PatronManager();
+        loaded.loadFromFile(fileName);
+        if (afterReload != null) {
+            afterReload.accept(loaded);
+        }
+        manager.replacePatrons(loaded);
+    }
+
+    // Returns the offset just after the last line break before size in a file (0 if there is none)
+    private static long endOfLastLine(Path file, long size) throws IOException {
+        ByteBuffer block = ByteBuffer.allocate(4096);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long end = size;
+            while (end > 0) {
+                int length = (int) Math.min(block.capacity(), end);
+                block.clear().limit(length);
+                long start = end - length;
+                while (block.hasRemaining()) {
+                    if (channel.read(block, start + block.position()) < 0) return 0;
+                }
+
+                for (int i = length - 1; i >= 0; i--) {
+                    byte c = block.get(i);
+                    if (c == '\n' || c == '\r') return start + i + 1;
+                }
+                end = start;
+            }
+        }
+        return 0;
+    }
+
+    // Reads up to FINGERPRINT_BYTES bytes of a file just before the given offset
+    private static byte[] readFingerprint(Path file, long end) throws IOException {
+        int length = (int) Math.min(FINGERPRINT_BYTES, end);
+        if (length == 0) return new byte[0];
+        ByteBuffer bytes = ByteBuffer.allocate(length);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long position = end - length;
+            while (bytes.hasRemaining()) {
+                int n = channel.read(bytes, position + bytes.position());
+                if (n < 0) break;   // File is shorter than end: cannot match
+            }
+        }
+        if (bytes.hasRemaining()) return new byte[0];
+        return bytes.array();
+    }
+}
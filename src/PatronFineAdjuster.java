@@ -0,0 +1,307 @@
+/**
+ * PatronFineAdjuster applies a large list of fine changes in one go, for
+ * example the nightly fine accrual, instead of one prompt per patron.
+ *
+ * Adjustment format: one "patronId,amount" line per change (a header line and
+ * blank lines are skipped)
+ *
+ *      1234567,+2.50       add to the fine
+ *      1234567,-10         subtract from the fine
+ *      1234567,=0          set the fine (a plain number also sets it)
+ *
+ * A fine outside 0 to 250 is either rejected (the change is skipped) or, in
+ * clamp mode, set to the nearest limit. Several changes to one patron are
+ * applied in file order. Amounts are added in whole cents, so many small
+ * changes do not build up rounding errors.
+ *
+ * Lines are parsed and the new fine of every patron is worked out on all cores;
+ * only the final fines are then set on the patrons, one setter call per patron.
+ * Patrons are looked up on one thread, since lookups in some stores change
+ * them (caches in the lazy, sharded and kiosk stores).
+ * Saving is left to the caller, so the data file is rewritten once at the end.
+ */
+
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+public class PatronFineAdjuster {
+
+    // Fine limits in cents (see Patron.isValidFine)
+    private static final long MIN_FINE_CENTS = 0;
+    private static final long MAX_FINE_CENTS = 25_000;
+
+    // Kinds of change
+    private static final byte ADD = 0;
+    private static final byte SET = 1;
+    private static final byte INVALID = 2;
+
+    private final PatronManager manager;
+    private final boolean clamp;
+
+    // Results of the last run
+    private int applied;
+    private int clamped;
+    private int failed;
+    private int patronsChanged;
+    private final ArrayList<String> report = new ArrayList<>();
+
+    /**
+     * @param manager manager holding the patrons to change
+     * @param clamp true to set out-of-range fines to 0 or 250, false to reject those changes
+     */
+    public PatronFineAdjuster(PatronManager manager, boolean clamp) {
+        this.manager = manager;
+        this.clamp = clamp;
+    }
+
+    /**
+     * Applies every change in an adjustment file.
+     *
+     * @param fileName adjustment file
+     * @return true if the file was read (even if some changes failed), false otherwise
+     */
+    public boolean applyFile(String fileName) {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(Paths.get(fileName), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            System.out.println("Error reading adjustment file: " + e.getMessage());
+            return false;
+        }
+        apply(lines);
+        return true;
+    }
+
+    /**
+     * Applies a list of "patronId,amount" lines. Messages in the report refer
+     * to line numbers (the first line is line 1).
+     *
+     * @param lines changes, in the order they should be applied
+     */
+    public void apply(List<String> lines) {
+        long startTime = System.nanoTime();
+        applied = 0;
+        clamped = 0;
+        failed = 0;
+        patronsChanged = 0;
+        report.clear();
+
+        int n = lines.size();
+        int[] ids = new int[n];
+        long[] cents = new long[n];
+        byte[] kinds = new byte[n];
+        String[] messages = new String[n];
+        boolean[] clampedLines = new boolean[n];
+
+        // 1. Parse every line (on all cores)
+        IntStream.range(0, n).parallel().forEach(i ->
+                messages[i] = parse(lines.get(i), i == 0, i, ids, cents, kinds));
+
+        // 2. Group the changes by patron, keeping file order within a patron: (ID, line) packed into one long
+        long[] keys = new long[n];
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            if (kinds[i] != INVALID) {
+                keys[count++] = ((long) ids[i] << 32) | i;
+            }
+        }
+        long[] order = Arrays.copyOf(keys, count);
+        Arrays.parallelSort(order);
+
+        int[] groupStarts = groupStarts(order);
+        int groups = groupStarts.length - 1;
+
+        // 3. Look up each patron once (on this thread), then work out the new fines (on all cores)
+        Patron[] patrons = new Patron[groups];
+        for (int g = 0; g < groups; g++) {
+            patrons[g] = manager.findPatronById((int) (order[groupStarts[g]] >>> 32));
+        }
+        long[] newCents = new long[groups];
+        IntStream.range(0, groups).parallel().forEach(g ->
+                adjust(order, groupStarts[g], groupStarts[g + 1], cents, kinds, messages, clampedLines, patrons, newCents, g));
+
+        // 4. Set the final fines (one setter call per patron, so the store sees one update each)
+        for (int g = 0; g < groups; g++) {
+            Patron p = patrons[g];
+            if (p != null && PatronSnapshot.toCents(p.getOverdueFine()) != newCents[g]) {
+                p.setOverdueFine(newCents[g] / 100.0);
+                patronsChanged++;
+            }
+        }
+
+        // Count outcomes and build the report in line order
+        for (int i = 0; i < n; i++) {
+            String message = messages[i];
+            if (kinds[i] == INVALID && message == null) continue;   // Header or blank line
+
+            if (message == null) {
+                applied++;
+            } else if (clampedLines[i]) {
+                applied++;
+                clamped++;
+                report.add("Line " + (i + 1) + ": " + message);
+            } else {
+                failed++;
+                report.add("Line " + (i + 1) + ": " + message);
+            }
+        }
+
+        long elapsedMillis = (System.nanoTime() - startTime) / 1_000_000;
+        System.out.println("Adjustments applied: " + applied + (clamped > 0 ? " (" + clamped + " clamped)" : ""));
+        System.out.println("Adjustments failed: " + failed);
+        System.out.println("Patrons changed: " + patronsChanged);
+        System.out.println("Adjustment time: " + elapsedMillis + " ms");
+    }
+
+    // Returns the report of the last run: one line per failed or clamped change
+    public List<String> getReport() {
+        return report;
+    }
+
+    /**
+     * Writes the report of the last run to a file.
+     *
+     * @param fileName file to overwrite
+     * @return true if written, false otherwise
+     */
+    public boolean writeReport(String fileName) {
+        try (BufferedWriter out = Files.newBufferedWriter(Paths.get(fileName), StandardCharsets.UTF_8)) {
+            for (String line : report) {
+                out.write(line);
+                out.newLine();
+            }
+            return true;
+
+        } catch (IOException e) {
+            System.out.println("Error writing adjustment report: " + e.getMessage());
+            return false;
+        }
+    }
+
+    public int getAppliedCount() {
+        return applied;
+    }
+
+    public int getClampedCount() {
+        return clamped;
+    }
+
+    public int getFailedCount() {
+        return failed;
+    }
+
+    public int getPatronsChangedCount() {
+        return patronsChanged;
+    }
+
+    // ===== Helpers =====
+
+    /**
+     * Parses line i into ids, cents and kinds. Returns null on success (and for
+     * a header or blank line, whose kind is left INVALID with no message), or an error message.
+     */
+    private static String parse(String line, boolean firstLine, int i, int[] ids, long[] cents, byte[] kinds) {
+        kinds[i] = INVALID;
+        line = line.trim();
+        if (line.isEmpty()) return null;
+
+        int comma = line.indexOf(',');
+        if (comma < 0 || line.indexOf(',', comma + 1) >= 0) {
+            if (firstLine) return null;
+            return "Expected: patronId,amount";
+        }
+
+        String idText = line.substring(0, comma).trim();
+        String amountText = line.substring(comma + 1).trim();
+
+        int id;
+        try {
+            id = Integer.parseInt(idText);
+        } catch (NumberFormatException e) {
+            if (firstLine) return null;     // Header row
+            return "Patron ID must be a number.";
+        }
+        if (!Patron.isValidPatronId(id)) {
+            return "Patron ID must be exactly 7 digits.";
+        }
+
+        byte kind = SET;
+        if (amountText.startsWith("+") || amountText.startsWith("-")) {
+            kind = ADD;
+        } else if (amountText.startsWith("=")) {
+            amountText = amountText.substring(1).trim();
+        }
+
+        double amount;
+        try {
+            amount = Double.parseDouble(amountText);
+        } catch (NumberFormatException e) {
+            return "Amount must be a number.";
+        }
+        if (Double.isNaN(amount) || Double.isInfinite(amount)) {
+            return "Amount must be a number.";
+        }
+        if (Math.abs(amount) > 1e12) {
+            return "Amount is too large.";
+        }
+
+        ids[i] = id;
+        cents[i] = PatronSnapshot.toCents(amount);
+        kinds[i] = kind;
+        return null;
+    }
+
+    // Returns where each patron's run of changes starts in the sorted order (plus one end entry)
+    private static int[] groupStarts(long[] order) {
+        int[] starts = new int[order.length + 1];
+        int groups = 0;
+        for (int i = 0; i < order.length; i++) {
+            if (i == 0 || (order[i] >>> 32) != (order[i - 1] >>> 32)) {
+                starts[groups++] = i;
+            }
+        }
+        starts[groups] = order.length;
+        return Arrays.copyOf(starts, groups + 1);
+    }
+
+    // Applies the changes order[start..end) (all for one patron) to that patron's current fine
+    // (patrons[group] is the patron looked up before, or null if there is none)
+    private void adjust(long[] order, int start, int end, long[] cents, byte[] kinds, String[] messages,
+                        boolean[] clampedLines, Patron[] patrons, long[] newCents, int group) {
+        int id = (int) (order[start] >>> 32);
+        Patron p = patrons[group];
+        if (p == null) {
+            for (int k = start; k < end; k++) {
+                messages[(int) order[k]] = "No patron found with ID " + id + ".";
+            }
+            return;
+        }
+
+        long fine = PatronSnapshot.toCents(p.getOverdueFine());
+        for (int k = start; k < end; k++) {
+            int line = (int) order[k];
+            long result = kinds[line] == ADD ? fine + cents[line] : cents[line];
+
+            if (result >= MIN_FINE_CENTS && result <= MAX_FINE_CENTS) {
+                fine = result;
+            } else if (clamp) {
+                fine = Math.max(MIN_FINE_CENTS, Math.min(MAX_FINE_CENTS, result));
+                messages[line] = "Fine for patron " + id + " clamped to " + (fine / 100.0) + ".";
+                clampedLines[line] = true;
+            } else {
+                messages[line] = "Fine for patron " + id + " would be " + (result / 100.0)
+                        + "; it must be between 0 and 250.";
+            }
+        }
+
+        newCents[group] = fine;
+    }
+}
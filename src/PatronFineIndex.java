@@ -0,0 +1,253 @@
+/**
+ * PatronFineIndex keeps patron IDs grouped by overdue fine, so collections
+ * queries do not have to scan every patron.
+ *
+ * Fines are kept in whole cents. Since a fine is always between $0 and $250,
+ * there is one bucket per cent value (25001 buckets) plus a bitmap of the
+ * buckets that are not empty:
+ *  - range query ("owing more than $X"): walks the non-empty buckets in the range
+ *  - top N debtors: walks the non-empty buckets from $250 down and stops after N
+ *  - total, number of patrons owing and the per-dollar histogram are updated on
+ *    every change, so reading them costs nothing
+ *
+ * Each patron has an entry (ID, cents, position in its bucket); removing a
+ * patron moves the last entry into the freed one, so nothing is ever scanned.
+ *
+ * Not thread-safe (PatronManager updates it under a lock).
+ */
+
+
+import java.util.Arrays;
+
+public class PatronFineIndex {
+
+    // Highest fine in cents (see Patron.isValidFine)
+    public static final int MAX_CENTS = 25_000;
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int INITIAL_BUCKET_SIZE = 4;
+
+    // Entry number of every patron ID
+    private final PatronIdIndex entries = new PatronIdIndex();
+
+    // Per entry: patron ID, fine in cents and position inside the bucket for that fine
+    private int[] entryIds = new int[INITIAL_CAPACITY];
+    private int[] entryCents = new int[INITIAL_CAPACITY];
+    private int[] entryPositions = new int[INITIAL_CAPACITY];
+    private int entryCount;
+
+    // Entry numbers of the patrons owing each fine (allocated on first use)
+    private final int[][] buckets = new int[MAX_CENTS + 1][];
+    private final int[] bucketSizes = new int[MAX_CENTS + 1];
+
+    // Bit c is set when bucket c is not empty
+    private final long[] nonEmpty = new long[MAX_CENTS / 64 + 1];
+
+    // Running totals
+    private long totalCents;
+    private int owingCount;
+    private final int[] dollarCounts = new int[MAX_CENTS / 100 + 1];
+
+    // Returns the number of patrons in the index
+    public int size() {
+        return entryCount;
+    }
+
+    /**
+     * Adds a patron, or moves them to a new fine if already indexed.
+     *
+     * @param patronId patron ID
+     * @param cents fine in cents (0 to MAX_CENTS)
+     */
+    public void put(int patronId, long cents) {
+        if (cents < 0 || cents > MAX_CENTS) {
+            throw new IllegalArgumentException("Overdue fine must be between 0 and 250.");
+        }
+
+        int entry = entries.get(patronId);
+        if (entry != PatronIdIndex.NOT_FOUND) {
+            if (entryCents[entry] == cents) return;
+            removeFromBucket(entry);
+        } else {
+            entry = newEntry(patronId);
+        }
+        addToBucket(entry, (int) cents);
+    }
+
+    /**
+     * Removes a patron.
+     *
+     * @return true if the patron was indexed
+     */
+    public boolean remove(int patronId) {
+        int entry = entries.remove(patronId);
+        if (entry == PatronIdIndex.NOT_FOUND) return false;
+
+        removeFromBucket(entry);
+
+        // Move the last entry into the freed one
+        int last = --entryCount;
+        if (entry != last) {
+            entryIds[entry] = entryIds[last];
+            entryCents[entry] = entryCents[last];
+            entryPositions[entry] = entryPositions[last];
+            buckets[entryCents[entry]][entryPositions[entry]] = entry;
+            entries.put(entryIds[entry], entry);
+        }
+        return true;
+    }
+
+    // Removes every patron
+    public void clear() {
+        entries.clear();
+        entryCount = 0;
+        Arrays.fill(buckets, null);
+        Arrays.fill(bucketSizes, 0);
+        Arrays.fill(nonEmpty, 0);
+        Arrays.fill(dollarCounts, 0);
+        totalCents = 0;
+        owingCount = 0;
+    }
+
+    // Returns the sum of all fines in cents
+    public long getTotalCents() {
+        return totalCents;
+    }
+
+    // Returns the number of patrons with a fine above 0
+    public int getOwingCount() {
+        return owingCount;
+    }
+
+    /**
+     * Returns the number of patrons per whole dollar of fine: entry d counts
+     * fines from $d.00 to $d.99 (the last entry counts fines of exactly $250).
+     */
+    public int[] getDollarHistogram() {
+        return dollarCounts.clone();
+    }
+
+    /**
+     * Returns the IDs of patrons whose fine is in a range, lowest fine first.
+     *
+     * @param minCents lowest fine in cents (inclusive)
+     * @param maxCents highest fine in cents (inclusive)
+     */
+    public int[] findRange(long minCents, long maxCents) {
+        if (minCents > MAX_CENTS || maxCents < 0 || minCents > maxCents) return new int[0];
+        int from = (int) Math.max(0, minCents);
+        int to = (int) Math.min(MAX_CENTS, maxCents);
+
+        int[] ids = new int[16];
+        int count = 0;
+        for (int c = nextNonEmpty(from); c >= 0 && c <= to; c = nextNonEmpty(c + 1)) {
+            int[] bucket = buckets[c];
+            int bucketSize = bucketSizes[c];
+            if (count + bucketSize > ids.length) {
+                ids = Arrays.copyOf(ids, Math.max(ids.length * 2, count + bucketSize));
+            }
+            for (int k = 0; k < bucketSize; k++) {
+                ids[count++] = entryIds[bucket[k]];
+            }
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+    /**
+     * Returns the IDs of the patrons with the highest fines, highest first
+     * (patrons with the same fine are in no particular order). Patrons who owe
+     * nothing are not debtors, so they are never returned.
+     *
+     * @param count maximum number of IDs returned
+     */
+    public int[] findTop(int count) {
+        int[] ids = new int[Math.max(0, Math.min(count, owingCount))];
+        int found = 0;
+        for (int c = previousNonEmpty(MAX_CENTS); c > 0 && found < ids.length; c = previousNonEmpty(c - 1)) {
+            int[] bucket = buckets[c];
+            for (int k = 0; k < bucketSizes[c] && found < ids.length; k++) {
+                ids[found++] = entryIds[bucket[k]];
+            }
+        }
+        return ids;
+    }
+
+    // ===== Helpers =====
+
+    private int newEntry(int patronId) {
+        if (entryCount == entryIds.length) {
+            int capacity = entryIds.length * 2;
+            entryIds = Arrays.copyOf(entryIds, capacity);
+            entryCents = Arrays.copyOf(entryCents, capacity);
+            entryPositions = Arrays.copyOf(entryPositions, capacity);
+        }
+        int entry = entryCount++;
+        entryIds[entry] = patronId;
+        entries.put(patronId, entry);
+        return entry;
+    }
+
+    private void addToBucket(int entry, int cents) {
+        int[] bucket = buckets[cents];
+        int bucketSize = bucketSizes[cents];
+        if (bucket == null) {
+            bucket = new int[INITIAL_BUCKET_SIZE];
+            buckets[cents] = bucket;
+        } else if (bucketSize == bucket.length) {
+            bucket = Arrays.copyOf(bucket, bucket.length * 2);
+            buckets[cents] = bucket;
+        }
+        bucket[bucketSize] = entry;
+        bucketSizes[cents] = bucketSize + 1;
+        nonEmpty[cents >>> 6] |= 1L << cents;
+
+        entryCents[entry] = cents;
+        entryPositions[entry] = bucketSize;
+        totalCents += cents;
+        if (cents > 0) owingCount++;
+        dollarCounts[cents / 100]++;
+    }
+
+    // Takes an entry out of its bucket (the last entry of the bucket moves into its place)
+    private void removeFromBucket(int entry) {
+        int cents = entryCents[entry];
+        int[] bucket = buckets[cents];
+        int last = --bucketSizes[cents];
+        int position = entryPositions[entry];
+        if (position != last) {
+            bucket[position] = bucket[last];
+            entryPositions[bucket[position]] = position;
+        }
+        if (last == 0) {
+            nonEmpty[cents >>> 6] &= ~(1L << cents);
+        }
+
+        totalCents -= cents;
+        if (cents > 0) owingCount--;
+        dollarCounts[cents / 100]--;
+    }
+
+    // Returns the first non-empty bucket at or after c, or -1
+    private int nextNonEmpty(int c) {
+        if (c > MAX_CENTS) return -1;
+        int word = c >>> 6;
+        long bits = nonEmpty[word] & (-1L << c);
+        while (bits == 0) {
+            if (++word == nonEmpty.length) return -1;
+            bits = nonEmpty[word];
+        }
+        return (word << 6) + Long.numberOfTrailingZeros(bits);
+    }
+
+    // Returns the last non-empty bucket at or before c, or -1
+    private int previousNonEmpty(int c) {
+        if (c < 0) return -1;
+        int word = c >>> 6;
+        long bits = nonEmpty[word] & (-1L >>> (63 - (c & 63)));
+        while (bits == 0) {
+            if (--word < 0) return -1;
+            bits = nonEmpty[word];
+        }
+        return (word << 6) + 63 - Long.numberOfLeadingZeros(bits);
+    }
+}
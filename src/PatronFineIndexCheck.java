@@ -0,0 +1,167 @@
+/**
+ * PatronFineIndexCheck makes random adds, removals and fine changes through a
+ * PatronManager and checks its fine queries (which use PatronFineIndex) against
+ * a brute-force scan of the store.
+ *
+ * The fine index is built after the first changes, so both building it from
+ * the roster and keeping it up to date are checked. Every few thousand steps:
+ *      total fines, patrons owing and the per-dollar histogram
+ *      the patrons owing more than a random amount (as a set)
+ *      the fines of the top debtors, highest first
+ * are compared with the same values counted from every patron in the store.
+ *
+ * It prints PASSED or the first differences and FAILED (exit code 1 on failure).
+ *
+ * Usage:
+ *      java PatronFineIndexCheck [object|concurrent|columnar|lazy|versioned] [operations] [seed]
+ */
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+public class PatronFineIndexCheck {
+
+    // Lowest patron ID used (see Patron.isValidPatronId)
+    private static final int FIRST_ID = 1_000_000;
+
+    // Number of different IDs used
+    private static final int ID_RANGE = 20_000;
+
+    // Steps between comparisons, and the step at which the index is first built
+    private static final int CHECK_EVERY = 2_000;
+    private static final int BUILD_AT = 10_000;
+
+    public static void main(String[] args) {
+        String storeType = args.length > 0 ? args[0] : "object";
+        int operations = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+
+        PatronStore store;
+        if (storeType.equals("object")) {
+            store = new ObjectPatronStore();
+        } else if (storeType.equals("concurrent")) {
+            store = new ConcurrentPatronStore();
+        } else if (storeType.equals("columnar")) {
+            store = new ColumnarPatronStore();
+        } else if (storeType.equals("lazy")) {
+            store = new LazyPatronStore();
+        } else if (storeType.equals("versioned")) {
+            store = new PersistentPatronStore();
+        } else {
+            System.out.println("Unknown store: " + storeType + " (use object, concurrent, columnar, lazy or versioned)");
+            return;
+        }
+
+        PatronManager manager = new PatronManager(store);
+        Random random = new Random(seed);
+        StringBuilder errors = new StringBuilder();
+        int checks = 0;
+
+        for (int i = 1; i <= operations && errors.length() == 0; i++) {
+            int patronId = FIRST_ID + random.nextInt(ID_RANGE);
+            int choice = random.nextInt(10);
+
+            if (choice < 4) {
+                manager.addPatron(new Patron(patronId, "Fine Patron", "1 Test Street", randomFine(random)));
+            } else if (choice < 6) {
+                manager.removePatronById(patronId);
+            } else {
+                Patron p = manager.findPatronById(patronId);
+                if (p != null) p.setOverdueFine(randomFine(random));
+            }
+
+            if (i >= BUILD_AT && i % CHECK_EVERY == 0) {
+                compare("Step " + i, manager, store, random, errors);
+                checks++;
+            }
+        }
+
+        System.out.println("Store: " + storeType + ", operations: " + operations + ", seed: " + seed + ", checks: " + checks);
+        System.out.println("Patrons: " + manager.getPatronCount() + ", owing: " + manager.getPatronsOwingCount());
+        if (errors.length() == 0) {
+            System.out.println("PASSED");
+        } else {
+            System.out.print(errors);
+            System.out.println("FAILED");
+            System.exit(1);
+        }
+    }
+
+    // ===== Helpers =====
+
+    // Compares the manager's fine queries with a scan of every patron in the store
+    private static void compare(String when, PatronManager manager, PatronStore store, Random random, StringBuilder errors) {
+        long totalCents = 0;
+        int owing = 0;
+        int[] histogram = new int[PatronFineIndex.MAX_CENTS / 100 + 1];
+        ArrayList<Long> fines = new ArrayList<>();
+        for (Patron p : store) {
+            long cents = PatronSnapshot.toCents(p.getOverdueFine());
+            totalCents += cents;
+            if (cents > 0) owing++;
+            histogram[(int) (cents / 100)]++;
+            fines.add(cents);
+        }
+
+        if (PatronSnapshot.toCents(manager.getTotalFines()) != totalCents) {
+            errors.append(when).append(": total is ").append(manager.getTotalFines())
+                    .append(", scan found ").append(totalCents / 100.0).append('\n');
+        }
+        if (manager.getPatronsOwingCount() != owing) {
+            errors.append(when).append(": patrons owing is ").append(manager.getPatronsOwingCount())
+                    .append(", scan found ").append(owing).append('\n');
+        }
+        if (!Arrays.equals(manager.getFineHistogram(), histogram)) {
+            errors.append(when).append(": fine histogram differs from the scan\n");
+        }
+
+        // Patrons owing more than a random amount: same IDs, lowest fine first
+        double amount = random.nextInt(25_001) / 100.0;
+        long amountCents = PatronSnapshot.toCents(amount);
+        ArrayList<Integer> expectedIds = new ArrayList<>();
+        for (Patron p : store) {
+            if (PatronSnapshot.toCents(p.getOverdueFine()) > amountCents) expectedIds.add(p.getPatronId());
+        }
+        ArrayList<Patron> found = manager.findPatronsOwingMoreThan(amount);
+        ArrayList<Integer> foundIds = new ArrayList<>();
+        long previous = -1;
+        for (Patron p : found) {
+            foundIds.add(p.getPatronId());
+            long cents = PatronSnapshot.toCents(p.getOverdueFine());
+            if (cents < previous) {
+                errors.append(when).append(": owing more than ").append(amount).append(" is not sorted by fine\n");
+                break;
+            }
+            previous = cents;
+        }
+        expectedIds.sort(null);
+        foundIds.sort(null);
+        if (!foundIds.equals(expectedIds)) {
+            errors.append(when).append(": owing more than ").append(amount).append(" returned ").append(foundIds.size())
+                    .append(" patrons, scan found ").append(expectedIds.size()).append('\n');
+        }
+
+        // Top debtors: the same fines as the highest fines above 0 of the scan
+        int count = 1 + random.nextInt(50);
+        fines.sort((a, b) -> Long.compare(b, a));
+        ArrayList<Long> expectedTop = new ArrayList<>();
+        for (int k = 0; k < fines.size() && expectedTop.size() < count && fines.get(k) > 0; k++) {
+            expectedTop.add(fines.get(k));
+        }
+        ArrayList<Long> top = new ArrayList<>();
+        for (Patron p : manager.findTopDebtors(count)) {
+            top.add(PatronSnapshot.toCents(p.getOverdueFine()));
+        }
+        if (!top.equals(expectedTop)) {
+            errors.append(when).append(": top ").append(count).append(" fines are ").append(top)
+                    .append(", scan found ").append(expectedTop).append('\n');
+        }
+    }
+
+    // About a third of patrons owe nothing; the rest owe up to $250 in whole cents
+    private static double randomFine(Random random) {
+        return random.nextInt(3) == 0 ? 0.0 : random.nextInt(PatronFineIndex.MAX_CENTS + 1) / 100.0;
+    }
+}
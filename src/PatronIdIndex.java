@@ -0,0 +1,192 @@
+/**
+ * PatronIdIndex maps a patron ID to the slot where that patron is stored
+ * inside PatronManager.
+ *
+ * It is an open-addressing hash table over plain int arrays, so lookups
+ * never box the ID into an Integer and never allocate.
+ *
+ * Notes:
+ *  - Key 0 marks an empty cell (valid patron IDs are 1000000 to 9999999)
+ *  - Linear probing with backward-shift deletion, so no tombstones build up
+ *  - The table doubles when it becomes more than half full
+ *  - Not thread-safe; get() reads the table through local copies so that an
+ *    optimistic reader racing a writer stays in bounds (see ConcurrentPatronStore)
+ */
+
+
+import java.util.Arrays;
+
+public class PatronIdIndex {
+
+    // Returned by get() and remove() when the ID is not in the index
+    public static final int NOT_FOUND = -1;
+
+    private static final int EMPTY = 0;
+    private static final int MIN_CAPACITY = 16;
+
+    private int[] keys;     // Patron IDs (0 = empty cell)
+    private int[] values;   // Slot of the patron with the matching ID
+    private int mask;       // capacity - 1 (capacity is always a power of two)
+    private int size;
+
+    // Constructor creates an empty index
+    public PatronIdIndex() {
+        this(MIN_CAPACITY);
+    }
+
+    // Constructor creates an index sized to hold expectedSize IDs without resizing
+    public PatronIdIndex(int expectedSize) {
+        allocate(tableSizeFor(expectedSize));
+    }
+
+    // Returns the number of IDs stored in the index
+    public int size() {
+        return size;
+    }
+
+    // Returns the slot stored for the ID, or NOT_FOUND
+    public int get(int patronId) {
+        if (patronId == EMPTY) return NOT_FOUND;
+
+        int[] keys = this.keys;
+        int[] values = this.values;
+        int mask = keys.length - 1;
+
+        int i = mix(patronId) & mask;
+        while (true) {
+            int k = keys[i];
+            if (k == patronId) return values[i];
+            if (k == EMPTY) return NOT_FOUND;
+            i = (i + 1) & mask;
+        }
+    }
+
+    // Checks if the ID is in the index
+    public boolean contains(int patronId) {
+        return get(patronId) != NOT_FOUND;
+    }
+
+    /**
+     * Stores (or replaces) the slot for a patron ID.
+     *
+     * @param patronId patron ID (must not be 0)
+     * @param slot slot of the patron
+     * @return the previous slot, or NOT_FOUND if the ID was new
+     */
+    public int put(int patronId, int slot) {
+        if (patronId == EMPTY) {
+            throw new IllegalArgumentException("Patron ID 0 cannot be indexed.");
+        }
+
+        int i = indexFor(patronId);
+        while (true) {
+            int k = keys[i];
+            if (k == patronId) {
+                int previous = values[i];
+                values[i] = slot;
+                return previous;
+            }
+            if (k == EMPTY) {
+                keys[i] = patronId;
+                values[i] = slot;
+                size++;
+                if (size * 2 > keys.length) {
+                    rehash(keys.length * 2);
+                }
+                return NOT_FOUND;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    /**
+     * Removes a patron ID from the index.
+     *
+     * @param patronId patron ID to remove
+     * @return the slot that was stored for the ID, or NOT_FOUND
+     */
+    public int remove(int patronId) {
+        if (patronId == EMPTY) return NOT_FOUND;
+
+        int i = indexFor(patronId);
+        while (true) {
+            int k = keys[i];
+            if (k == EMPTY) return NOT_FOUND;
+            if (k == patronId) break;
+            i = (i + 1) & mask;
+        }
+
+        int removed = values[i];
+
+        // Shift later entries of the same probe run back into the gap
+        int gap = i;
+        int j = (i + 1) & mask;
+        while (keys[j] != EMPTY) {
+            int home = indexFor(keys[j]);
+            // Move the entry if its home cell is not between the gap and j (cyclically)
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                keys[gap] = keys[j];
+                values[gap] = values[j];
+                gap = j;
+            }
+            j = (j + 1) & mask;
+        }
+        keys[gap] = EMPTY;
+        values[gap] = 0;
+        size--;
+        return removed;
+    }
+
+    // Removes every ID from the index
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        Arrays.fill(values, 0);
+        size = 0;
+    }
+
+    // ===== Helpers =====
+
+    // Home cell of an ID in the current table
+    private int indexFor(int patronId) {
+        return mix(patronId) & mask;
+    }
+
+    // Mixes the ID bits so sequential IDs spread across the table
+    private static int mix(int patronId) {
+        int h = patronId * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private void rehash(int newCapacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(newCapacity);
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            int k = oldKeys[i];
+            if (k == EMPTY) continue;
+
+            int j = indexFor(k);
+            while (keys[j] != EMPTY) {
+                j = (j + 1) & mask;
+            }
+            keys[j] = k;
+            values[j] = oldValues[i];
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    // Smallest power of two that keeps expectedSize entries at most half full
+    private static int tableSizeFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < (1 << 30) && capacity / 2 < expectedSize) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+}
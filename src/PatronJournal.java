@@ -0,0 +1,392 @@
+/**
+ * PatronJournal is an append-only log of patron changes kept next to a data file.
+ *
+ * Instead of rewriting the whole data file after every change, each add, remove
+ * or update is appended to "<data file>.journal" as one short line:
+ *
+ *      A,patronId,name,address,overdueFine     (add)
+ *      U,patronId,name,address,overdueFine     (update)
+ *      R,patronId                              (remove)
+ *
+ * When the data file is loaded the journal is replayed on top of it.
+ * Compaction rewrites the data file from memory and deletes the journal.
+ * Replaying a journal twice gives the same result, so a crash between
+ * those two steps loses nothing.
+ *
+ * The journal file stays open between appends (see GroupCommitWriter), so
+ * records logged by several threads at once share one write. Call close()
+ * when the journal is no longer used.
+ */
+
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+public class PatronJournal {
+
+    // Extension added to the data file name to get the journal file name
+    public static final String JOURNAL_SUFFIX = ".journal";
+
+    // Compact once the journal has this many records and at least half as many as there are patrons
+    private static final int MIN_RECORDS_BEFORE_COMPACT = 1000;
+
+    private final String dataFileName;
+    private final File journalFile;
+    private final GroupCommitWriter.SyncPolicy syncPolicy;
+
+    // Counts the bytes appended to the journal (null for none)
+    private final PatronStats stats;
+
+    // Open journal file (null until the first append, and again after compaction)
+    private GroupCommitWriter writer;
+
+    // Number of records currently in the journal file
+    private int recordCount;
+
+    // Byte ranges of the journal file written by this journal (start -> end), cleared when the file is deleted
+    private final TreeMap<Long, Long> ownRanges = new TreeMap<>();
+
+    // Constructor creates the journal that belongs to the given data file (records are not forced to disk)
+    public PatronJournal(String dataFileName) {
+        this(dataFileName, GroupCommitWriter.SyncPolicy.NONE);
+    }
+
+    // Constructor creates the journal that belongs to the given data file with the given fsync policy
+    public PatronJournal(String dataFileName, GroupCommitWriter.SyncPolicy syncPolicy) {
+        this(dataFileName, syncPolicy, null);
+    }
+
+    // Constructor also adds the bytes appended to the journal to stats (usually the manager's)
+    public PatronJournal(String dataFileName, GroupCommitWriter.SyncPolicy syncPolicy, PatronStats stats) {
+        this.dataFileName = dataFileName;
+        this.journalFile = new File(dataFileName + JOURNAL_SUFFIX);
+        this.syncPolicy = syncPolicy;
+        this.stats = stats;
+    }
+
+    // Returns the data file this journal belongs to
+    public String getDataFileName() {
+        return dataFileName;
+    }
+
+    // Returns the number of records in the journal
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    // ===== Appending =====
+
+    // Logs that a patron was added
+    public boolean appendAdd(Patron patron) {
+        if (patron == null) return false;
+        return append(Collections.singletonList(addRecord(patron)));
+    }
+
+    // Logs that a patron's name, address or fine changed
+    public boolean appendUpdate(Patron patron) {
+        if (patron == null) return false;
+        return append(Collections.singletonList(updateRecord(patron)));
+    }
+
+    // Logs that a patron was removed
+    public boolean appendRemove(int patronId) {
+        return append(Collections.singletonList(removeRecord(patronId)));
+    }
+
+    /**
+     * Logs many records with a single write to the journal file.
+     * Build the records with addRecord, updateRecord and removeRecord.
+     *
+     * @param records record lines in the order they happened
+     * @return true if all records were written, false otherwise
+     */
+    public boolean appendAll(List<String> records) {
+        if (records.isEmpty()) return true;
+        return append(records);
+    }
+
+    // ===== Record Lines =====
+
+    public static String addRecord(Patron patron) {
+        return "A," + PatronManager.toFileLine(patron);
+    }
+
+    public static String updateRecord(Patron patron) {
+        return "U," + PatronManager.toFileLine(patron);
+    }
+
+    public static String removeRecord(int patronId) {
+        return "R," + patronId;
+    }
+
+    // ===== Replay and Compaction =====
+
+    /**
+     * Applies every journal record to the manager (call after loading the data file).
+     * Lines that cannot be parsed, such as a half-written last line after a crash, are skipped.
+     *
+     * @param manager manager holding the patrons of the data file
+     * @return number of records applied
+     */
+    public int replay(PatronManager manager) {
+        int appliedCount = 0;
+        int skippedCount = 0;
+        recordCount = 0;
+
+        try (BufferedReader br = new BufferedReader(new FileReader(journalFile))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) continue;
+
+                recordCount++;
+                if (applyRecord(manager, line)) {
+                    appliedCount++;
+                } else {
+                    skippedCount++;
+                }
+            }
+
+        } catch (FileNotFoundException e) {
+            // No journal yet: nothing has changed since the last compaction
+            return 0;
+        } catch (IOException e) {
+            System.out.println("Error reading journal: " + e.getMessage());
+        }
+
+        if (appliedCount > 0 || skippedCount > 0) {
+            System.out.println("Journal records replayed: " + appliedCount);
+            if (skippedCount > 0) {
+                System.out.println("Journal records skipped: " + skippedCount);
+            }
+        }
+        return appliedCount;
+    }
+
+    /**
+     * Applies the records appended to a journal file after a byte offset, for
+     * example by another program sharing the data file (see PatronFileWatcher).
+     * A last line without a line break is left for the next call, since the
+     * program appending it may not have finished writing it.
+     *
+     * Records written by own (this program's journal of the same file) are
+     * skipped: they are already in memory, and applying them again could undo
+     * a later change or bring back a removed patron for a moment.
+     *
+     * @param manager manager holding the patrons of the data file
+     * @param journalFileName journal file to read
+     * @param offset byte offset up to which the journal was already applied
+     * @param own this program's journal of the file (null if none)
+     * @return offset just past the last record read (pass it to the next call)
+     */
+    public static long replayAppended(PatronManager manager, String journalFileName, long offset, PatronJournal own) {
+        byte[] appended;
+        try (FileChannel channel = FileChannel.open(Paths.get(journalFileName), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size <= offset) return offset;
+
+            ByteBuffer bytes = ByteBuffer.allocate((int) Math.min(Integer.MAX_VALUE - 8, size - offset));
+            while (bytes.hasRemaining()) {
+                if (channel.read(bytes, offset + bytes.position()) < 0) break;
+            }
+            appended = Arrays.copyOf(bytes.array(), bytes.position());
+
+        } catch (NoSuchFileException e) {
+            return offset;
+        } catch (IOException e) {
+            System.out.println("Error reading journal: " + e.getMessage());
+            return offset;
+        }
+
+        int end = appended.length;
+        while (end > 0 && appended[end - 1] != '\n' && appended[end - 1] != '\r') end--;
+
+        int lineStart = 0;
+        for (int i = 0; i < end; i++) {
+            if (appended[i] != '\n' && appended[i] != '\r') continue;
+            if (i > lineStart && (own == null || !own.wrote(offset + lineStart))) {
+                String line = new String(appended, lineStart, i - lineStart, StandardCharsets.UTF_8).trim();
+                if (!line.isEmpty()) applyRecord(manager, line);
+            }
+            lineStart = i + 1;
+        }
+        return offset + end;
+    }
+
+    // Checks if the journal file byte at this position was written by this journal
+    public boolean wrote(long position) {
+        synchronized (ownRanges) {
+            Map.Entry<Long, Long> range = ownRanges.floorEntry(position);
+            return range != null && position < range.getValue();
+        }
+    }
+
+    // Checks if the journal has grown large enough to be folded into the data file
+    public boolean needsCompaction(int patronCount) {
+        return recordCount >= MIN_RECORDS_BEFORE_COMPACT && recordCount * 2L >= patronCount;
+    }
+
+    /**
+     * Rewrites the data file from the manager and then deletes the journal.
+     * The data file keeps its format (CSV text, binary snapshot, record file, block file or lookup file).
+     *
+     * @param manager manager holding the current patrons
+     * @return true if compacted successfully, false otherwise
+     */
+    public synchronized boolean compact(PatronManager manager) {
+        // Write what is queued and release the file before deleting it
+        closeWriter();
+
+        boolean saved;
+        if (PatronSnapshot.isSnapshot(dataFileName)) {
+            saved = manager.saveSnapshotToFile(dataFileName);
+        } else if (PatronRecordFile.isRecordFile(dataFileName)) {
+            // An open record file only needs the changed records
+            saved = dataFileName.equals(manager.getRecordFileName())
+                    ? manager.saveDirtyRecords()
+                    : manager.saveRecordFile(dataFileName);
+        } else if (PatronBlockFile.isBlockFile(dataFileName)) {
+            saved = manager.saveBlockFile(dataFileName);
+        } else if (MappedPatronStore.isLookupFile(dataFileName)) {
+            saved = manager.saveLookupFile(dataFileName);
+        } else {
+            saved = manager.saveAllToFile(dataFileName);
+        }
+        if (!saved) {
+            return false;
+        }
+
+        if (journalFile.exists() && !journalFile.delete()) {
+            System.out.println("Error deleting journal file: " + journalFile.getPath());
+            return false;
+        }
+        recordCount = 0;
+        synchronized (ownRanges) {
+            ownRanges.clear();
+        }
+        return true;
+    }
+
+    /**
+     * Writes every queued record and closes the journal file.
+     * Appending again later simply reopens it.
+     */
+    public synchronized void close() {
+        closeWriter();
+    }
+
+    // ===== Helpers =====
+
+    /**
+     * Appends record lines to the journal file and waits until they are written.
+     * Records are queued under the lock, so lines never interleave, but the wait
+     * happens outside it so other threads can add their records to the same write.
+     */
+    private boolean append(List<String> records) {
+        CompletableFuture<?>[] written = new CompletableFuture<?>[records.size()];
+
+        synchronized (this) {
+            try {
+                if (writer == null) {
+                    writer = new GroupCommitWriter(journalFile.toPath(), null, syncPolicy, stats);
+                    writer.setRangeListener(this::addOwnRange);
+                }
+            } catch (IOException e) {
+                System.out.println("Error writing to journal: " + e.getMessage());
+                return false;
+            }
+
+            for (int i = 0; i < written.length; i++) {
+                written[i] = writer.append(records.get(i));
+            }
+            recordCount += records.size();
+        }
+
+        try {
+            CompletableFuture.allOf(written).join();
+            return true;
+
+        } catch (CompletionException e) {
+            System.out.println("Error writing to journal: " + e.getCause().getMessage());
+            return false;
+        }
+    }
+
+    // Remembers a range this journal wrote (joined to the previous one when they touch)
+    private void addOwnRange(long start, long end) {
+        synchronized (ownRanges) {
+            Map.Entry<Long, Long> last = ownRanges.lastEntry();
+            if (last != null && last.getValue() == start) {
+                ownRanges.put(last.getKey(), end);
+            } else {
+                ownRanges.put(start, end);
+            }
+        }
+    }
+
+    private void closeWriter() {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+
+    // Applies one journal line to the manager
+    private static boolean applyRecord(PatronManager manager, String line) {
+        String[] parts = line.split(",", -1);
+
+        try {
+            switch (parts[0]) {
+                case "A":
+                case "U": {
+                    if (parts.length != 5) return false;
+                    int patronId = Integer.parseInt(parts[1].trim());
+                    String name = parts[2].trim();
+                    String address = parts[3].trim();
+                    double fine = Double.parseDouble(parts[4].trim());
+
+                    Patron existing = manager.findPatronById(patronId);
+                    if (existing == null) {
+                        return manager.addPatron(new Patron(patronId, name, address, fine));
+                    }
+                    if (parts[0].equals("U")) {
+                        existing.setName(name);
+                        existing.setAddress(address);
+                        existing.setOverdueFine(fine);
+                    }
+                    // An add of a patron that is already present was folded in by an earlier compaction
+                    return true;
+                }
+                case "R": {
+                    if (parts.length != 2) return false;
+                    manager.removePatronById(Integer.parseInt(parts[1].trim()));
+                    return true;
+                }
+                default:
+                    return false;
+            }
+
+            //Skip records with invalid numeric values or validation errors
+        } catch (NumberFormatException ex) {
+            return false;
+        } catch (IllegalArgumentException ex) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+/**
+ * PatronLineParser parses one line of a patron data file straight from a byte buffer.
+ *
+ * Expected format per line:
+ * patronId,name,address,overdueFine
+ *
+ * The parser follows the same rules as the original String based loader
+ * (trim the line and every field, exactly 4 fields, Integer.parseInt / Double.parseDouble
+ * rules for the numbers, Patron validation rules) but it does not split the line
+ * and does not create Strings for the numeric columns. Name and address Strings
+ * are only created when the caller asks for them, so rejected rows cost no allocation.
+ *
+ * The file must use an ASCII compatible charset (such as UTF-8) so that commas
+ * and line breaks are single bytes.
+ *
+ * One parser holds the fields of the last parsed line, so it must not be shared between threads.
+ *
+ * The same rules apply to patrons typed as command arguments (batch scripts and
+ * the server), see parseArgument and parsePatronId.
+ */
+
+
+import java.nio.charset.Charset;
+
+public class PatronLineParser {
+
+    // ===== Parse Results =====
+    public static final int OK = 0;             // Valid row, fields are available
+    public static final int BLANK = 1;          // Empty line (not counted as skipped)
+    public static final int HEADER = 2;         // Header row on the first line (not counted as skipped)
+    public static final int BAD_FORMAT = 3;     // Not exactly 4 fields
+    public static final int BAD_NUMBER = 4;     // Patron ID or fine is not a number
+    public static final int OUT_OF_RANGE = 5;   // Patron ID not 7 digits or fine not 0 to 250
+    public static final int EMPTY_TEXT = 6;     // Name or address is empty
+
+    // Largest mantissa that a double holds exactly (2^53)
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    // Powers of ten that a double holds exactly
+    private static final double[] EXACT_POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final Charset charset;
+
+    // ===== Fields of the last parsed line =====
+    private byte[] buf;
+    private int patronId;
+    private double fine;
+    private int nameStart, nameEnd;
+    private int addressStart, addressEnd;
+
+    // Constructor uses the platform default charset (the same one FileReader uses)
+    public PatronLineParser() {
+        this(Charset.defaultCharset());
+    }
+
+    // Constructor uses the given charset to decode name and address
+    public PatronLineParser(Charset charset) {
+        this.charset = charset;
+    }
+
+    /**
+     * Parses buf[start, end) which must not contain a line break.
+     *
+     * @param firstLine true if this is the first line of the file (header check)
+     * @return one of the parse result constants
+     */
+    public int parse(byte[] buf, int start, int end, boolean firstLine) {
+        this.buf = buf;
+
+        // Trim the whole line
+        while (start < end && isSpace(buf[start])) start++;
+        while (end > start && isSpace(buf[end - 1])) end--;
+        if (start == end) return BLANK;
+
+        // Field 1: patron ID
+        int comma1 = indexOfComma(buf, start, end);
+        boolean idParsed = parseIntField(buf, start, comma1);
+
+        // Skip header if first line is not numeric
+        if (firstLine && !idParsed) return HEADER;
+
+        // Fields 2 to 4 (there must be exactly 3 more commas)
+        if (comma1 == end) return BAD_FORMAT;
+        int comma2 = indexOfComma(buf, comma1 + 1, end);
+        if (comma2 == end) return BAD_FORMAT;
+        int comma3 = indexOfComma(buf, comma2 + 1, end);
+        if (comma3 == end) return BAD_FORMAT;
+        if (indexOfComma(buf, comma3 + 1, end) != end) return BAD_FORMAT;
+
+        if (!idParsed || !parseFineField(buf, comma3 + 1, end)) return BAD_NUMBER;
+
+        // Validate patron ID and fine amount
+        if (!Patron.isValidPatronId(patronId) || !Patron.isValidFine(fine)) return OUT_OF_RANGE;
+
+        nameStart = trimStart(buf, comma1 + 1, comma2);
+        nameEnd = trimEnd(buf, nameStart, comma2);
+        addressStart = trimStart(buf, comma2 + 1, comma3);
+        addressEnd = trimEnd(buf, addressStart, comma3);
+        if (nameStart == nameEnd || addressStart == addressEnd) return EMPTY_TEXT;
+
+        return OK;
+    }
+
+    // ===== Getters (valid after parse() returned OK) =====
+
+    public int getPatronId() {
+        return patronId;
+    }
+
+    public double getFine() {
+        return fine;
+    }
+
+    // Decodes the trimmed name field
+    public String getName() {
+        return new String(buf, nameStart, nameEnd - nameStart, charset);
+    }
+
+    // Decodes the trimmed address field
+    public String getAddress() {
+        return new String(buf, addressStart, addressEnd - addressStart, charset);
+    }
+
+    // Creates a Patron from the last parsed line
+    public Patron toPatron() {
+        return new Patron(patronId, getName(), getAddress(), fine);
+    }
+
+    // ===== Command Arguments =====
+
+    // Parses "id,name,address,fine" given as a command argument; returns null on success or an error message
+    public String parseArgument(String csv) {
+        byte[] bytes = csv.getBytes(charset);
+        switch (parse(bytes, 0, bytes.length, false)) {
+            case OK:
+                return null;
+            case OUT_OF_RANGE:
+                return "Patron ID must be exactly 7 digits and fine between 0 and 250.";
+            case EMPTY_TEXT:
+                return "Name and address cannot be empty.";
+            default:
+                return "Expected: id,name,address,fine";
+        }
+    }
+
+    // Returns the patron ID given as a command argument, or -1 if the text is not a valid 7-digit ID
+    public static int parsePatronId(String text) {
+        try {
+            int id = Integer.parseInt(text.trim());
+            return Patron.isValidPatronId(id) ? id : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // ===== Number Parsing =====
+
+    /**
+     * Parses the trimmed field as an int into patronId.
+     * Plain digits are handled directly; anything else (signs, very long values,
+     * non-ASCII digits) falls back to Integer.parseInt so the rules stay identical.
+     */
+    private boolean parseIntField(byte[] b, int from, int to) {
+        from = trimStart(b, from, to);
+        to = trimEnd(b, from, to);
+        int len = to - from;
+        if (len == 0) return false;
+
+        if (len <= 9) {
+            int value = 0;
+            int i = from;
+            for (; i < to; i++) {
+                int d = b[i] - '0';
+                if (d < 0 || d > 9) break;
+                value = value * 10 + d;
+            }
+            if (i == to) {
+                patronId = value;
+                return true;
+            }
+        }
+
+        try {
+            patronId = Integer.parseInt(new String(b, from, len, charset));
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Parses the trimmed field as a double into fine.
+     * Plain "digits[.digits]" values whose mantissa and scale are exact in a double
+     * are converted with one division, which gives the same correctly rounded result
+     * as Double.parseDouble. Anything else falls back to Double.parseDouble.
+     */
+    private boolean parseFineField(byte[] b, int from, int to) {
+        from = trimStart(b, from, to);
+        to = trimEnd(b, from, to);
+        int len = to - from;
+        if (len == 0) return false;
+
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean seenDot = false;
+        boolean fast = true;
+
+        for (int i = from; i < to && fast; i++) {
+            byte c = b[i];
+            if (c >= '0' && c <= '9') {
+                mantissa = mantissa * 10 + (c - '0');
+                digits++;
+                if (seenDot) fractionDigits++;
+                if (mantissa >= MAX_EXACT_MANTISSA || fractionDigits >= EXACT_POWERS_OF_TEN.length) {
+                    fast = false;
+                }
+            } else if (c == '.' && !seenDot) {
+                seenDot = true;
+            } else {
+                fast = false;
+            }
+        }
+
+        if (fast && digits > 0) {
+            fine = mantissa / EXACT_POWERS_OF_TEN[fractionDigits];
+            return true;
+        }
+
+        try {
+            fine = Double.parseDouble(new String(b, from, len, charset));
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    // ===== Helpers =====
+
+    // Same rule as String.trim(): every char up to and including space is trimmed
+    static boolean isSpace(byte b) {
+        return (b & 0xFF) <= ' ';
+    }
+
+    private static int trimStart(byte[] b, int from, int to) {
+        while (from < to && isSpace(b[from])) from++;
+        return from;
+    }
+
+    private static int trimEnd(byte[] b, int from, int to) {
+        while (to > from && isSpace(b[to - 1])) to--;
+        return to;
+    }
+
+    // Returns the position of the next comma, or "to" if there is none
+    private static int indexOfComma(byte[] b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (b[i] == ',') return i;
+        }
+        return to;
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * PatronLineWriter formats patrons as text lines and writes them to a Writer.
+ *
+ * Each line is built in one reused StringBuilder and copied to the Writer as a
+ * char array, so writing millions of patrons creates no String per line.
+ * Nothing is flushed per line; wrap slow outputs (files, the console) in a
+ * large BufferedWriter and call flush() once at the end.
+ */
+
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+public class PatronLineWriter {
+
+    private final Writer out;
+
+    // Reused formatting buffers
+    private final StringBuilder line = new StringBuilder(128);
+    private char[] chars = new char[128];
+
+    // Size of the buffer used for console output
+    private static final int CONSOLE_BUFFER_SIZE = 64 * 1024;
+
+    // Constructor writes to the given Writer
+    public PatronLineWriter(Writer out) {
+        this.out = out;
+    }
+
+    // Returns a writer to standard output (flush it when done; do not close it)
+    public static PatronLineWriter toConsole() {
+        return new PatronLineWriter(new BufferedWriter(new OutputStreamWriter(System.out), CONSOLE_BUFFER_SIZE));
+    }
+
+    // Writes a patron in the same format as Patron.toString()
+    public void writeDisplay(Patron p) throws IOException {
+        line.setLength(0);
+        line.append("Patron ID: ").append(p.getPatronId())
+                .append(", Name: ").append(p.getName())
+                .append(", Address: ").append(p.getAddress())
+                .append(", Overdue Fine: $").append(p.getOverdueFine())
+                .append(System.lineSeparator());
+        writeBuffered();
+    }
+
+    // Writes a patron in the same format as PatronManager.toFileLine() (a data file line)
+    public void writeCsv(Patron p) throws IOException {
+        line.setLength(0);
+        line.append(p.getPatronId()).append(',');
+        appendSafeField(p.getName());
+        line.append(',');
+        appendSafeField(p.getAddress());
+        line.append(',').append(p.getOverdueFine())
+                .append(System.lineSeparator());
+        writeBuffered();
+    }
+
+    // Writes any other text line (headers, separators)
+    public void writeLine(String text) throws IOException {
+        out.write(text);
+        out.write(System.lineSeparator());
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    // ===== Helpers =====
+
+    // Copies the formatted line into the reused char buffer and writes it
+    private void writeBuffered() throws IOException {
+        int length = line.length();
+        if (chars.length < length) {
+            chars = new char[Math.max(length, chars.length * 2)];
+        }
+        line.getChars(0, length, chars, 0);
+        out.write(chars, 0, length);
+    }
+
+    // Same cleanup as PatronManager.safeField, without building new Strings
+    private void appendSafeField(String value) {
+        if (value == null) return;
+
+        int start = 0;
+        int end = value.length();
+        while (start < end && isSpaceAfterCleanup(value.charAt(start))) start++;
+        while (end > start && isSpaceAfterCleanup(value.charAt(end - 1))) end--;
+
+        for (int i = start; i < end; i++) {
+            char c = value.charAt(i);
+            line.append(c == ',' || c == '\n' || c == '\r' ? ' ' : c);
+        }
+    }
+
+    // String.trim() removes chars up to ' ', and commas and line breaks become spaces before it
+    private static boolean isSpaceAfterCleanup(char c) {
+        return c <= ' ' || c == ',';
+    }
+}
@@ -0,0 +1,21 @@
+/**
+ * PatronListener is notified when a Patron's name, address or overdue fine
+ * is changed through its setters.
+ *
+ * PatronManager registers itself on the patrons it holds so that storage and
+ * indexes that keep their own copy of those values stay up to date.
+ */
+
+
+public interface PatronListener {
+
+    /**
+     * Called after a setter changed the patron.
+     *
+     * @param patron the patron (already holding the new values)
+     * @param oldName name before the change
+     * @param oldAddress address before the change
+     * @param oldFine overdue fine before the change
+     */
+    void patronChanged(Patron patron, String oldName, String oldAddress, double oldFine);
+}
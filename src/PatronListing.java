@@ -0,0 +1,116 @@
+/**
+ * PatronListing is a sorted copy of the roster that can be written out page
+ * by page, for browsing large rosters without printing every patron.
+ * Pages are written through a PatronLineWriter.
+ *
+ * The copy is taken once; later changes to the roster are not seen.
+ */
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+public class PatronListing {
+
+    /**
+     * Order of the listed patrons.
+     */
+    public enum SortKey {
+        ADDED,      // Order the patrons were added in (same as the data file)
+        ID,         // Patron ID, lowest first
+        NAME,       // Name (ignoring case), then ID
+        FINE        // Overdue fine, highest first, then ID
+    }
+
+    private final Patron[] patrons;
+    private final SortKey sortKey;
+
+    /**
+     * Copies and sorts the patrons.
+     *
+     * @param allPatrons patrons to list
+     * @param sortKey order to list them in
+     */
+    public PatronListing(Iterable<Patron> allPatrons, SortKey sortKey) {
+        ArrayList<Patron> copy = new ArrayList<>();
+        for (Patron p : allPatrons) {
+            copy.add(p);
+        }
+        this.patrons = copy.toArray(new Patron[0]);
+        this.sortKey = sortKey;
+        sort();
+    }
+
+    // Returns the number of patrons in the listing
+    public int size() {
+        return patrons.length;
+    }
+
+    // Returns the number of pages of the given size (at least 1)
+    public int getPageCount(int pageSize) {
+        if (pageSize <= 0) return 1;
+        return Math.max(1, (patrons.length + pageSize - 1) / pageSize);
+    }
+
+    /**
+     * Writes one page of patrons, in the same format as Patron.toString().
+     *
+     * @param out where to write (not flushed here)
+     * @param offset number of patrons to skip
+     * @param limit maximum number of patrons to write
+     * @return number of patrons written
+     * @throws IOException if writing fails
+     */
+    public int write(PatronLineWriter out, int offset, int limit) throws IOException {
+        int start = Math.max(0, offset);
+        int end = (int) Math.min(patrons.length, (long) start + Math.max(0, limit));
+
+        for (int i = start; i < end; i++) {
+            out.writeDisplay(patrons[i]);
+        }
+        return Math.max(0, end - start);
+    }
+
+    // ===== Helpers =====
+
+    /**
+     * Sorts the copy. Names and fines can change while sorting (another desk may
+     * edit a patron), so they are read once into rows and the rows are sorted.
+     */
+    private void sort() {
+        if (sortKey == SortKey.ADDED) return;
+        if (sortKey == SortKey.ID) {
+            Arrays.parallelSort(patrons, Comparator.comparingInt(Patron::getPatronId));
+            return;
+        }
+
+        Row[] rows = new Row[patrons.length];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = new Row(patrons[i]);
+        }
+
+        Comparator<Row> order = sortKey == SortKey.NAME
+                ? Comparator.comparing((Row r) -> r.name, String.CASE_INSENSITIVE_ORDER)
+                : Comparator.comparingDouble((Row r) -> r.fine).reversed();
+        Arrays.parallelSort(rows, order.thenComparingInt(r -> r.patron.getPatronId()));
+
+        for (int i = 0; i < rows.length; i++) {
+            patrons[i] = rows[i].patron;
+        }
+    }
+
+    // A patron with its sort keys read once
+    private static class Row {
+        final Patron patron;
+        final String name;
+        final double fine;
+
+        Row(Patron patron) {
+            this.patron = patron;
+            this.name = patron.getName();
+            this.fine = patron.getOverdueFine();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ * PatronLoadClient is a small load generator for PatronServer.
+ *
+ * It opens many connections at once and sends FIND commands for random patron
+ * IDs as fast as the server answers, then prints the throughput and the average
+ * round-trip time. Use it to check how many desk clients one server can handle.
+ *
+ * Usage:
+ *      java PatronLoadClient [host] [port] [clients] [seconds]
+ */
+
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class PatronLoadClient {
+
+    public static void main(String[] args) throws InterruptedException {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 7070;
+        int clients = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+
+        AtomicLong requests = new AtomicLong();
+        AtomicLong totalNanos = new AtomicLong();
+        AtomicInteger failedClients = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(clients);
+        long endTime = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+
+        ExecutorService pool = newClientExecutor();
+        for (int i = 0; i < clients; i++) {
+            final long seed = i;
+            pool.execute(() -> {
+                try {
+                    runClient(host, port, seed, endTime, requests, totalNanos);
+                } catch (IOException e) {
+                    failedClients.incrementAndGet();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        pool.shutdown();
+
+        long count = requests.get();
+        System.out.println("Clients: " + clients + " (" + failedClients.get() + " failed)");
+        System.out.println("Requests: " + count);
+        System.out.println("Throughput: " + (count / Math.max(1, seconds)) + " requests/s");
+        if (count > 0) {
+            System.out.printf("Average round trip: %.3f ms%n", totalNanos.get() / (double) count / 1_000_000);
+        }
+    }
+
+    // Sends FIND commands on one connection until the end time
+    private static void runClient(String host, int port, long seed, long endTime,
+                                  AtomicLong requests, AtomicLong totalNanos) throws IOException {
+        Random random = new Random(seed);
+
+        try (Socket socket = new Socket(host, port);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+
+            while (System.nanoTime() < endTime) {
+                int patronId = 1_000_000 + random.nextInt(9_000_000);
+                long start = System.nanoTime();
+
+                out.write("FIND " + patronId + "\n");
+                out.flush();
+                if (in.readLine() == null) break;
+
+                totalNanos.addAndGet(System.nanoTime() - start);
+                requests.incrementAndGet();
+            }
+
+            out.write("QUIT\n");
+            out.flush();
+        }
+    }
+
+    // Virtual threads on Java 21 and later, platform threads otherwise (see PatronServer)
+    private static ExecutorService newClientExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+}
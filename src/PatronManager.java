@@ -2,83 +2,297 @@
  * PatronManager class is responsible for managing Patron objects in memory
  * and synchronizing patron data with a text file
  *
+ * PatronManager is thread-safe when it is given a ConcurrentPatronStore.
+ *
  * Features:
  *  - Add, remove, search, and display patrons
+ *  - List patrons page by page, sorted by ID, name or fine
+ *  - Search patrons by part of their name or address
  *  - Load patron data from a CSV-formatted text file
- *  - Save patron data to a file (append or overwrite)
+ *  - Save patron data to a file (append, or overwrite through a temp file and rename)
+ *  - Count calls, time them and track bytes and skipped rows (see getStats)
  */
 
 
-import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
 
 public class PatronManager {
 
-    // Stores all patrons currently loaded in memory
-    private final ArrayList<Patron> patrons;
+    // Size of the byte blocks read by loadFromFile
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    // Size of the buffer used by saveAllToFile
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    // Outcome of loading a single line
+    private static final int LINE_LOADED = 0;
+    private static final int LINE_SKIPPED = 1;
+    private static final int LINE_IGNORED = 2;
+
+    // Stores all patrons currently loaded in memory, in the order they were added
+    private final PatronStore store;
+
+    // Name and address search index (built on the first search, then kept up to date)
+    // (striped, so changes on several threads update it in parallel; see updateSearchIndex)
+    private volatile ConcurrentPatronSearchIndex searchIndex = null;
+
+    // Index being filled by a rebuild (changes go to it too, so none is missed), or null
+    private volatile ConcurrentPatronSearchIndex pendingSearchIndex = null;
+
+    // Held while the search index is rebuilt or dropped (changes and searches never take it)
+    private final Object searchLock = new Object();
+
+    // Fine index and running fine totals (built on the first fine query, then kept up to date)
+    // (volatile and updated under fineLock, like the search index)
+    private volatile PatronFineIndex fineIndex = null;
+    private final Object fineLock = new Object();
 
-    // Constructor initializes the patron list
+    // Writes setter changes back to the store and indexes
+    private final PatronListener changeListener = this::onPatronChanged;
+
+    // Held while a CSV save writes its temp file
+    private final Object saveLock = new Object();
+
+    // Record file loaded last, kept open to save changed patrons in place (null if none)
+    private volatile PatronRecordFile recordFile = null;
+
+    // Files kept open by appendPatronToFile (by absolute path), and when they are forced to disk
+    private final HashMap<String, GroupCommitWriter> appendWriters = new HashMap<>();
+    private volatile GroupCommitWriter.SyncPolicy syncPolicy = GroupCommitWriter.SyncPolicy.NONE;
+
+    // Call counts, latencies, bytes and skipped rows of this manager
+    private final PatronStats stats = new PatronStats();
+
+    // Constructor uses the default store (one Patron object per patron)
     public PatronManager() {
-        this.patrons = new ArrayList<>();
+        this(new ObjectPatronStore());
+    }
+
+    // Constructor uses the given store (for example a ColumnarPatronStore for very large rosters)
+    public PatronManager(PatronStore store) {
+        this.store = store;
     }
 
-    // Returns the list of all patrons
+    /**
+     * Returns a copy of all patrons in the order they were added.
+     * Changes to the returned list do not affect the manager.
+     */
     public ArrayList<Patron> getAllPatrons() {
-        return patrons;
+        ArrayList<Patron> copy = new ArrayList<>(store.size());
+        for (Patron p : store) {
+            p.setListener(changeListener);
+            copy.add(p);
+        }
+        return copy;
+    }
+
+    // Returns the number of patrons currently stored in memory
+    public int getPatronCount() {
+        return store.size();
+    }
+
+    // Returns the statistics of this manager (also readable over JMX once registered)
+    public PatronStats getStats() {
+        return stats;
     }
 
     // Searches for a patron using their unique patron ID
     public Patron findPatronById(int patronId) {
-        for (Patron p : patrons) {
-            if (p.getPatronId() == patronId) {
-                return p;
-            }
+        long start = System.nanoTime();
+        Patron p = store.get(patronId);
+        if (p != null) {
+            p.setListener(changeListener);
         }
-        return null;
+        stats.record(PatronStats.Operation.FIND, start);
+        return p;
     }
 
     // Checks if a patron ID already exists
     public boolean isDuplicateId(int patronId) {
-        return findPatronById(patronId) != null;
+        return store.contains(patronId);
     }
 
     // Adds a new patron to memory if the ID is valid and unique
     public boolean addPatron(Patron patron) {
         if (patron == null) return false;
 
-        int id = patron.getPatronId();
-        if (isDuplicateId(id)) return false;
+        long start = System.nanoTime();
+        boolean added = insert(patron);
+        stats.record(PatronStats.Operation.ADD, start);
+        return added;
+    }
+
+    // Adds a patron without timing it (loads count as one LOAD, not one ADD per row)
+    private boolean insert(Patron patron) {
+        if (!store.add(patron)) return false;
+        patron.setListener(changeListener);
+        markDirty(patron.getPatronId());
 
-        patrons.add(patron);
+        updateSearchIndex(index -> index.add(patron.getPatronId(), patron.getName(), patron.getAddress()));
+        syncFineIndex(patron.getPatronId());
         return true;
     }
 
     // Removes a patron from memory using their patron ID
     public boolean removePatronById(int patronId) {
-        Patron p = findPatronById(patronId);
-        if (p == null) return false;
+        long start = System.nanoTime();
+        boolean removed = delete(patronId);
+        stats.record(PatronStats.Operation.REMOVE, start);
+        return removed;
+    }
+
+    // Removes a patron without timing it (see insert)
+    private boolean delete(int patronId) {
+        Patron removed = store.remove(patronId);
+        if (removed == null) return false;
+
+        removed.setListener(null);
+        markDirty(patronId);
 
-        patrons.remove(p);
+        updateSearchIndex(index -> index.remove(patronId, removed.getName(), removed.getAddress()));
+        syncFineIndex(patronId);
         return true;
     }
 
+    /**
+     * Finds patrons by part of their name or address (case-insensitive).
+     * The search index is built on the first call and kept up to date afterwards.
+     *
+     * @param query text to look for
+     * @param prefixOnly true to match only the start of a word, false to match anywhere
+     * @param limit maximum number of patrons to return
+     * @return matching patrons, at most limit of them
+     */
+    public ArrayList<Patron> searchPatrons(String query, boolean prefixOnly, int limit) {
+        long start = System.nanoTime();
+        ConcurrentPatronSearchIndex index = searchIndex;
+        if (index == null || index.needsRebuild()) {
+            index = rebuildSearchIndex();
+        }
+        ArrayList<Patron> results = index.search(query, prefixOnly, limit, store::get, store);
+        for (Patron p : results) {
+            p.setListener(changeListener);
+        }
+        stats.record(PatronStats.Operation.SEARCH, start);
+        return results;
+    }
+
+    /**
+     * Finds patrons whose overdue fine is between minFine and maxFine (inclusive),
+     * lowest fine first. The fine index is built on the first fine query and kept
+     * up to date afterwards, so only the matching patrons are looked at.
+     *
+     * @param minFine lowest fine to include
+     * @param maxFine highest fine to include
+     * @return matching patrons
+     */
+    public ArrayList<Patron> findPatronsByFine(double minFine, double maxFine) {
+        long start = System.nanoTime();
+        int[] ids;
+        synchronized (fineLock) {
+            ids = fineIndex().findRange(PatronSnapshot.toCents(minFine), PatronSnapshot.toCents(maxFine));
+        }
+        ArrayList<Patron> results = patronsFor(ids);
+        stats.record(PatronStats.Operation.FINE_QUERY, start);
+        return results;
+    }
+
+    // Finds patrons owing more than the given amount, lowest fine first
+    public ArrayList<Patron> findPatronsOwingMoreThan(double amount) {
+        return findPatronsByFine((PatronSnapshot.toCents(amount) + 1) / 100.0, Double.MAX_VALUE);
+    }
+
+    /**
+     * Finds the patrons with the highest overdue fines (patrons who owe nothing are left out).
+     *
+     * @param count maximum number of patrons to return
+     * @return patrons, highest fine first
+     */
+    public ArrayList<Patron> findTopDebtors(int count) {
+        long start = System.nanoTime();
+        int[] ids;
+        synchronized (fineLock) {
+            ids = fineIndex().findTop(count);
+        }
+        ArrayList<Patron> results = patronsFor(ids);
+        stats.record(PatronStats.Operation.FINE_QUERY, start);
+        return results;
+    }
+
+    // Checks if the fine index exists yet (fine queries build it first, which reads every patron)
+    public boolean hasFineIndex() {
+        return fineIndex != null;
+    }
+
+    // Returns the total of all overdue fines
+    public double getTotalFines() {
+        synchronized (fineLock) {
+            return fineIndex().getTotalCents() / 100.0;
+        }
+    }
+
+    // Returns the number of patrons with an overdue fine above 0
+    public int getPatronsOwingCount() {
+        synchronized (fineLock) {
+            return fineIndex().getOwingCount();
+        }
+    }
+
+    /**
+     * Returns the number of patrons per whole dollar of fine: entry d counts
+     * fines from $d.00 to $d.99 (the last entry counts fines of exactly $250).
+     */
+    public int[] getFineHistogram() {
+        synchronized (fineLock) {
+            return fineIndex().getDollarHistogram();
+        }
+    }
+
     //Dispaly all patrons currently stored in file
     public void displayAllPatrons() {
-        if (patrons.isEmpty()) {
+        if (getPatronCount() == 0) {
             System.out.println("No patrons found.");
             return;
         }
 
-        System.out.println("----- Patron List -----");
-        for (Patron p : patrons) {
-            System.out.println(p);
+        // One large buffered write to the console instead of a flush per patron
+        PatronLineWriter out = PatronLineWriter.toConsole();
+        try {
+            out.writeLine("----- Patron List -----");
+            for (Patron p : store) {
+                out.writeDisplay(p);
+            }
+            out.writeLine("-----------------------");
+            out.flush();
+
+        } catch (IOException e) {
+            System.out.println("Error displaying patrons: " + e.getMessage());
         }
-        System.out.println("-----------------------");
+    }
+
+    /**
+     * Returns a sorted copy of all patrons that can be shown page by page.
+     *
+     * @param sortKey order of the listing
+     * @return listing of the patrons in memory now
+     */
+    public PatronListing listPatrons(PatronListing.SortKey sortKey) {
+        return new PatronListing(store, sortKey);
     }
 
     /**
@@ -88,79 +302,357 @@ public class PatronManager {
      * patronId,name,address,overdueFine
      *
      * Header row is allowed and will be skipped if present.
+     * Binary snapshot files (see PatronSnapshot) are detected and loaded directly.
+     * Record files (see PatronRecordFile) are loaded and kept open, so later
+     * changes can be saved in place with saveDirtyRecords. Compressed block
+     * files (see PatronBlockFile) are decompressed on all cores. Kiosk lookup
+     * files (see MappedPatronStore) are read in ID order.
+     *
+     * The file is read in large byte blocks and each line is parsed in place by
+     * PatronLineParser (no split, no Strings for the numeric columns), and duplicate
+     * IDs are detected through the ID index, so loading is linear in the file size.
      *
      * @param fileName name of the file to load from
      */
     public void loadFromFile(String fileName) {
+        if (PatronSnapshot.isSnapshot(fileName)) {
+            loadFromSnapshot(fileName);
+            return;
+        }
+        if (PatronRecordFile.isRecordFile(fileName)) {
+            loadFromRecordFile(fileName);
+            return;
+        }
+        if (PatronBlockFile.isBlockFile(fileName)) {
+            loadFromBlockFile(fileName);
+            return;
+        }
+        if (MappedPatronStore.isLookupFile(fileName)) {
+            loadFromLookupFile(fileName);
+            return;
+        }
+        if (store instanceof LazyPatronStore) {
+            loadIndexOnly(fileName);
+            return;
+        }
+
+        long startTime = System.nanoTime();
+        long bytesRead = 0;
         int loadedCount = 0;
         int skippedCount = 0;
 
-        try (BufferedReader br = new BufferedReader(new FileReader(fileName))) {
-            String line;
-            int lineNumber = 0;
+        PatronLineParser parser = new PatronLineParser();
+
+        try (InputStream in = new FileInputStream(fileName)) {
+            byte[] buf = new byte[READ_BUFFER_SIZE];
+            int filled = 0;         // Bytes currently in buf
+            boolean firstLine = true;
+            boolean endOfFile = false;
+
+            while (!endOfFile) {
+                int n = in.read(buf, filled, buf.length - filled);
+                if (n < 0) {
+                    endOfFile = true;
+                } else {
+                    filled += n;
+                    bytesRead += n;
+                }
+
+                // Parse every complete line in the buffer (and the last line at end of file)
+                int lineStart = 0;
+                for (int i = 0; i < filled; i++) {
+                    byte c = buf[i];
+                    if (c != '\n' && c != '\r') continue;
 
-            while ((line = br.readLine()) != null) {
-                lineNumber++;
-                line = line.trim();
+                    int result = loadLine(parser, buf, lineStart, i, firstLine);
+                    if (result == LINE_LOADED) loadedCount++;
+                    else if (result == LINE_SKIPPED) skippedCount++;
 
-                if (line.isEmpty()) continue;
+                    firstLine = false;
+                    lineStart = i + 1;
+                }
 
-                // Skip header if first line is not numeric
-                if (lineNumber == 1 && looksLikeHeader(line)) {
-                    continue;
+                if (endOfFile) {
+                    if (lineStart < filled) {
+                        int result = loadLine(parser, buf, lineStart, filled, firstLine);
+                        if (result == LINE_LOADED) loadedCount++;
+                        else if (result == LINE_SKIPPED) skippedCount++;
+                    }
+                    break;
                 }
 
-                String[] parts = line.split(",", -1);
-                if (parts.length != 4) {
-                    skippedCount++;
-                    continue;
+                // Move the unfinished line to the front (grow the buffer for very long lines)
+                int remaining = filled - lineStart;
+                if (lineStart == 0 && remaining == buf.length) {
+                    buf = Arrays.copyOf(buf, buf.length * 2);
+                } else {
+                    System.arraycopy(buf, lineStart, buf, 0, remaining);
                 }
+                filled = remaining;
+            }
 
-                String idStr = parts[0].trim();
-                String name = parts[1].trim();
-                String address = parts[2].trim();
-                String fineStr = parts[3].trim();
+        } catch (IOException e) {
+            System.out.println("Error loading file: " + e.getMessage());
+            return;
+        } finally {
+            stats.addBytesRead(bytesRead);
+        }
 
-                try {
-                    int patronId = Integer.parseInt(idStr);
-                    double fine = Double.parseDouble(fineStr);
+        stats.record(PatronStats.Operation.LOAD, startTime);
+        long elapsedMillis = (System.nanoTime() - startTime) / 1_000_000;
+        System.out.println("Loaded patrons: " + loadedCount);
+        System.out.println("Skipped rows: " + skippedCount);
+        System.out.println("Load time: " + elapsedMillis + " ms");
+    }
 
-                    // Validate patron ID and fine amount
-                    if (!Patron.isValidPatronId(patronId) || !Patron.isValidFine(fine)) {
-                        skippedCount++;
-                        continue;
-                    }
+    /**
+     * Loads only the lines appended to a data file since an earlier load, like
+     * loadFromFile would load them (invalid rows and duplicate IDs are skipped).
+     * A last line without a line break is left alone, since the program
+     * appending it may not have finished writing it.
+     *
+     * @param fileName data file to read
+     * @param offset byte offset up to which the file was already loaded
+     * @return offset just past the last line loaded (pass it to the next call)
+     */
+    public long loadAppended(String fileName, long offset) {
+        long startTime = System.nanoTime();
+        long consumed = offset;
+        PatronLineParser parser = new PatronLineParser();
 
-                    // Prevent duplicate patron IDs
-                    if (isDuplicateId(patronId)) {
-                        skippedCount++;
-                        continue;
-                    }
+        try (InputStream in = new FileInputStream(fileName)) {
+            long skipped = in.skip(offset);
+            if (skipped < offset) return offset;   // File is shorter than the offset
 
-                    Patron patron = new Patron(patronId, name, address, fine);
-                    patrons.add(patron);
-                    loadedCount++;
+            byte[] buf = new byte[READ_BUFFER_SIZE];
+            int filled = 0;
+            boolean firstLine = offset == 0;
+            int n;
 
-                    //Skip rows with invalid numeric values or constructor errors
-                } catch (NumberFormatException ex) {
-                    skippedCount++;
-                } catch (IllegalArgumentException ex) {
-                    skippedCount++;
+            while ((n = in.read(buf, filled, buf.length - filled)) >= 0) {
+                filled += n;
+                stats.addBytesRead(n);
+
+                int lineStart = 0;
+                for (int i = 0; i < filled; i++) {
+                    byte c = buf[i];
+                    if (c != '\n' && c != '\r') continue;
+
+                    loadLine(parser, buf, lineStart, i, firstLine);
+                    firstLine = false;
+                    lineStart = i + 1;
                 }
+                consumed += lineStart;
+
+                int remaining = filled - lineStart;
+                if (lineStart == 0 && remaining == buf.length) {
+                    buf = Arrays.copyOf(buf, buf.length * 2);
+                } else {
+                    System.arraycopy(buf, lineStart, buf, 0, remaining);
+                }
+                filled = remaining;
+            }
+
+        } catch (IOException e) {
+            System.out.println("Error loading file: " + e.getMessage());
+        }
+
+        stats.record(PatronStats.Operation.LOAD, startTime);
+        return consumed;
+    }
+
+    /**
+     * Writes unsaved changes to the store's own files (only a ShardedPatronStore has any).
+     *
+     * @return true if saved (or nothing to save), false otherwise
+     */
+    public boolean flushStore() {
+        return store.flush();
+    }
+
+    /**
+     * Saves the patrons changed since the last call to the open record file,
+     * one fixed-size record each, written at that patron's offset.
+     *
+     * @return true if saved (or no record file is open), false otherwise
+     */
+    public boolean saveDirtyRecords() {
+        PatronRecordFile file = recordFile;
+        if (file == null) return true;
+
+        long start = System.nanoTime();
+        try {
+            int written = file.writeDirty(store::get);
+            stats.addBytesWritten((long) written * PatronRecordFile.SLOT_SIZE);
+
+        } catch (IOException e) {
+            System.out.println("Error saving changed records: " + e.getMessage());
+            return false;
+        }
+        stats.record(PatronStats.Operation.SAVE, start);
+        return true;
+    }
+
+    // Returns the open record file's name, or null if the last file loaded was not a record file
+    public String getRecordFileName() {
+        PatronRecordFile file = recordFile;
+        return file == null ? null : file.getFileName();
+    }
+
+    /**
+     * Saves pending changes to the open record file and closes it.
+     *
+     * @return true if saved (or no record file is open), false otherwise
+     */
+    public boolean closeRecordFile() {
+        PatronRecordFile file = recordFile;
+        if (file == null) return true;
+
+        boolean saved = saveDirtyRecords();
+        recordFile = null;
+        try {
+            file.close();
+        } catch (IOException e) {
+            System.out.println("Error closing record file: " + e.getMessage());
+            return false;
+        }
+        return saved;
+    }
+
+    /**
+     * Removes every patron from memory (for example before loading a file again).
+     */
+    public void clearPatrons() {
+        for (Patron p : store) {
+            p.setListener(null);
+        }
+        store.clear();
+        synchronized (searchLock) {
+            searchIndex = null;
+        }
+        synchronized (fineLock) {
+            fineIndex = null;
+        }
+    }
+
+    /**
+     * Makes the roster the same as another manager's (for example a file loaded
+     * again into a separate manager): patrons it does not have are removed, new
+     * ones are added and changed ones updated. Unlike clearPatrons followed by a
+     * load, the roster is never empty or half loaded in between, so other
+     * threads keep finding every patron that is in both.
+     *
+     * @param loaded manager holding the new roster (not changed)
+     * @return number of patrons added, updated or removed
+     */
+    public int replacePatrons(PatronManager loaded) {
+        int changed = 0;
+
+        ArrayList<Integer> gone = new ArrayList<>();
+        for (Patron p : store) {
+            if (!loaded.store.contains(p.getPatronId())) gone.add(p.getPatronId());
+        }
+        for (int patronId : gone) {
+            if (delete(patronId)) changed++;
+        }
+
+        for (Patron p : loaded.store) {
+            Patron current = store.get(p.getPatronId());
+            if (current == null) {
+                if (insert(new Patron(p.getPatronId(), p.getName(), p.getAddress(), p.getOverdueFine()))) changed++;
+                continue;
             }
 
+            boolean same = current.getName().equals(p.getName())
+                    && current.getAddress().equals(p.getAddress())
+                    && current.getOverdueFine() == p.getOverdueFine();
+            if (same) continue;
+
+            // The setters write the change back to the store and indexes
+            current.setListener(changeListener);
+            current.setName(p.getName());
+            current.setAddress(p.getAddress());
+            current.setOverdueFine(p.getOverdueFine());
+            changed++;
+        }
+        return changed;
+    }
+
+    /**
+     * Loads patron data like loadFromFile, but parses the file on all cores.
+     *
+     * The file is memory-mapped and split into chunks on line boundaries that are
+     * parsed in parallel by ParallelPatronLoader. The parsed chunks are then added
+     * in file order, so the first occurrence of a duplicate ID wins and the
+     * loaded/skipped counts are the same as with loadFromFile.
+     * Binary snapshot files are loaded like in loadFromFile.
+     *
+     * @param fileName name of the file to load from
+     */
+    public void loadFromFileParallel(String fileName) {
+        if (PatronSnapshot.isSnapshot(fileName)) {
+            loadFromSnapshot(fileName);
+            return;
+        }
+        if (PatronRecordFile.isRecordFile(fileName)) {
+            loadFromRecordFile(fileName);
+            return;
+        }
+        if (PatronBlockFile.isBlockFile(fileName)) {
+            loadFromBlockFile(fileName);
+            return;
+        }
+        if (MappedPatronStore.isLookupFile(fileName)) {
+            loadFromLookupFile(fileName);
+            return;
+        }
+        if (store instanceof LazyPatronStore) {
+            loadIndexOnly(fileName);
+            return;
+        }
+
+        long startTime = System.nanoTime();
+        int loadedCount = 0;
+        int skippedCount = 0;
+
+        ArrayList<ParallelPatronLoader.Chunk> chunks;
+        try {
+            chunks = ParallelPatronLoader.parse(fileName);
         } catch (IOException e) {
             System.out.println("Error loading file: " + e.getMessage());
             return;
         }
 
+        // Merge the chunks in file order (first occurrence of an ID wins)
+        int duplicateCount = 0;
+        for (ParallelPatronLoader.Chunk chunk : chunks) {
+            skippedCount += chunk.getSkippedCount();
+            for (int result = PatronLineParser.BAD_FORMAT; result <= PatronLineParser.EMPTY_TEXT; result++) {
+                stats.addSkipped(PatronStats.SkipReason.forParserResult(result), chunk.getSkippedCount(result));
+            }
+            for (Patron p : chunk.getPatrons()) {
+                if (insert(p)) {
+                    loadedCount++;
+                } else {
+                    duplicateCount++;
+                }
+            }
+        }
+        skippedCount += duplicateCount;
+        stats.addSkipped(PatronStats.SkipReason.DUPLICATE, duplicateCount);
+        stats.addBytesRead(new File(fileName).length());
+        stats.record(PatronStats.Operation.LOAD, startTime);
+
+        long elapsedMillis = (System.nanoTime() - startTime) / 1_000_000;
         System.out.println("Loaded patrons: " + loadedCount);
         System.out.println("Skipped rows: " + skippedCount);
+        System.out.println("Load time: " + elapsedMillis + " ms (" + chunks.size() + " chunks in parallel)");
     }
 
     /**
      * Appends a single patron to the file (used to save immediately after add).
      * If the file is missing or empty, it will write a header first.
+     * Waits until the patron is written (see appendPatronToFileAsync).
      *
      * @param fileName file to write to
      * @param patron Patron object to save
@@ -169,53 +661,589 @@ public class PatronManager {
     public boolean appendPatronToFile(String fileName, Patron patron) {
         if (fileName == null || fileName.trim().isEmpty() || patron == null) return false;
 
-        File file = new File(fileName);
-
+        long start = System.nanoTime();
         try {
-            boolean writeHeader = !file.exists() || file.length() == 0;
-
-            try (PrintWriter out = new PrintWriter(new FileWriter(file, true))) {
-                if (writeHeader) {
-                    out.println("patronId,name,address,overdueFine");
-                }
+            appendPatronToFileAsync(fileName, patron).join();
+            stats.record(PatronStats.Operation.APPEND, start);
+            return true;
 
-                out.println(toFileLine(patron));
-            }
+        } catch (CompletionException e) {
+            System.out.println("Error saving patron to file: " + e.getCause().getMessage());
+            return false;
+        }
+    }
 
-            return true;
+    /**
+     * Queues a single patron to be appended to the file and returns right away.
+     * The file is kept open between calls, and patrons queued at about the same
+     * time (for example by several server clients) are written together.
+     *
+     * @param fileName file to write to
+     * @param patron Patron object to save
+     * @return future completed when the patron is written (forced to disk depending
+     *         on the sync policy), or completed exceptionally if it could not be saved
+     */
+    public CompletableFuture<Void> appendPatronToFileAsync(String fileName, Patron patron) {
+        if (fileName == null || fileName.trim().isEmpty() || patron == null) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("File name and patron are required."));
+        }
 
+        try {
+            byte[] line = (toFileLine(patron) + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+            return writerFor(fileName).appendBytes(line);
         } catch (IOException e) {
-            System.out.println("Error saving patron to file: " + e.getMessage());
-            return false;
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    // Sets when appended patrons are forced to disk (applies to files opened after this call)
+    public void setSyncPolicy(GroupCommitWriter.SyncPolicy syncPolicy) {
+        this.syncPolicy = syncPolicy;
+    }
+
+    /**
+     * Writes every queued patron and closes the files kept open by appendPatronToFile.
+     * Call before the program exits.
+     */
+    public void closeWriters() {
+        ArrayList<GroupCommitWriter> open;
+        synchronized (appendWriters) {
+            open = new ArrayList<>(appendWriters.values());
+            appendWriters.clear();
+        }
+        for (GroupCommitWriter writer : open) {
+            writer.close();
         }
     }
 
     /**
      * Overwrites the entire file using the current in-memory list.
      * Use this after removals (and optionally after edits) so the file matches the list.
+     * The file is written under a temp name and then renamed over the old one,
+     * so a crash or a reader never sees it half written.
      *
      * @param fileName file to overwrite
      * @return true if saved successfully, false otherwise
      */
     public boolean saveAllToFile(String fileName) {
         if (fileName == null || fileName.trim().isEmpty()) return false;
+        closeWriter(fileName);
+        return writeAll(store, fileName);
+    }
 
-        try (PrintWriter out = new PrintWriter(new FileWriter(fileName, false))) {
-            out.println("patronId,name,address,overdueFine");
-            for (Patron p : patrons) {
-                out.println(toFileLine(p));
+    /**
+     * Saves all patrons like saveAllToFile, but writes the file on another
+     * thread and returns right away. The file holds the roster as it is at
+     * this call: with a PersistentPatronStore that is a snapshot that costs
+     * nothing to take, with other stores the list of patrons is copied first.
+     * Adds, removals and changes made meanwhile are not blocked.
+     *
+     * @param fileName file to overwrite
+     * @return future completed with true if saved successfully, false otherwise
+     */
+    public CompletableFuture<Boolean> saveAllToFileInBackground(String fileName) {
+        if (fileName == null || fileName.trim().isEmpty()) return CompletableFuture.completedFuture(false);
+        closeWriter(fileName);
+
+        Iterable<Patron> roster;
+        if (store instanceof PersistentPatronStore) {
+            roster = ((PersistentPatronStore) store).snapshot();
+        } else {
+            ArrayList<Patron> copy = new ArrayList<>(store.size());
+            for (Patron p : store) {
+                copy.add(p);
             }
-            return true;
+            roster = copy;
+        }
+        return CompletableFuture.supplyAsync(() -> writeAll(roster, fileName));
+    }
+
+    // Writes the patrons as a CSV file under a temp name, then renames it over fileName
+    // (one save at a time, so a background save and another save never share the temp file)
+    private boolean writeAll(Iterable<Patron> patrons, String fileName) {
+        synchronized (saveLock) {
+            return writeAllLocked(patrons, fileName);
+        }
+    }
+
+    private boolean writeAllLocked(Iterable<Patron> patrons, String fileName) {
+        long start = System.nanoTime();
+        File temp = tempFileFor(fileName);
+        try {
+            try (BufferedWriter file = new BufferedWriter(new FileWriter(temp, false), WRITE_BUFFER_SIZE)) {
+                PatronLineWriter out = new PatronLineWriter(file);
+                out.writeLine("patronId,name,address,overdueFine");
+                for (Patron p : patrons) {
+                    out.writeCsv(p);
+                }
+            }
+            replaceFile(temp, fileName);
 
         } catch (IOException e) {
             System.out.println("Error writing patrons to file: " + e.getMessage());
+            temp.delete();
+            return false;
+        }
+
+        stats.addBytesWritten(new File(fileName).length());
+        stats.record(PatronStats.Operation.SAVE, start);
+        return true;
+    }
+
+    /**
+     * Overwrites the file with a binary snapshot of the current in-memory list.
+     * Snapshots load much faster than CSV; use saveAllToFile to export CSV.
+     * Fines are stored in whole cents.
+     *
+     * @param fileName file to overwrite
+     * @return true if saved successfully, false otherwise
+     */
+    public boolean saveSnapshotToFile(String fileName) {
+        if (fileName == null || fileName.trim().isEmpty()) return false;
+        closeWriter(fileName);
+
+        long start = System.nanoTime();
+        File temp = tempFileFor(fileName);
+        try {
+            PatronSnapshot.write(temp.getPath(), store);
+            replaceFile(temp, fileName);
+
+        } catch (IOException e) {
+            System.out.println("Error writing snapshot file: " + e.getMessage());
+            temp.delete();
+            return false;
+        }
+
+        stats.addBytesWritten(new File(fileName).length());
+        stats.record(PatronStats.Operation.SNAPSHOT, start);
+        return true;
+    }
+
+    /**
+     * Overwrites the file with a fixed-width record file of the current in-memory
+     * list. Once loaded again, single changes are saved in place (see saveDirtyRecords).
+     *
+     * If it is the record file currently open, only the changed records are
+     * written instead: replacing the file would leave the open file pointing at
+     * the old copy, and later in-place saves would be lost.
+     *
+     * @param fileName file to overwrite
+     * @return true if saved successfully, false otherwise
+     */
+    public boolean saveRecordFile(String fileName) {
+        if (fileName == null || fileName.trim().isEmpty()) return false;
+        String openFile = getRecordFileName();
+        if (openFile != null && Paths.get(openFile).toAbsolutePath().normalize()
+                .equals(Paths.get(fileName).toAbsolutePath().normalize())) {
+            return saveDirtyRecords();
+        }
+        closeWriter(fileName);
+
+        long start = System.nanoTime();
+        try {
+            PatronRecordFile.write(fileName, store);
+
+        } catch (IOException e) {
+            System.out.println("Error writing record file: " + e.getMessage());
+            return false;
+        }
+
+        stats.addBytesWritten(new File(fileName).length());
+        stats.record(PatronStats.Operation.SAVE, start);
+        return true;
+    }
+
+    /**
+     * Overwrites the file with a compressed block file of the current in-memory
+     * list (sorted by ID, see PatronBlockFile).
+     *
+     * @param fileName file to overwrite
+     * @return true if saved successfully, false otherwise
+     */
+    public boolean saveBlockFile(String fileName) {
+        if (fileName == null || fileName.trim().isEmpty()) return false;
+        closeWriter(fileName);
+
+        long start = System.nanoTime();
+        try {
+            PatronBlockFile.write(fileName, store);
+
+        } catch (IOException e) {
+            System.out.println("Error writing block file: " + e.getMessage());
+            return false;
+        }
+
+        stats.addBytesWritten(new File(fileName).length());
+        stats.record(PatronStats.Operation.SAVE, start);
+        return true;
+    }
+
+    /**
+     * Overwrites the file with a lookup file of the current in-memory list:
+     * sorted by ID with a fixed-width index, for kiosks that open it with a
+     * MappedPatronStore instead of loading the roster.
+     *
+     * @param fileName file to overwrite
+     * @return true if saved successfully, false otherwise
+     */
+    public boolean saveLookupFile(String fileName) {
+        if (fileName == null || fileName.trim().isEmpty()) return false;
+        closeWriter(fileName);
+
+        try {
+            MappedPatronStore.write(fileName, store);
+
+        } catch (IOException e) {
+            System.out.println("Error writing lookup file: " + e.getMessage());
             return false;
         }
+
+        stats.addBytesWritten(new File(fileName).length());
+        return true;
     }
 
     // ===== Helpers =====
+
+    // Returns the open append writer of a file, opening it on first use
+    private GroupCommitWriter writerFor(String fileName) throws IOException {
+        String key = new File(fileName).getAbsolutePath();
+        synchronized (appendWriters) {
+            GroupCommitWriter writer = appendWriters.get(key);
+            if (writer == null) {
+                writer = new GroupCommitWriter(Paths.get(key), "patronId,name,address,overdueFine", syncPolicy, stats);
+                appendWriters.put(key, writer);
+            }
+            return writer;
+        }
+    }
+
+    // Flushes and closes the append writer of a file before the file is overwritten
+    private void closeWriter(String fileName) {
+        GroupCommitWriter writer;
+        synchronized (appendWriters) {
+            writer = appendWriters.remove(new File(fileName).getAbsolutePath());
+        }
+        if (writer != null) {
+            writer.close();
+        }
+    }
+
+    /**
+     * Loads a record file and keeps it open for in-place saves (any record file
+     * open before is saved and closed). Duplicates of IDs already in memory are skipped.
+     */
+    private void loadFromRecordFile(String fileName) {
+        closeRecordFile();
+
+        long startTime = System.nanoTime();
+        int loadedCount = 0;
+        int skippedCount = 0;
+
+        PatronRecordFile file;
+        try {
+            file = PatronRecordFile.open(fileName);
+            for (Patron p : file.readAll()) {
+                if (insert(p)) {
+                    loadedCount++;
+                } else {
+                    skippedCount++;
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Error loading file: " + e.getMessage());
+            return;
+        }
+        recordFile = file;      // Only now, so the loaded patrons are not marked dirty
+
+        stats.addSkipped(PatronStats.SkipReason.DUPLICATE, skippedCount);
+        stats.addBytesRead(new File(fileName).length());
+        stats.record(PatronStats.Operation.LOAD, startTime);
+
+        long elapsedMillis = (System.nanoTime() - startTime) / 1_000_000;
+        System.out.println("Loaded patrons: " + loadedCount);
+        System.out.println("Skipped rows: " + skippedCount);
+        System.out.println("Load time: " + elapsedMillis + " ms (record file)");
+    }
+
+    // Loads a compressed block file (duplicates of IDs already in memory are skipped)
+    private void loadFromBlockFile(String fileName) {
+        long startTime = System.nanoTime();
+        int loadedCount = 0;
+        int skippedCount = 0;
+
+        try (PatronBlockFile file = PatronBlockFile.open(fileName)) {
+            PatronBlockFile.Contents contents = file.readAll();
+            for (Patron p : contents.getPatrons()) {
+                if (insert(p)) {
+                    loadedCount++;
+                } else {
+                    skippedCount++;
+                }
+            }
+            stats.addSkipped(PatronStats.SkipReason.DUPLICATE, skippedCount);
+            stats.addSkipped(PatronStats.SkipReason.BAD_FORMAT, contents.getSkippedCount());
+            skippedCount += contents.getSkippedCount();
+            stats.addBytesRead(file.getBytesRead());
+
+        } catch (IOException e) {
+            System.out.println("Error loading file: " + e.getMessage());
+            return;
+        }
+
+        stats.record(PatronStats.Operation.LOAD, startTime);
+
+        long elapsedMillis = (System.nanoTime() - startTime) / 1_000_000;
+        System.out.println("Loaded patrons: " + loadedCount);
+        System.out.println("Skipped rows: " + skippedCount);
+        System.out.println("Load time: " + elapsedMillis + " ms (compressed block file)");
+    }
+
+    /**
+     * Indexes a CSV data file in a LazyPatronStore instead of loading it: rows
+     * are checked and skipped like in loadFromFile, but a patron is only parsed
+     * when it is first used.
+     */
+    private void loadIndexOnly(String fileName) {
+        long startTime = System.nanoTime();
+
+        LazyPatronStore.IndexResult result;
+        try {
+            result = ((LazyPatronStore) store).indexFile(fileName);
+        } catch (IOException e) {
+            System.out.println("Error loading file: " + e.getMessage());
+            return;
+        }
+
+        // Existing search and fine indexes do not have the new patrons
+        synchronized (searchLock) {
+            searchIndex = null;
+        }
+        synchronized (fineLock) {
+            fineIndex = null;
+        }
+
+        for (int reason = PatronLineParser.BAD_FORMAT; reason <= PatronLineParser.EMPTY_TEXT; reason++) {
+            stats.addSkipped(PatronStats.SkipReason.forParserResult(reason), result.getSkippedCount(reason));
+        }
+        stats.addSkipped(PatronStats.SkipReason.DUPLICATE, result.getDuplicateCount());
+        stats.addBytesRead(result.getBytesRead());
+        stats.record(PatronStats.Operation.LOAD, startTime);
+
+        long elapsedMillis = (System.nanoTime() - startTime) / 1_000_000;
+        System.out.println("Loaded patrons: " + result.getIndexedCount());
+        System.out.println("Skipped rows: " + result.getSkippedCount());
+        System.out.println("Load time: " + elapsedMillis + " ms (index only)");
+    }
+
+    // Loads a binary snapshot file (duplicates of IDs already in memory are skipped)
+    private void loadFromSnapshot(String fileName) {
+        long startTime = System.nanoTime();
+        int loadedCount = 0;
+        int skippedCount = 0;
+
+        try {
+            for (Patron p : PatronSnapshot.read(fileName)) {
+                if (insert(p)) {
+                    loadedCount++;
+                } else {
+                    skippedCount++;
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Error loading file: " + e.getMessage());
+            return;
+        }
+
+        stats.addSkipped(PatronStats.SkipReason.DUPLICATE, skippedCount);
+        stats.addBytesRead(new File(fileName).length());
+        stats.record(PatronStats.Operation.LOAD, startTime);
+
+        long elapsedMillis = (System.nanoTime() - startTime) / 1_000_000;
+        System.out.println("Loaded patrons: " + loadedCount);
+        System.out.println("Skipped rows: " + skippedCount);
+        System.out.println("Load time: " + elapsedMillis + " ms (binary snapshot)");
+    }
+
+    // Loads a kiosk lookup file (duplicates of IDs already in memory are skipped)
+    private void loadFromLookupFile(String fileName) {
+        long startTime = System.nanoTime();
+        int loadedCount = 0;
+        int skippedCount = 0;
+
+        try {
+            for (Patron p : new MappedPatronStore(fileName, 0)) {
+                if (insert(p)) {
+                    loadedCount++;
+                } else {
+                    skippedCount++;
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Error loading file: " + e.getMessage());
+            return;
+        }
+
+        stats.addSkipped(PatronStats.SkipReason.DUPLICATE, skippedCount);
+        stats.addBytesRead(new File(fileName).length());
+        stats.record(PatronStats.Operation.LOAD, startTime);
+
+        long elapsedMillis = (System.nanoTime() - startTime) / 1_000_000;
+        System.out.println("Loaded patrons: " + loadedCount);
+        System.out.println("Skipped rows: " + skippedCount);
+        System.out.println("Load time: " + elapsedMillis + " ms (lookup file)");
+    }
+
+    /**
+     * Parses one line and adds the patron if it is valid and its ID is new.
+     *
+     * @return LINE_LOADED, LINE_SKIPPED, or LINE_IGNORED (blank line or header)
+     */
+    private int loadLine(PatronLineParser parser, byte[] buf, int start, int end, boolean firstLine) {
+        int result = parser.parse(buf, start, end, firstLine);
+        if (result == PatronLineParser.BLANK || result == PatronLineParser.HEADER) {
+            return LINE_IGNORED;
+        }
+        if (result != PatronLineParser.OK) {
+            stats.addSkipped(PatronStats.SkipReason.forParserResult(result), 1);
+            return LINE_SKIPPED;
+        }
+
+        // Prevent duplicate patron IDs (checked before the name and address Strings are created)
+        if (isDuplicateId(parser.getPatronId())) {
+            stats.addSkipped(PatronStats.SkipReason.DUPLICATE, 1);
+            return LINE_SKIPPED;
+        }
+
+        insert(parser.toPatron());
+        return LINE_LOADED;
+    }
+
+    // Called after a setter changed a patron held by this manager
+    private void onPatronChanged(Patron patron, String oldName, String oldAddress, double oldFine) {
+        store.update(patron);
+        markDirty(patron.getPatronId());
+
+        updateSearchIndex(index -> index.update(patron.getPatronId(), oldName, oldAddress, patron.getName(), patron.getAddress()));
+        if (patron.getOverdueFine() != oldFine) {
+            syncFineIndex(patron.getPatronId());
+        }
+    }
+
+    /**
+     * Indexes every patron in memory from scratch, unless another thread just
+     * did, and returns the index to search.
+     *
+     * The new index is filled while searches keep using the old one. It is
+     * made visible to changes (as pendingSearchIndex) before the store is read,
+     * so a patron added on another thread is either in that read or added to
+     * the new index by updateSearchIndex. Searches check every candidate
+     * against the store, so a patron indexed twice or after its removal does
+     * no harm.
+     */
+    private ConcurrentPatronSearchIndex rebuildSearchIndex() {
+        synchronized (searchLock) {
+            ConcurrentPatronSearchIndex current = searchIndex;
+            if (current != null && !current.needsRebuild()) return current;
+
+            ConcurrentPatronSearchIndex index = new ConcurrentPatronSearchIndex();
+            pendingSearchIndex = index;
+            for (Patron p : store) {
+                index.add(p.getPatronId(), p.getName(), p.getAddress());
+            }
+            searchIndex = index;
+            pendingSearchIndex = null;
+            return index;
+        }
+    }
+
+    /**
+     * Applies one change to the search index and to an index being rebuilt.
+     * The pending index is read first: a rebuild publishes its index before it
+     * clears pendingSearchIndex, so a change never misses both.
+     */
+    private void updateSearchIndex(Consumer<ConcurrentPatronSearchIndex> change) {
+        ConcurrentPatronSearchIndex pending = pendingSearchIndex;
+        ConcurrentPatronSearchIndex index = searchIndex;
+        if (pending != null) change.accept(pending);
+        if (index != null && index != pending) change.accept(index);
+    }
+
+    /**
+     * Brings the fine index up to date for one patron after the store changed.
+     *
+     * The index entry is copied from the store (under fineLock) instead of
+     * replaying the change, so changes to the same ID made at the same time
+     * on several threads cannot be applied in the wrong order: whichever call
+     * runs last sees the store's final state.
+     */
+    private void syncFineIndex(int patronId) {
+        if (fineIndex == null) return;      // Not built yet: a later build reads the store
+
+        synchronized (fineLock) {
+            PatronFineIndex index = fineIndex;
+            if (index == null) return;      // Dropped meanwhile (clear or load)
+
+            Patron p = store.get(patronId);
+            if (p == null) {
+                index.remove(patronId);
+            } else {
+                index.put(patronId, PatronSnapshot.toCents(p.getOverdueFine()));
+            }
+        }
+    }
+
+    /**
+     * Returns the fine index, indexing every patron in memory first if there is
+     * none yet (caller holds fineLock). The index is published before the store
+     * is read, so a change made meanwhile is either seen by that read or synced
+     * by syncFineIndex once this build releases fineLock.
+     */
+    private PatronFineIndex fineIndex() {
+        PatronFineIndex index = fineIndex;
+        if (index == null) {
+            index = new PatronFineIndex();
+            fineIndex = index;
+            for (Patron p : store) {
+                index.put(p.getPatronId(), PatronSnapshot.toCents(p.getOverdueFine()));
+            }
+        }
+        return index;
+    }
+
+    // Looks up the patrons with the given IDs (patrons removed in the meantime are left out)
+    private ArrayList<Patron> patronsFor(int[] ids) {
+        ArrayList<Patron> patrons = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            Patron p = store.get(id);
+            if (p != null) {
+                p.setListener(changeListener);
+                patrons.add(p);
+            }
+        }
+        return patrons;
+    }
+
+    // Returns the temp file a save writes before it replaces fileName (same folder, so the rename stays on one disk)
+    private static File tempFileFor(String fileName) {
+        return new File(fileName + ".tmp");
+    }
+
+    // Renames the fully written temp file over fileName in one step, so readers and crashes never see half a file
+    private static void replaceFile(File temp, String fileName) throws IOException {
+        Files.move(temp.toPath(), Paths.get(fileName),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Marks a patron for the next saveDirtyRecords (only while a record file is open)
+    private void markDirty(int patronId) {
+        PatronRecordFile file = recordFile;
+        if (file != null) {
+            file.markDirty(patronId);
+        }
+    }
+
     // Converts a Patron object into a CSV-formatted string
-    private String toFileLine(Patron patron) {
+    static String toFileLine(Patron patron) {
         return patron.getPatronId() + "," +
                 safeField(patron.getName()) + "," +
                 safeField(patron.getAddress()) + "," +
@@ -223,25 +1251,8 @@ public class PatronManager {
     }
 
     // Cleans text fields to prevent CSV formatting issues.
-    private String safeField(String value) {
+    static String safeField(String value) {
         if (value == null) return "";
         return value.replace(",", " ").replace("\n", " ").replace("\r", " ").trim();
     }
-
-    /**
-     * Determines whether a line appears to be a header row
-     * @param line first line of the file
-     * @return true if header detected, false otherwise
-     */
-    private boolean looksLikeHeader(String line) {
-        String[] parts = line.split(",", -1);
-        if (parts.length == 0) return false;
-
-        try {
-            Integer.parseInt(parts[0].trim());
-            return false;
-        } catch (NumberFormatException e) {
-            return true;
-        }
-    }
 }
@@ -0,0 +1,430 @@
+/**
+ * PatronMergeImport merges several patron CSV files into one clean file
+ * sorted by patron ID, without holding the patrons in memory. It is meant for
+ * merged branch exports that are larger than the heap.
+ *
+ * It works as an external merge sort:
+ *  1. Every input is read in order. Valid rows are collected into a run of at
+ *     most runSize rows. A full run is sorted by patron ID and written to a
+ *     temp file.
+ *  2. The sorted runs are merged (at most MAX_MERGE_WIDTH at a time). When the
+ *     same ID appears more than once, the row that came first wins: the earlier
+ *     input, then the earlier line. The others are counted as duplicates of
+ *     their own input.
+ *
+ * Memory use depends only on runSize, not on the size of the inputs.
+ * Invalid rows are skipped with the same rules as loadFromFile.
+ *
+ * Usage:
+ *      java PatronMergeImport [--run-size N] output input1 [input2 ...]
+ */
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class PatronMergeImport {
+
+    // Default number of rows held in memory (about 100 bytes each)
+    public static final int DEFAULT_RUN_SIZE = 500_000;
+
+    // Most runs merged at once; more runs are merged in several passes
+    private static final int MAX_MERGE_WIDTH = 64;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // A row's order key is (input number << ROW_BITS) | row number, so smaller means earlier
+    private static final int ROW_BITS = 40;
+
+    private final int runSize;
+    private final File tempDir;
+
+    // Per input counts, filled by merge()
+    private String[] inputNames;
+    private long[] rowsRead;
+    private long[] rowsSkipped;
+    private long[] rowsDuplicate;
+    private long[] rowsWritten;
+    private int runCount;
+
+    /**
+     * @param runSize rows sorted in memory at a time
+     * @param tempDir folder for the temporary run files (null for the system temp folder)
+     */
+    public PatronMergeImport(int runSize, File tempDir) {
+        this.runSize = Math.max(1, runSize);
+        this.tempDir = tempDir;
+    }
+
+    public static void main(String[] args) {
+        int runSize = DEFAULT_RUN_SIZE;
+        int first = 0;
+
+        try {
+            if (args.length >= 2 && args[0].equals("--run-size")) {
+                runSize = Integer.parseInt(args[1]);
+                first = 2;
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("Run size must be a number.");
+            return;
+        }
+
+        if (args.length - first < 2) {
+            System.out.println("Usage: java PatronMergeImport [--run-size N] output input1 [input2 ...]");
+            return;
+        }
+
+        String output = args[first];
+        List<String> inputs = Arrays.asList(args).subList(first + 1, args.length);
+
+        PatronMergeImport merge = new PatronMergeImport(runSize, null);
+        if (merge.merge(inputs, output)) {
+            System.out.print(merge.report());
+        }
+    }
+
+    /**
+     * Merges the inputs into one ID-sorted file with no duplicate IDs.
+     *
+     * @param inputs CSV files, earliest (winning) first
+     * @param output file to create (overwritten if it exists)
+     * @return true if the output was written, false otherwise
+     */
+    public boolean merge(List<String> inputs, String output) {
+        long startTime = System.nanoTime();
+        inputNames = inputs.toArray(new String[0]);
+        rowsRead = new long[inputNames.length];
+        rowsSkipped = new long[inputNames.length];
+        rowsDuplicate = new long[inputNames.length];
+        rowsWritten = new long[inputNames.length];
+        runCount = 0;
+
+        ArrayList<File> runs = new ArrayList<>();
+        try {
+            RunBuilder builder = new RunBuilder(runs);
+            for (int source = 0; source < inputNames.length; source++) {
+                readInput(source, builder);
+            }
+            builder.flush();
+            runCount = runs.size();
+
+            // Merge in passes until one merge can take every run
+            while (runs.size() > MAX_MERGE_WIDTH) {
+                ArrayList<File> merged = new ArrayList<>();
+                for (int i = 0; i < runs.size(); i += MAX_MERGE_WIDTH) {
+                    List<File> group = runs.subList(i, Math.min(runs.size(), i + MAX_MERGE_WIDTH));
+                    File run = newRunFile();
+                    merged.add(run);
+                    try (DataOutputStream out = openRun(run)) {
+                        mergeRuns(group, out, null);
+                    }
+                    deleteAll(group);
+                }
+                runs = merged;
+            }
+
+            try (BufferedWriter out = new BufferedWriter(
+                    new OutputStreamWriter(new FileOutputStream(output), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+                out.write("patronId,name,address,overdueFine");
+                out.newLine();
+                mergeRuns(runs, null, out);
+            }
+
+        } catch (IOException e) {
+            System.out.println("Error merging patron files: " + e.getMessage());
+            return false;
+        } finally {
+            deleteAll(runs);
+        }
+
+        long elapsedMillis = (System.nanoTime() - startTime) / 1_000_000;
+        System.out.println("Merged " + inputNames.length + " file(s) into " + output
+                + " in " + elapsedMillis + " ms (" + runCount + " sorted runs)");
+        return true;
+    }
+
+    /**
+     * Returns a table of rows read, skipped, duplicate and written per input (after merge()).
+     */
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-30s %12s %12s %12s %12s%n", "Input", "Rows", "Skipped", "Duplicates", "Written"));
+        long[] totals = new long[4];
+        for (int i = 0; i < inputNames.length; i++) {
+            sb.append(String.format("%-30s %12d %12d %12d %12d%n",
+                    inputNames[i], rowsRead[i], rowsSkipped[i], rowsDuplicate[i], rowsWritten[i]));
+            totals[0] += rowsRead[i];
+            totals[1] += rowsSkipped[i];
+            totals[2] += rowsDuplicate[i];
+            totals[3] += rowsWritten[i];
+        }
+        sb.append(String.format("%-30s %12d %12d %12d %12d%n", "Total", totals[0], totals[1], totals[2], totals[3]));
+        return sb.toString();
+    }
+
+    // ===== Run Building =====
+
+    /**
+     * Collects valid rows and writes them out as a sorted run once runSize rows are held.
+     */
+    private class RunBuilder {
+        final List<File> runs;
+        final int[] ids = new int[runSize];
+        final long[] orders = new long[runSize];
+        final String[] lines = new String[runSize];
+        int count;
+
+        RunBuilder(List<File> runs) {
+            this.runs = runs;
+        }
+
+        void add(int patronId, long order, String line) throws IOException {
+            ids[count] = patronId;
+            orders[count] = order;
+            lines[count] = line;
+            if (++count == runSize) {
+                flush();
+            }
+        }
+
+        // Sorts the held rows by (ID, order) and writes them as one run
+        void flush() throws IOException {
+            if (count == 0) return;
+
+            long[] keys = new long[count];
+            for (int i = 0; i < count; i++) {
+                // ID in the high bits and the row index in the low bits: sorting keys sorts by ID, then index
+                keys[i] = ((long) ids[i] << 32) | i;
+            }
+            Arrays.sort(keys);
+
+            File run = newRunFile();
+            runs.add(run);
+            try (DataOutputStream out = openRun(run)) {
+                int lastId = -1;
+                for (long key : keys) {
+                    int i = (int) key;
+                    // Rows were added in order, so the first one of each ID is the earliest
+                    if (ids[i] == lastId) {
+                        rowsDuplicate[(int) (orders[i] >>> ROW_BITS)]++;
+                    } else {
+                        writeRecord(out, ids[i], orders[i], lines[i]);
+                        lastId = ids[i];
+                    }
+                    lines[i] = null;
+                }
+            }
+            count = 0;
+        }
+    }
+
+    // Reads one input file and hands its valid rows to the run builder
+    private void readInput(int source, RunBuilder builder) throws IOException {
+        PatronLineParser parser = new PatronLineParser(StandardCharsets.UTF_8);
+        long row = 0;
+
+        try (InputStream in = new FileInputStream(inputNames[source])) {
+            byte[] buf = new byte[BUFFER_SIZE];
+            int filled = 0;
+            boolean firstLine = true;
+            boolean endOfFile = false;
+
+            while (!endOfFile) {
+                int n = in.read(buf, filled, buf.length - filled);
+                if (n < 0) {
+                    endOfFile = true;
+                } else {
+                    filled += n;
+                }
+
+                int lineStart = 0;
+                int end = endOfFile ? filled + 1 : filled;
+                for (int i = 0; i < end; i++) {
+                    boolean lastLine = i == filled;
+                    if (!lastLine && buf[i] != '\n' && buf[i] != '\r') continue;
+                    if (lastLine && lineStart == filled) break;
+
+                    int result = parser.parse(buf, lineStart, i, firstLine);
+                    firstLine = false;
+                    lineStart = i + 1;
+
+                    if (result == PatronLineParser.BLANK || result == PatronLineParser.HEADER) continue;
+                    rowsRead[source]++;
+                    if (result != PatronLineParser.OK) {
+                        rowsSkipped[source]++;
+                        continue;
+                    }
+
+                    long order = ((long) source << ROW_BITS) | row++;
+                    builder.add(parser.getPatronId(), order, PatronManager.toFileLine(parser.toPatron()));
+                }
+
+                // Keep the unfinished line (grow the buffer for very long lines)
+                int remaining = Math.max(0, filled - lineStart);
+                if (lineStart == 0 && remaining == buf.length) {
+                    buf = Arrays.copyOf(buf, buf.length * 2);
+                } else if (remaining > 0) {
+                    System.arraycopy(buf, lineStart, buf, 0, remaining);
+                }
+                filled = remaining;
+            }
+        }
+    }
+
+    // ===== Merging =====
+
+    /**
+     * One open run file and its current record.
+     */
+    private static class RunReader {
+        final DataInputStream in;
+        int patronId;
+        long order;
+        String line;
+
+        RunReader(File file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+        }
+
+        // Reads the next record; returns false at the end of the run
+        boolean next() throws IOException {
+            try {
+                patronId = in.readInt();
+            } catch (EOFException e) {
+                return false;
+            }
+            order = in.readLong();
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            line = new String(bytes, StandardCharsets.UTF_8);
+            return true;
+        }
+
+        boolean before(RunReader other) {
+            return patronId != other.patronId ? patronId < other.patronId : order < other.order;
+        }
+    }
+
+    /**
+     * Merges sorted runs, keeping only the earliest row of each ID.
+     * Writes either another run (runOut) or the final CSV lines (csvOut).
+     */
+    private void mergeRuns(List<File> runs, DataOutputStream runOut, BufferedWriter csvOut) throws IOException {
+        ArrayList<RunReader> readers = new ArrayList<>();
+        try {
+            // Min-heap of readers ordered by their current record
+            RunReader[] heap = new RunReader[runs.size()];
+            int size = 0;
+            for (File run : runs) {
+                RunReader reader = new RunReader(run);
+                readers.add(reader);
+                if (reader.next()) {
+                    heap[size++] = reader;
+                    siftUp(heap, size - 1);
+                }
+            }
+
+            int lastId = -1;
+            while (size > 0) {
+                RunReader top = heap[0];
+                int source = (int) (top.order >>> ROW_BITS);
+
+                if (top.patronId == lastId) {
+                    rowsDuplicate[source]++;
+                } else {
+                    lastId = top.patronId;
+                    if (runOut != null) {
+                        writeRecord(runOut, top.patronId, top.order, top.line);
+                    } else {
+                        csvOut.write(top.line);
+                        csvOut.newLine();
+                        rowsWritten[source]++;
+                    }
+                }
+
+                if (!top.next()) {
+                    heap[0] = heap[--size];
+                    heap[size] = null;
+                }
+                siftDown(heap, size);
+            }
+
+        } finally {
+            for (RunReader reader : readers) {
+                reader.in.close();
+            }
+        }
+    }
+
+    private static void siftUp(RunReader[] heap, int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!heap[i].before(heap[parent])) break;
+            RunReader t = heap[parent];
+            heap[parent] = heap[i];
+            heap[i] = t;
+            i = parent;
+        }
+    }
+
+    private static void siftDown(RunReader[] heap, int size) {
+        int i = 0;
+        while (true) {
+            int left = 2 * i + 1;
+            if (left >= size) break;
+            int smallest = left;
+            int right = left + 1;
+            if (right < size && heap[right].before(heap[left])) {
+                smallest = right;
+            }
+            if (!heap[smallest].before(heap[i])) break;
+            RunReader t = heap[i];
+            heap[i] = heap[smallest];
+            heap[smallest] = t;
+            i = smallest;
+        }
+    }
+
+    // ===== Helpers =====
+
+    private File newRunFile() throws IOException {
+        File run = File.createTempFile("patron-run-", ".tmp", tempDir);
+        run.deleteOnExit();
+        return run;
+    }
+
+    private static DataOutputStream openRun(File run) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), BUFFER_SIZE));
+    }
+
+    private static void writeRecord(DataOutputStream out, int patronId, long order, String line) throws IOException {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(patronId);
+        out.writeLong(order);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void deleteAll(List<File> files) {
+        for (File file : files) {
+            if (file.exists() && !file.delete()) {
+                System.out.println("Could not delete temp file: " + file.getPath());
+            }
+        }
+    }
+}
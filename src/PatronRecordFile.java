@@ -0,0 +1,391 @@
+/**
+ * PatronRecordFile is a data file format where every patron has a fixed-size
+ * slot, so one changed patron can be saved with one small write at a known
+ * offset instead of rewriting the whole file.
+ *
+ * Layout (all numbers big-endian):
+ *      int     magic ("LMSR")
+ *      int     format version
+ *      int     name slot size in bytes
+ *      int     address slot size in bytes
+ *      int     slot count
+ *      slots, each SLOT_SIZE bytes:
+ *          byte    1 = in use, 0 = free
+ *          int     patron ID
+ *          long    overdue fine in cents
+ *          short   name length, then the UTF-8 name (padded to the name slot size)
+ *          short   address length, then the UTF-8 address (padded to the address slot size)
+ *
+ * Names and addresses longer than their slot cannot be saved in this format.
+ *
+ * Removing a patron only marks its slot free; free slots are reused by later
+ * adds before the file grows. So after adds and removals the file is no longer
+ * in the order patrons were added.
+ *
+ * PatronManager marks changed patrons dirty (markDirty) and writes just those
+ * records with writeDirty.
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.function.IntFunction;
+
+public class PatronRecordFile implements AutoCloseable {
+
+    // "LMSR" in ASCII
+    public static final int MAGIC = 0x4C4D5352;
+
+    // Current format version (increase when the layout changes)
+    public static final int VERSION = 1;
+
+    // Longest name and address (in UTF-8 bytes) a slot can hold
+    public static final int NAME_BYTES = 64;
+    public static final int ADDRESS_BYTES = 128;
+
+    // magic + version + name slot size + address slot size + slot count
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 4 + 4;
+    private static final int SLOT_COUNT_OFFSET = HEADER_SIZE - 4;
+
+    // status + ID + fine + name length + name + address length + address
+    public static final int SLOT_SIZE = 1 + 4 + 8 + 2 + NAME_BYTES + 2 + ADDRESS_BYTES;
+    private static final int ADDRESS_OFFSET = 1 + 4 + 8 + 2 + NAME_BYTES;
+
+    private static final byte FREE = 0;
+    private static final byte IN_USE = 1;
+
+    // Slots read or written per block when the whole file is read or created
+    private static final int SLOTS_PER_BLOCK = 4096;
+
+    private final String fileName;
+    private final FileChannel channel;
+
+    // Slot of every patron in the file, free slots (used last-in first-out), and slots in the file
+    private final PatronIdIndex slots = new PatronIdIndex();
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+    private int slotCount;
+
+    // Patrons changed since the last writeDirty (in the order they were changed)
+    private final LinkedHashSet<Integer> dirty = new LinkedHashSet<>();
+
+    // One slot's bytes, reused by every single-record write
+    private final ByteBuffer slotBuffer = ByteBuffer.allocate(SLOT_SIZE);
+
+    private PatronRecordFile(String fileName, FileChannel channel) {
+        this.fileName = fileName;
+        this.channel = channel;
+    }
+
+    /**
+     * Checks if a file starts with the record file magic number.
+     *
+     * @param fileName file to check
+     * @return true if the file is a record file, false if it is missing, too short or something else
+     */
+    public static boolean isRecordFile(String fileName) {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            while (magic.hasRemaining()) {
+                if (channel.read(magic) < 0) return false;
+            }
+            magic.flip();
+            return magic.getInt() == MAGIC;
+
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Writes a new record file holding the given patrons (null entries are skipped).
+     * The file is written under a temp name and renamed over the old one.
+     *
+     * @param fileName file to overwrite
+     * @param patrons patrons to save, in slot order
+     * @throws IOException if the file cannot be written or a name or address is too long
+     */
+    public static void write(String fileName, Iterable<Patron> patrons) throws IOException {
+        File temp = new File(fileName + ".tmp");
+        try (FileChannel out = FileChannel.open(temp.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            ByteBuffer buf = ByteBuffer.allocate(SLOTS_PER_BLOCK * SLOT_SIZE);
+            buf.putInt(MAGIC).putInt(VERSION).putInt(NAME_BYTES).putInt(ADDRESS_BYTES).putInt(0);
+
+            int count = 0;
+            for (Patron p : patrons) {
+                if (p == null) continue;
+                if (buf.remaining() < SLOT_SIZE) flush(out, buf);
+                putSlot(buf, p);
+                count++;
+            }
+            flush(out, buf);
+
+            // Go back and fill in the slot count
+            writeFully(out, ByteBuffer.allocate(4).putInt(0, count), SLOT_COUNT_OFFSET);
+
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+        Files.move(temp.toPath(), Paths.get(fileName),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Opens a record file for reading and in-place updates.
+     *
+     * @param fileName record file
+     * @return the open file (close it when done)
+     * @throws IOException if the file cannot be opened or is not a valid record file
+     */
+    public static PatronRecordFile open(String fileName) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(channel, header, 0);
+            header.flip();
+
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Not a patron record file.");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported record file version: " + version);
+            }
+            if (header.getInt() != NAME_BYTES || header.getInt() != ADDRESS_BYTES) {
+                throw new IOException("Record file uses other slot sizes.");
+            }
+            int count = header.getInt();
+            if (count < 0 || HEADER_SIZE + (long) count * SLOT_SIZE > channel.size()) {
+                throw new IOException("Record file is damaged (size does not match header).");
+            }
+
+            PatronRecordFile file = new PatronRecordFile(fileName, channel);
+            file.slotCount = count;
+            return file;
+
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // Returns the file name this record file was opened with
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * Reads every patron in the file (in slot order) and remembers their slots.
+     * If an ID occurs in two slots, the later slot is treated as free (and reused).
+     *
+     * @return patrons in the file
+     * @throws IOException if the file cannot be read or a record is invalid
+     */
+    public synchronized ArrayList<Patron> readAll() throws IOException {
+        ArrayList<Patron> patrons = new ArrayList<>(slotCount);
+        slots.clear();
+        freeCount = 0;
+
+        ByteBuffer buf = ByteBuffer.allocate(SLOTS_PER_BLOCK * SLOT_SIZE);
+        for (int first = 0; first < slotCount; first += SLOTS_PER_BLOCK) {
+            int n = Math.min(SLOTS_PER_BLOCK, slotCount - first);
+            buf.clear().limit(n * SLOT_SIZE);
+            readFully(channel, buf, slotOffset(first));
+            buf.flip();
+
+            for (int i = 0; i < n; i++) {
+                int slot = first + i;
+                buf.position(i * SLOT_SIZE);
+                if (buf.get() != IN_USE) {
+                    addFreeSlot(slot);
+                    continue;
+                }
+
+                Patron p;
+                try {
+                    p = getSlot(buf);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Record " + (slot + 1) + " is invalid: " + e.getMessage());
+                }
+                if (slots.contains(p.getPatronId())) {
+                    addFreeSlot(slot);
+                    continue;
+                }
+                slots.put(p.getPatronId(), slot);
+                patrons.add(p);
+            }
+        }
+        return patrons;
+    }
+
+    // Marks a patron as changed (added, updated or removed) since the last write
+    public synchronized void markDirty(int patronId) {
+        dirty.add(patronId);
+    }
+
+    // Returns the number of patrons changed since the last write
+    public synchronized int getDirtyCount() {
+        return dirty.size();
+    }
+
+    /**
+     * Writes the record of every dirty patron at its slot: a changed patron
+     * overwrites its slot, a new one takes a free slot (or a new one at the end),
+     * and a removed one only has its slot marked free.
+     *
+     * @param lookup returns the current patron for an ID, or null if it was removed
+     * @return number of records written
+     * @throws IOException if a write fails or a name or address is too long (those patrons stay dirty)
+     */
+    public synchronized int writeDirty(IntFunction<Patron> lookup) throws IOException {
+        int written = 0;
+        IOException failure = null;
+        int oldSlotCount = slotCount;
+
+        for (Integer patronId : dirty.toArray(new Integer[0])) {
+            Patron p = lookup.apply(patronId);
+            try {
+                if (p != null) {
+                    writeRecord(p);
+                } else {
+                    freeRecord(patronId);
+                }
+                dirty.remove(patronId);
+                written++;
+
+            } catch (IOException e) {
+                if (failure == null) failure = e;
+            }
+        }
+
+        if (slotCount != oldSlotCount) {
+            writeFully(channel, ByteBuffer.allocate(4).putInt(0, slotCount), SLOT_COUNT_OFFSET);
+        }
+        if (failure != null) throw failure;
+        return written;
+    }
+
+    // Closes the file (records not yet written with writeDirty are not saved)
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    // ===== Helpers =====
+
+    // Writes one patron at its slot, giving it a slot first if it is new
+    private void writeRecord(Patron p) throws IOException {
+        slotBuffer.clear();
+        putSlot(slotBuffer, p);     // Fails before a slot is taken if the text does not fit
+        slotBuffer.flip();
+
+        int slot = slots.get(p.getPatronId());
+        if (slot == PatronIdIndex.NOT_FOUND) {
+            slot = freeCount > 0 ? freeSlots[--freeCount] : slotCount++;
+            slots.put(p.getPatronId(), slot);
+        }
+        writeFully(channel, slotBuffer, slotOffset(slot));
+    }
+
+    // Marks a removed patron's slot free (one byte written)
+    private void freeRecord(int patronId) throws IOException {
+        int slot = slots.get(patronId);
+        if (slot == PatronIdIndex.NOT_FOUND) return;
+
+        writeFully(channel, ByteBuffer.wrap(new byte[] { FREE }), slotOffset(slot));
+        slots.remove(patronId);
+        addFreeSlot(slot);
+    }
+
+    private void addFreeSlot(int slot) {
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeSlots.length * 2);
+        }
+        freeSlots[freeCount++] = slot;
+    }
+
+    private static long slotOffset(int slot) {
+        return HEADER_SIZE + (long) slot * SLOT_SIZE;
+    }
+
+    // Puts a whole in-use slot for the patron
+    private static void putSlot(ByteBuffer buf, Patron p) throws IOException {
+        byte[] name = p.getName().getBytes(StandardCharsets.UTF_8);
+        byte[] address = p.getAddress().getBytes(StandardCharsets.UTF_8);
+        if (name.length > NAME_BYTES) {
+            throw new IOException("Name of patron " + p.getPatronId() + " is longer than " + NAME_BYTES + " bytes.");
+        }
+        if (address.length > ADDRESS_BYTES) {
+            throw new IOException("Address of patron " + p.getPatronId() + " is longer than " + ADDRESS_BYTES + " bytes.");
+        }
+
+        // Zero the slot first, so the padding does not keep old bytes
+        int start = buf.position();
+        for (int i = 0; i < SLOT_SIZE; i++) {
+            buf.put(start + i, (byte) 0);
+        }
+
+        buf.put(IN_USE);
+        buf.putInt(p.getPatronId());
+        buf.putLong(PatronSnapshot.toCents(p.getOverdueFine()));
+        buf.putShort((short) name.length).put(name);
+        buf.position(start + ADDRESS_OFFSET);
+        buf.putShort((short) address.length).put(address);
+        buf.position(start + SLOT_SIZE);
+    }
+
+    // Reads the patron of an in-use slot (the status byte was already read)
+    private static Patron getSlot(ByteBuffer buf) throws IOException {
+        int start = buf.position() - 1;
+        int id = buf.getInt();
+        long cents = buf.getLong();
+        String name = getText(buf, NAME_BYTES);
+        buf.position(start + ADDRESS_OFFSET);
+        String address = getText(buf, ADDRESS_BYTES);
+        return new Patron(id, name, address, cents / 100.0);
+    }
+
+    private static String getText(ByteBuffer buf, int maxBytes) throws IOException {
+        int length = buf.getShort();
+        if (length < 0 || length > maxBytes) {
+            throw new IOException("Record file is damaged (bad text length).");
+        }
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, position + buf.position());
+            if (n < 0) throw new IOException("Record file ended unexpectedly.");
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            channel.write(buf, position + buf.position());
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+        buf.clear();
+    }
+}
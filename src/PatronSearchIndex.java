@@ -0,0 +1,217 @@
+/**
+ * PatronSearchIndex finds patrons by part of their name or address.
+ *
+ * It is a trigram (3 character) inverted index: every 3 character piece of the
+ * lowercased name and address points to the IDs of the patrons that contain it.
+ * A query only looks at the patrons listed under its rarest trigram, and each of
+ * those candidates is checked against the real text, so results are always exact.
+ *
+ * Matching is case-insensitive:
+ *  - substring: the query appears anywhere in the name or address
+ *  - prefix:    a word of the name or address starts with the query
+ *
+ * Each field is indexed with a leading space, so a word start such as " sm"
+ * is a trigram of its own and prefix queries of 2 characters use the index too.
+ * Shorter queries fall back to a scan that stops at the result limit.
+ *
+ * Removals and changes do not edit the posting lists; old entries are simply
+ * filtered out by the check against the real text. The index rebuilds itself
+ * once old entries outnumber live ones.
+ *
+ * Not thread-safe; ConcurrentPatronSearchIndex stripes several of them for
+ * use from many threads.
+ */
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.function.IntFunction;
+
+public class PatronSearchIndex {
+
+    private static final int INITIAL_POSTING_SIZE = 4;
+
+    // Rebuild once there are this many stale entries (and at least as many as live ones)
+    private static final int MIN_STALE_BEFORE_REBUILD = 100_000;
+
+    // Maps a trigram key to its posting list number (PatronIdIndex works for any non-zero int key)
+    private final PatronIdIndex postingIds = new PatronIdIndex();
+
+    // Posting lists: patron IDs containing each trigram, in the order they were indexed
+    private int[][] postings = new int[1024][];
+    private int[] postingSizes = new int[1024];
+    private int postingCount;
+
+    private long liveEntries;
+    private long staleEntries;
+
+    // ===== Updates =====
+
+    // Indexes a patron's name and address
+    public void add(int patronId, String name, String address) {
+        addField(patronId, name);
+        addField(patronId, address);
+        liveEntries += countTrigrams(name) + countTrigrams(address);
+    }
+
+    // Forgets a patron's name and address (call with the values that were indexed)
+    public void remove(int patronId, String name, String address) {
+        long entries = countTrigrams(name) + countTrigrams(address);
+        liveEntries -= entries;
+        staleEntries += entries;
+    }
+
+    // Re-indexes a patron whose name or address changed
+    public void update(int patronId, String oldName, String oldAddress, String newName, String newAddress) {
+        if (oldName.equals(newName) && oldAddress.equals(newAddress)) return;
+
+        remove(patronId, oldName, oldAddress);
+        add(patronId, newName, newAddress);
+    }
+
+    // Checks if the index has built up enough stale entries to be rebuilt
+    public boolean needsRebuild() {
+        return staleEntries >= MIN_STALE_BEFORE_REBUILD && staleEntries >= liveEntries;
+    }
+
+    // Removes every entry
+    public void clear() {
+        postingIds.clear();
+        postings = new int[1024][];
+        postingSizes = new int[1024];
+        postingCount = 0;
+        liveEntries = 0;
+        staleEntries = 0;
+    }
+
+    // ===== Queries =====
+
+    /**
+     * Finds patrons whose name or address matches the query.
+     *
+     * @param query text to look for (case-insensitive)
+     * @param prefixOnly true to match only at the start of a word, false to match anywhere
+     * @param limit maximum number of patrons to return
+     * @param lookup returns the current Patron for an ID, or null if it was removed
+     * @param allPatrons used to scan when the query is too short for the index
+     * @return matching patrons, at most limit of them
+     */
+    public ArrayList<Patron> search(String query, boolean prefixOnly, int limit,
+                                    IntFunction<Patron> lookup, Iterable<Patron> allPatrons) {
+        ArrayList<Patron> results = new ArrayList<>();
+        if (query == null || limit <= 0) return results;
+
+        String text = query.trim().toLowerCase(Locale.ROOT);
+        if (text.isEmpty()) return results;
+
+        // A word start is a space followed by the text (see normalize)
+        String needle = prefixOnly ? " " + text : text;
+
+        // Too short for a trigram: scan (stops as soon as the limit is reached)
+        if (needle.length() < 3) {
+            for (Patron p : allPatrons) {
+                if (matches(p, needle)) {
+                    results.add(p);
+                    if (results.size() >= limit) break;
+                }
+            }
+            return results;
+        }
+
+        // Use the rarest trigram of the query to pick the candidates
+        int best = -1;
+        int bestSize = Integer.MAX_VALUE;
+        for (int i = 0; i + 3 <= needle.length(); i++) {
+            int list = postingIds.get(trigramKey(needle, i));
+            if (list == PatronIdIndex.NOT_FOUND) return results;
+            if (postingSizes[list] < bestSize) {
+                best = list;
+                bestSize = postingSizes[list];
+            }
+        }
+
+        // Check every candidate against its real text (an ID can be listed more than once)
+        PatronIdIndex seen = new PatronIdIndex(Math.min(bestSize, limit * 4));
+        int[] candidates = postings[best];
+        for (int i = 0; i < bestSize && results.size() < limit; i++) {
+            int patronId = candidates[i];
+            if (seen.contains(patronId)) continue;
+
+            Patron p = lookup.apply(patronId);
+            if (p != null && matches(p, needle)) {
+                seen.put(patronId, 0);
+                results.add(p);
+            }
+        }
+        return results;
+    }
+
+    // Checks if a query is too short for the index, so search() scans all patrons instead
+    static boolean needsScan(String query, boolean prefixOnly) {
+        if (query == null) return false;
+        String text = query.trim().toLowerCase(Locale.ROOT);
+        if (text.isEmpty()) return false;
+        return (prefixOnly ? text.length() + 1 : text.length()) < 3;
+    }
+
+    // ===== Helpers =====
+
+    // Lowercases a field and adds the leading space that marks the first word start
+    private static String normalize(String text) {
+        return " " + text.toLowerCase(Locale.ROOT);
+    }
+
+    // Checks the real name and address of a patron (needle is already normalized)
+    private static boolean matches(Patron p, String needle) {
+        return normalize(p.getName()).contains(needle) || normalize(p.getAddress()).contains(needle);
+    }
+
+    // Adds the patron ID under every trigram of one field
+    private void addField(int patronId, String field) {
+        String text = normalize(field);
+        for (int i = 0; i + 3 <= text.length(); i++) {
+            int key = trigramKey(text, i);
+            int list = postingIds.get(key);
+            if (list == PatronIdIndex.NOT_FOUND) {
+                list = newPostingList();
+                postingIds.put(key, list);
+            }
+
+            // Skip repeated trigrams within the same patron
+            int size = postingSizes[list];
+            if (size > 0 && postings[list][size - 1] == patronId) continue;
+
+            if (size == postings[list].length) {
+                postings[list] = Arrays.copyOf(postings[list], size * 2);
+            }
+            postings[list][size] = patronId;
+            postingSizes[list] = size + 1;
+        }
+    }
+
+    // Number of trigrams in a field once normalized (repeats included)
+    private static int countTrigrams(String field) {
+        return Math.max(0, field.length() - 1);
+    }
+
+    private int newPostingList() {
+        if (postingCount == postings.length) {
+            postings = Arrays.copyOf(postings, postingCount * 2);
+            postingSizes = Arrays.copyOf(postingSizes, postingCount * 2);
+        }
+        postings[postingCount] = new int[INITIAL_POSTING_SIZE];
+        return postingCount++;
+    }
+
+    /**
+     * Packs 3 chars into a non-zero int key (10 bits per char).
+     * Chars above 1023 share keys, which only adds candidates that the text check removes.
+     */
+    private static int trigramKey(String text, int i) {
+        return (1 << 30)
+                | (text.charAt(i) & 0x3FF) << 20
+                | (text.charAt(i + 1) & 0x3FF) << 10
+                | (text.charAt(i + 2) & 0x3FF);
+    }
+}
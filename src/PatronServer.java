@@ -0,0 +1,409 @@
+/**
+ * PatronServer runs the LMS without the console menu and serves the same
+ * operations to many desk clients over TCP, all sharing one PatronManager.
+ *
+ * Protocol: one command per line, one reply per command (UTF-8 text).
+ *
+ *      LOAD fileName                       -> OK <patrons in memory>
+ *      ADD id,name,address,fine            -> OK added
+ *      REMOVE id                           -> OK removed
+ *      FIND id                             -> OK <patron>
+ *      SEARCH text                         -> one line per patron, then END
+ *      LIST [limit]                        -> one line per patron, then END
+ *      OWING amount                        -> patrons owing more than amount (lowest first), then END
+ *      TOP count                           -> patrons owing the highest fines (highest first), then END
+ *      FINES                               -> OK <total fines> <patrons owing>
+ *      EXPORT fileName                     -> OK exported (CSV next to the data file; other desks are not held up)
+ *      QUIT                                -> BYE (closes the connection)
+ *
+ * Failures are answered with "ERROR <message>".
+ *
+ * Each connection runs on its own virtual thread when the JVM supports them
+ * (Java 21 and later) and on a pooled platform thread otherwise.
+ * Changes are logged to the journal of the current data file, like in LMSApp.
+ *
+ * Clients are not authenticated, so the server only listens on the loopback
+ * address unless another address is given to start(). For the same reason
+ * EXPORT only takes a plain file name and writes it into the data file's folder.
+ */
+
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class PatronServer {
+
+    // Maximum number of patrons returned by SEARCH
+    private static final int SEARCH_RESULT_LIMIT = 50;
+
+    private final PatronManager manager;
+    private final GroupCommitWriter.SyncPolicy syncPolicy;
+
+    // Journal of the current data file (null until a file is loaded)
+    private volatile PatronJournal journal;
+
+    private ServerSocket serverSocket;
+    private ExecutorService connections;
+
+    // Constructor serves the given manager (it should use a ConcurrentPatronStore or PersistentPatronStore)
+    public PatronServer(PatronManager manager) {
+        this(manager, GroupCommitWriter.SyncPolicy.NONE);
+    }
+
+    // Constructor serves the given manager and forces journal records to disk per the given policy
+    public PatronServer(PatronManager manager, GroupCommitWriter.SyncPolicy syncPolicy) {
+        this.manager = manager;
+        this.syncPolicy = syncPolicy;
+        manager.setSyncPolicy(syncPolicy);
+        manager.getStats().register("PatronServer");
+    }
+
+    /**
+     * Loads a data file (and replays its journal); later changes are logged to that file's journal.
+     *
+     * The roster becomes the new file's patrons only. If a file was loaded
+     * before, its pending changes are saved into it first, and the new file is
+     * read into a separate manager and then put in place with replacePatrons,
+     * so the two rosters are never mixed (and never saved into each other).
+     * Changes sent while this runs are refused until the new journal is ready.
+     *
+     * @param fileName data file to load
+     */
+    public synchronized void loadFile(String fileName) {
+        PatronJournal oldJournal = journal;
+        journal = null;
+
+        if (oldJournal == null && manager.getPatronCount() == 0) {
+            // First file: nothing to keep apart, so load straight into the roster
+            manager.loadFromFile(fileName);
+            PatronJournal newJournal = new PatronJournal(fileName, syncPolicy, manager.getStats());
+            newJournal.replay(manager);
+            journal = newJournal;
+            return;
+        }
+
+        if (oldJournal != null) {
+            if (oldJournal.getRecordCount() > 0 && !oldJournal.compact(manager)) {
+                System.out.println("Warning: changes to " + oldJournal.getDataFileName() + " are kept in its journal.");
+            }
+            oldJournal.close();
+        }
+        manager.closeWriters();
+        manager.closeRecordFile();
+
+        PatronManager loaded = new PatronManager();
+        loaded.loadFromFile(fileName);
+        PatronJournal newJournal = new PatronJournal(fileName, syncPolicy, manager.getStats());
+        newJournal.replay(loaded);
+        loaded.closeRecordFile();
+
+        manager.replacePatrons(loaded);
+        journal = newJournal;
+    }
+
+    /**
+     * Accepts connections on the loopback address until stop() is called
+     * (blocks the calling thread).
+     *
+     * @param port TCP port to listen on (0 picks a free port)
+     * @throws IOException if the port cannot be opened
+     */
+    public void start(int port) throws IOException {
+        start(port, InetAddress.getLoopbackAddress());
+    }
+
+    /**
+     * Accepts connections on the given address until stop() is called
+     * (blocks the calling thread).
+     *
+     * @param port TCP port to listen on (0 picks a free port)
+     * @param bindAddress address to listen on (clients are not authenticated, so
+     *                    only use an address other networks cannot reach)
+     * @throws IOException if the port cannot be opened
+     */
+    public void start(int port, InetAddress bindAddress) throws IOException {
+        serverSocket = new ServerSocket(port, 1024, bindAddress);
+        connections = newConnectionExecutor();
+        System.out.println("LMS server listening on " + bindAddress.getHostAddress() + " port " + serverSocket.getLocalPort());
+
+        while (!serverSocket.isClosed()) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (serverSocket.isClosed()) break;
+                System.out.println("Error accepting connection: " + e.getMessage());
+                continue;
+            }
+            connections.execute(() -> serve(socket));
+        }
+    }
+
+    // Returns the port the server listens on (after start() opened it)
+    public int getPort() {
+        return serverSocket == null ? -1 : serverSocket.getLocalPort();
+    }
+
+    /**
+     * Stops accepting connections, folds the journal into the data file and
+     * writes anything still queued.
+     */
+    public synchronized void stop() {
+        try {
+            if (serverSocket != null) serverSocket.close();
+        } catch (IOException e) {
+            System.out.println("Error closing server: " + e.getMessage());
+        }
+        if (connections != null) {
+            connections.shutdown();
+        }
+
+        if (journal != null) {
+            if (journal.getRecordCount() > 0) {
+                journal.compact(manager);
+            }
+            journal.close();
+        }
+        manager.closeWriters();
+    }
+
+    // ===== Connection Handling =====
+
+    // Reads commands from one client until it quits or disconnects
+    private void serve(Socket socket) {
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8))) {
+
+            String line;
+            while ((line = in.readLine()) != null) {
+                boolean keepOpen = execute(line.trim(), out);
+                out.flush();
+                if (!keepOpen) break;
+            }
+
+        } catch (IOException e) {
+            // Client went away; nothing else to clean up
+        }
+    }
+
+    /**
+     * Runs one command and writes the reply.
+     *
+     * @return false if the client asked to close the connection
+     */
+    private boolean execute(String line, Writer out) throws IOException {
+        int space = line.indexOf(' ');
+        String command = (space < 0 ? line : line.substring(0, space)).toUpperCase(Locale.ROOT);
+        String argument = space < 0 ? "" : line.substring(space + 1).trim();
+
+        switch (command) {
+            case "LOAD":
+                if (argument.isEmpty()) {
+                    reply(out, "ERROR File name cannot be empty.");
+                } else {
+                    loadFile(argument);
+                    reply(out, "OK " + manager.getPatronCount());
+                }
+                return true;
+            case "ADD":
+                reply(out, add(argument));
+                return true;
+            case "REMOVE":
+                reply(out, remove(argument));
+                return true;
+            case "FIND":
+                reply(out, find(argument));
+                return true;
+            case "SEARCH":
+                if (argument.isEmpty()) {
+                    reply(out, "ERROR Search text cannot be empty.");
+                } else {
+                    writeList(out, manager.searchPatrons(argument, false, SEARCH_RESULT_LIMIT), SEARCH_RESULT_LIMIT);
+                }
+                return true;
+            case "LIST":
+                list(argument, out);
+                return true;
+            case "OWING":
+                owing(argument, out);
+                return true;
+            case "TOP":
+                top(argument, out);
+                return true;
+            case "EXPORT":
+                reply(out, export(argument));
+                return true;
+            case "FINES":
+                reply(out, String.format(Locale.ROOT, "OK %.2f %d", manager.getTotalFines(), manager.getPatronsOwingCount()));
+                return true;
+            case "QUIT":
+                reply(out, "BYE");
+                return false;
+            case "":
+                return true;
+            default:
+                reply(out, "ERROR Unknown command: " + command);
+                return true;
+        }
+    }
+
+    // ===== Commands =====
+
+    private String add(String csv) {
+        PatronJournal current = journal;
+        if (current == null) return "ERROR Load a file first so the server knows where to save.";
+
+        PatronLineParser parser = new PatronLineParser(StandardCharsets.UTF_8);
+        String error = parser.parseArgument(csv);
+        if (error != null) return "ERROR " + error;
+
+        Patron patron = parser.toPatron();
+        if (!manager.addPatron(patron)) {
+            return "ERROR That Patron ID already exists.";
+        }
+        if (!current.appendAdd(patron)) {
+            return "ERROR Patron added in memory but could not be saved.";
+        }
+        compactJournalIfNeeded(current);
+        return "OK added";
+    }
+
+    // Exports the roster as CSV into the data file's folder (never over the data file or a journal)
+    private String export(String name) {
+        PatronJournal current = journal;
+        if (current == null) return "ERROR Load a file first so the server knows where to export.";
+        if (name.isEmpty()) return "ERROR File name cannot be empty.";
+
+        Path given;
+        try {
+            given = Paths.get(name);
+        } catch (InvalidPathException e) {
+            return "ERROR Invalid file name.";
+        }
+        if (given.isAbsolute() || given.getNameCount() != 1 || name.equals(".") || name.equals("..")
+                || !given.getFileName().toString().equals(name)) {
+            return "ERROR Give a file name only; exports go next to the data file.";
+        }
+
+        Path dataFile = Paths.get(current.getDataFileName()).toAbsolutePath().normalize();
+        Path target = dataFile.resolveSibling(name);
+        if (target.equals(dataFile) || name.endsWith(PatronJournal.JOURNAL_SUFFIX)) {
+            return "ERROR Cannot export over the data file or a journal.";
+        }
+
+        boolean saved = manager.saveAllToFileInBackground(target.toString()).join();
+        return saved ? "OK exported" : "ERROR Patrons could not be exported.";
+    }
+
+    private String remove(String idText) {
+        PatronJournal current = journal;
+        if (current == null) return "ERROR Load a file first so the server knows which file to update.";
+
+        int patronId = PatronLineParser.parsePatronId(idText);
+        if (patronId < 0) return "ERROR Patron ID must be exactly 7 digits.";
+
+        if (!manager.removePatronById(patronId)) {
+            return "ERROR No patron found with that ID.";
+        }
+        if (!current.appendRemove(patronId)) {
+            return "ERROR Patron removed in memory but file could not be updated.";
+        }
+        compactJournalIfNeeded(current);
+        return "OK removed";
+    }
+
+    private String find(String idText) {
+        int patronId = PatronLineParser.parsePatronId(idText);
+        if (patronId < 0) return "ERROR Patron ID must be exactly 7 digits.";
+
+        Patron p = manager.findPatronById(patronId);
+        return p == null ? "ERROR No patron found with that ID." : "OK " + p;
+    }
+
+    private void list(String limitText, Writer out) throws IOException {
+        int limit = Integer.MAX_VALUE;
+        if (!limitText.isEmpty()) {
+            try {
+                limit = Integer.parseInt(limitText);
+            } catch (NumberFormatException e) {
+                reply(out, "ERROR Limit must be a number.");
+                return;
+            }
+        }
+        writeList(out, manager.getAllPatrons(), limit);
+    }
+
+    private void owing(String amountText, Writer out) throws IOException {
+        double amount;
+        try {
+            amount = Double.parseDouble(amountText);
+        } catch (NumberFormatException e) {
+            reply(out, "ERROR Amount must be a number.");
+            return;
+        }
+        writeList(out, manager.findPatronsOwingMoreThan(amount), Integer.MAX_VALUE);
+    }
+
+    private void top(String countText, Writer out) throws IOException {
+        int count;
+        try {
+            count = Integer.parseInt(countText);
+        } catch (NumberFormatException e) {
+            reply(out, "ERROR Count must be a number.");
+            return;
+        }
+        writeList(out, manager.findTopDebtors(count), count);
+    }
+
+    // ===== Helpers =====
+
+    private void writeList(Writer out, ArrayList<Patron> patrons, int limit) throws IOException {
+        int count = 0;
+        for (Patron p : patrons) {
+            if (count++ >= limit) break;
+            out.write(p.toString());
+            out.write('\n');
+        }
+        reply(out, "END");
+    }
+
+    private static void reply(Writer out, String message) throws IOException {
+        out.write(message);
+        out.write('\n');
+    }
+
+    private void compactJournalIfNeeded(PatronJournal current) {
+        if (current.needsCompaction(manager.getPatronCount())) {
+            current.compact(manager);
+        }
+    }
+
+    /**
+     * Creates a virtual thread per connection on Java 21 and later. Looked up by
+     * reflection so the code still compiles and runs on older JDKs, where a cached
+     * pool of platform threads is used instead.
+     */
+    private static ExecutorService newConnectionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+}
@@ -0,0 +1,288 @@
+/**
+ * PatronSnapshot reads and writes the binary snapshot format of the patron store.
+ *
+ * A snapshot loads much faster than the CSV text format because nothing has to be
+ * parsed: the numbers are stored as raw binary values and are bulk-read through NIO buffers.
+ *
+ * Layout (all numbers big-endian):
+ *      int     magic ("LMSB")
+ *      int     format version
+ *      int     record count (n)
+ *      long    size of the string section in bytes
+ *      int[n]  patron IDs
+ *      long[n] overdue fines in cents (fixed point, rounded to the nearest cent)
+ *      string section: name and address of each patron in record order,
+ *                      each one a varint byte length followed by UTF-8 bytes
+ *
+ * The CSV format is still used for import and export.
+ */
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+public class PatronSnapshot {
+
+    // "LMSB" in ASCII
+    public static final int MAGIC = 0x4C4D5342;
+
+    // Current format version (increase when the layout changes)
+    public static final int VERSION = 1;
+
+    // magic + version + count + string section size
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 8;
+
+    // Size of the NIO buffer used to stream the string section
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    // A string length never needs more than 5 varint bytes
+    private static final int MAX_VARINT_SIZE = 5;
+
+    private PatronSnapshot() {
+    }
+
+    /**
+     * Checks if a file starts with the snapshot magic number.
+     *
+     * @param fileName file to check
+     * @return true if the file is a snapshot, false if it is missing, too short or text
+     */
+    public static boolean isSnapshot(String fileName) {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            while (magic.hasRemaining()) {
+                if (channel.read(magic) < 0) return false;
+            }
+            magic.flip();
+            return magic.getInt() == MAGIC;
+
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Writes a snapshot of the given patrons. Null entries in the list are skipped.
+     *
+     * The patrons are read once, into copies, before anything is written: the
+     * sections below each go over the whole list, and with a store shared
+     * between threads a patron added, removed or changed between two of those
+     * passes would leave the IDs, fines and strings out of step.
+     *
+     * @param fileName file to overwrite
+     * @param source patrons to save, in the order they should be loaded back
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(String fileName, Iterable<Patron> source) throws IOException {
+        ArrayList<Patron> patrons = new ArrayList<>();
+        for (Patron p : source) {
+            if (p != null) patrons.add(new Patron(p));
+        }
+        int count = patrons.size();
+
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+            // Header (the string section size is filled in at the end)
+            buf.putInt(MAGIC).putInt(VERSION).putInt(count).putLong(0L);
+
+            // Patron IDs
+            for (Patron p : patrons) {
+                if (buf.remaining() < 4) flush(channel, buf);
+                buf.putInt(p.getPatronId());
+            }
+
+            // Fines as cents
+            for (Patron p : patrons) {
+                if (buf.remaining() < 8) flush(channel, buf);
+                buf.putLong(toCents(p.getOverdueFine()));
+            }
+
+            // Names and addresses
+            long stringBytes = 0;
+            for (Patron p : patrons) {
+                stringBytes += putString(channel, buf, p.getName());
+                stringBytes += putString(channel, buf, p.getAddress());
+            }
+            flush(channel, buf);
+
+            // Go back and fill in the string section size
+            ByteBuffer size = ByteBuffer.allocate(8).putLong(stringBytes);
+            size.flip();
+            long position = HEADER_SIZE - 8;
+            while (size.hasRemaining()) {
+                position += channel.write(size, position);
+            }
+        }
+    }
+
+    /**
+     * Reads every patron in a snapshot file.
+     *
+     * @param fileName snapshot file
+     * @return patrons in the order they were saved
+     * @throws IOException if the file cannot be read or is not a valid snapshot
+     */
+    public static ArrayList<Patron> read(String fileName) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            ByteBuffer header = readFully(channel, HEADER_SIZE);
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Not a patron snapshot file.");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported snapshot version: " + version);
+            }
+            int count = header.getInt();
+            long stringBytes = header.getLong();
+            if (count < 0 || stringBytes < 0
+                    || HEADER_SIZE + 12L * count + stringBytes != channel.size()) {
+                throw new IOException("Snapshot file is damaged (size does not match header).");
+            }
+
+            // Bulk-read the fixed width sections
+            int[] ids = new int[count];
+            readFully(channel, 4 * count).asIntBuffer().get(ids);
+
+            long[] cents = new long[count];
+            readFully(channel, 8 * count).asLongBuffer().get(cents);
+
+            // Stream the string section
+            StringSectionReader strings = new StringSectionReader(channel);
+            ArrayList<Patron> patrons = new ArrayList<>(count);
+
+            for (int i = 0; i < count; i++) {
+                String name = strings.next();
+                String address = strings.next();
+
+                try {
+                    patrons.add(new Patron(ids[i], name, address, cents[i] / 100.0));
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Snapshot record " + (i + 1) + " is invalid: " + e.getMessage());
+                }
+            }
+            return patrons;
+        }
+    }
+
+    // ===== Helpers =====
+
+    // Converts a fine in dollars to whole cents
+    static long toCents(double fine) {
+        return Math.round(fine * 100.0);
+    }
+
+    // Writes a varint length and the UTF-8 bytes of the string, returns the number of bytes written
+    private static int putString(FileChannel channel, ByteBuffer buf, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int written = 0;
+
+        if (buf.remaining() < MAX_VARINT_SIZE) flush(channel, buf);
+        int length = bytes.length;
+        while ((length & ~0x7F) != 0) {
+            buf.put((byte) ((length & 0x7F) | 0x80));
+            length >>>= 7;
+            written++;
+        }
+        buf.put((byte) length);
+        written++;
+
+        int offset = 0;
+        while (offset < bytes.length) {
+            if (!buf.hasRemaining()) flush(channel, buf);
+            int n = Math.min(buf.remaining(), bytes.length - offset);
+            buf.put(bytes, offset, n);
+            offset += n;
+        }
+        return written + bytes.length;
+    }
+
+    // Reads exactly "size" bytes from the channel's current position
+    private static ByteBuffer readFully(FileChannel channel, int size) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf) < 0) {
+                throw new IOException("Snapshot file is damaged (ends early).");
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+
+    // Writes everything in the buffer to the channel and clears it
+    private static void flush(FileChannel channel, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+        buf.clear();
+    }
+
+    /**
+     * Reads the length-prefixed strings of the string section through one
+     * reusable buffer, refilling it from the channel as it empties.
+     */
+    private static class StringSectionReader {
+        private final FileChannel channel;
+        private ByteBuffer buf;
+
+        StringSectionReader(FileChannel channel) {
+            this.channel = channel;
+            this.buf = ByteBuffer.allocate(BUFFER_SIZE);
+            this.buf.flip();
+        }
+
+        // Reads a varint length and that many UTF-8 bytes
+        String next() throws IOException {
+            fill(MAX_VARINT_SIZE);
+
+            int length = 0;
+            int shift = 0;
+            while (true) {
+                if (!buf.hasRemaining()) {
+                    throw new IOException("Snapshot file is damaged (string section ends early).");
+                }
+                byte b = buf.get();
+                length |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) break;
+                shift += 7;
+                if (shift > 28) {
+                    throw new IOException("Snapshot file is damaged (bad string length).");
+                }
+            }
+
+            fill(length);
+            if (buf.remaining() < length) {
+                throw new IOException("Snapshot file is damaged (string section ends early).");
+            }
+            String value = new String(buf.array(), buf.position(), length, StandardCharsets.UTF_8);
+            buf.position(buf.position() + length);
+            return value;
+        }
+
+        // Tries to make "needed" bytes readable (fewer if the file ends first)
+        private void fill(int needed) throws IOException {
+            if (buf.remaining() >= needed) return;
+
+            if (buf.capacity() < needed) {
+                ByteBuffer bigger = ByteBuffer.allocate(needed);
+                bigger.put(buf);
+                buf = bigger;
+            } else {
+                buf.compact();
+            }
+
+            while (buf.position() < needed) {
+                if (channel.read(buf) < 0) break;
+            }
+            buf.flip();
+        }
+    }
+}
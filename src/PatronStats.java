@@ -0,0 +1,240 @@
+/**
+ * PatronStats keeps counters and latency histograms for the operations of one
+ * PatronManager: how often each one ran and how long it took (p50/p99/p999),
+ * how many bytes were read from and written to data files, and why rows were
+ * skipped while loading.
+ *
+ * Recording is cheap enough for the lookup path: two clock reads and a few
+ * counter increments, no allocation and no lock (see LatencyHistogram).
+ *
+ * The statistics can be printed (report) and read over JMX once registered.
+ */
+
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+public class PatronStats implements PatronStatsMXBean {
+
+    /**
+     * Timed PatronManager operations.
+     */
+    public enum Operation {
+        LOAD("loadFromFile"),
+        FIND("findPatronById"),
+        ADD("addPatron"),
+        REMOVE("removePatronById"),
+        SEARCH("searchPatrons"),
+        FINE_QUERY("findPatronsByFine"),
+        SAVE("saveAllToFile"),
+        SNAPSHOT("saveSnapshotToFile"),
+        APPEND("appendPatronToFile");
+
+        private final String methodName;
+
+        Operation(String methodName) {
+            this.methodName = methodName;
+        }
+
+        public String getMethodName() {
+            return methodName;
+        }
+    }
+
+    /**
+     * Reasons a data file row was not loaded.
+     */
+    public enum SkipReason {
+        BAD_FORMAT,     // Not exactly 4 fields
+        BAD_NUMBER,     // Patron ID or fine is not a number
+        OUT_OF_RANGE,   // Patron ID not 7 digits or fine not 0 to 250
+        EMPTY_TEXT,     // Name or address is empty
+        DUPLICATE;      // Patron ID already loaded
+
+        // Returns the reason for a PatronLineParser result (null for OK, BLANK and HEADER)
+        public static SkipReason forParserResult(int result) {
+            switch (result) {
+                case PatronLineParser.BAD_FORMAT:
+                    return BAD_FORMAT;
+                case PatronLineParser.BAD_NUMBER:
+                    return BAD_NUMBER;
+                case PatronLineParser.OUT_OF_RANGE:
+                    return OUT_OF_RANGE;
+                case PatronLineParser.EMPTY_TEXT:
+                    return EMPTY_TEXT;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Operation.values().length];
+    private final LongAdder[] skipped = new LongAdder[SkipReason.values().length];
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+
+    // Constructor creates empty statistics
+    public PatronStats() {
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+        for (int i = 0; i < skipped.length; i++) {
+            skipped[i] = new LongAdder();
+        }
+    }
+
+    // ===== Recording =====
+
+    // Records one call of an operation that started at startNanos (a System.nanoTime() value)
+    public void record(Operation operation, long startNanos) {
+        latencies[operation.ordinal()].record(System.nanoTime() - startNanos);
+    }
+
+    public void addBytesRead(long bytes) {
+        bytesRead.add(bytes);
+    }
+
+    public void addBytesWritten(long bytes) {
+        bytesWritten.add(bytes);
+    }
+
+    public void addSkipped(SkipReason reason, long rows) {
+        skipped[reason.ordinal()].add(rows);
+    }
+
+    // Returns the latency histogram of one operation
+    public LatencyHistogram getLatency(Operation operation) {
+        return latencies[operation.ordinal()];
+    }
+
+    // ===== Reading (also over JMX) =====
+
+    @Override
+    public Map<String, Long> getOperationCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Operation op : Operation.values()) {
+            counts.put(op.getMethodName(), getLatency(op).getCount());
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Double> getP50Micros() {
+        return percentileMicros(50);
+    }
+
+    @Override
+    public Map<String, Double> getP99Micros() {
+        return percentileMicros(99);
+    }
+
+    @Override
+    public Map<String, Double> getP999Micros() {
+        return percentileMicros(99.9);
+    }
+
+    @Override
+    public Map<String, Double> getMaxMicros() {
+        Map<String, Double> times = new LinkedHashMap<>();
+        for (Operation op : Operation.values()) {
+            times.put(op.getMethodName(), getLatency(op).getMaxNanos() / 1000.0);
+        }
+        return times;
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    @Override
+    public Map<String, Long> getSkippedRows() {
+        Map<String, Long> rows = new LinkedHashMap<>();
+        for (SkipReason reason : SkipReason.values()) {
+            rows.put(reason.name(), skipped[reason.ordinal()].sum());
+        }
+        return rows;
+    }
+
+    @Override
+    public void reset() {
+        for (LatencyHistogram histogram : latencies) {
+            histogram.reset();
+        }
+        for (LongAdder rows : skipped) {
+            rows.reset();
+        }
+        bytesRead.reset();
+        bytesWritten.reset();
+    }
+
+    /**
+     * Returns the statistics as a printable table (operations that never ran are left out).
+     */
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "%-20s %10s %12s %12s %12s %12s%n",
+                "Operation", "Count", "p50 (us)", "p99 (us)", "p999 (us)", "max (us)"));
+
+        for (Operation op : Operation.values()) {
+            LatencyHistogram h = getLatency(op);
+            if (h.getCount() == 0) continue;
+            sb.append(String.format(Locale.ROOT, "%-20s %10d %12.1f %12.1f %12.1f %12.1f%n",
+                    op.getMethodName(), h.getCount(),
+                    h.getPercentileNanos(50) / 1000.0, h.getPercentileNanos(99) / 1000.0,
+                    h.getPercentileNanos(99.9) / 1000.0, h.getMaxNanos() / 1000.0));
+        }
+
+        sb.append("Bytes read: ").append(getBytesRead()).append(System.lineSeparator());
+        sb.append("Bytes written: ").append(getBytesWritten()).append(System.lineSeparator());
+        sb.append("Skipped rows:");
+        for (SkipReason reason : SkipReason.values()) {
+            sb.append(' ').append(reason.name().toLowerCase(Locale.ROOT)).append('=')
+                    .append(skipped[reason.ordinal()].sum());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Registers these statistics with the platform MBean server as "lms:type=PatronStats,name=NAME".
+     *
+     * @param name name that tells several managers in one JVM apart
+     * @return true if registered, false otherwise
+     */
+    public boolean register(String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName("lms:type=PatronStats,name=" + ObjectName.quote(name));
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+            return true;
+
+        } catch (JMException e) {
+            System.out.println("Error registering statistics: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // ===== Helpers =====
+
+    private Map<String, Double> percentileMicros(double percentile) {
+        Map<String, Double> times = new LinkedHashMap<>();
+        for (Operation op : Operation.values()) {
+            times.put(op.getMethodName(), getLatency(op).getPercentileNanos(percentile) / 1000.0);
+        }
+        return times;
+    }
+}
@@ -0,0 +1,41 @@
+/**
+ * PatronStatsMXBean is the management interface of PatronStats, so the
+ * statistics can be read with JConsole or any other JMX client while the
+ * LMS is running.
+ *
+ * Maps are keyed by operation name (for example "findPatronById") or by the
+ * reason a row was skipped. Times are in microseconds.
+ */
+
+
+import java.util.Map;
+
+public interface PatronStatsMXBean {
+
+    // Number of calls of each operation
+    Map<String, Long> getOperationCounts();
+
+    // Median time of each operation
+    Map<String, Double> getP50Micros();
+
+    // 99th percentile time of each operation
+    Map<String, Double> getP99Micros();
+
+    // 99.9th percentile time of each operation
+    Map<String, Double> getP999Micros();
+
+    // Longest time of each operation
+    Map<String, Double> getMaxMicros();
+
+    // Bytes read from data files
+    long getBytesRead();
+
+    // Bytes written to data files
+    long getBytesWritten();
+
+    // Rows skipped while loading, by reason
+    Map<String, Long> getSkippedRows();
+
+    // Sets every counter back to zero
+    void reset();
+}
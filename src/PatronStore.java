@@ -0,0 +1,53 @@
+/**
+ * PatronStore is the in-memory storage behind PatronManager.
+ *
+ * Implementations:
+ *  - ObjectPatronStore keeps one Patron object per patron (the default)
+ *  - ColumnarPatronStore keeps the fields in plain arrays and creates
+ *    Patron objects on demand, which needs far less heap for large rosters
+ *  - ConcurrentPatronStore can be shared between threads
+ *  - ShardedPatronStore keeps the roster in one file per ID range and only
+ *    the recently used ranges in memory
+ *  - MappedPatronStore looks patrons up in a sorted, memory-mapped lookup
+ *    file without loading it (read-only)
+ *  - LazyPatronStore indexes data files and reads each patron on first use
+ *  - PersistentPatronStore publishes every change as a new immutable
+ *    version, so readers and background saves never wait for writers
+ *
+ * Every store iterates patrons in the order they were added, except
+ * ShardedPatronStore, which goes range by range, and MappedPatronStore,
+ * which goes by ID.
+ */
+
+
+public interface PatronStore extends Iterable<Patron> {
+
+    // Returns the number of patrons stored
+    int size();
+
+    // Checks if a patron with this ID is stored
+    boolean contains(int patronId);
+
+    /**
+     * Returns the patron with this ID, or null.
+     * Some stores return a new Patron object on every call; use update() to store changes.
+     */
+    Patron get(int patronId);
+
+    // Stores a new patron; returns false if the ID is already stored
+    boolean add(Patron patron);
+
+    // Removes the patron with this ID; returns the removed patron, or null if there was none
+    Patron remove(int patronId);
+
+    // Stores the current name, address and fine of a patron that is already stored
+    void update(Patron patron);
+
+    // Removes every patron
+    void clear();
+
+    // Writes changes to the store's own files, if it has any; returns false if that failed
+    default boolean flush() {
+        return true;
+    }
+}
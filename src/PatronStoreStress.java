@@ -0,0 +1,179 @@
+/**
+ * PatronStoreStress hammers a thread-safe PatronStore from several threads and
+ * then checks that nothing was lost or counted twice.
+ *
+ * Each worker thread looks up, adds and removes patrons with random IDs
+ * (80% lookups, 10% adds, 10% removals) and counts the adds and removals that
+ * succeeded. One more thread keeps iterating the store while they run and checks
+ * that no iteration fails or returns the same patron twice. At the end:
+ *      size() == initial patrons + successful adds - successful removals
+ *      iteration returns exactly size() patrons, each once
+ *      every ID in the range is contained exactly when iteration returned it
+ *
+ * It prints the throughput and PASSED or FAILED (exit code 1 on failure).
+ *
+ * Usage:
+ *      java PatronStoreStress [concurrent|versioned] [threads] [seconds] [patrons]
+ */
+
+
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class PatronStoreStress {
+
+    // Lowest patron ID used (see Patron.isValidPatronId)
+    private static final int FIRST_ID = 1_000_000;
+
+    public static void main(String[] args) throws InterruptedException {
+        String storeType = args.length > 0 ? args[0] : "concurrent";
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int initial = args.length > 3 ? Integer.parseInt(args[3]) : 100_000;
+
+        PatronStore store;
+        if (storeType.equals("concurrent")) {
+            store = new ConcurrentPatronStore();
+        } else if (storeType.equals("versioned")) {
+            store = new PersistentPatronStore();
+        } else {
+            System.out.println("Unknown store: " + storeType + " (use concurrent or versioned)");
+            return;
+        }
+
+        // IDs are drawn from twice the initial roster, so about half of the adds and removals succeed
+        int idRange = Math.max(1, initial * 2);
+        for (int i = 0; i < initial; i++) {
+            store.add(newPatron(FIRST_ID + i * 2));
+        }
+
+        AtomicLong operations = new AtomicLong();
+        AtomicLong adds = new AtomicLong();
+        AtomicLong removes = new AtomicLong();
+        AtomicInteger iterations = new AtomicInteger();
+        AtomicBoolean running = new AtomicBoolean(true);
+        StringBuffer errors = new StringBuffer();
+        long endTime = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final long seed = t;
+            workers[t] = new Thread(() -> runWorker(store, seed, idRange, endTime, operations, adds, removes));
+            workers[t].start();
+        }
+
+        Thread iterator = new Thread(() -> {
+            while (running.get()) {
+                try {
+                    checkIteration(store, idRange, null);
+                    iterations.incrementAndGet();
+                } catch (RuntimeException e) {
+                    errors.append("Iteration during changes failed: ").append(e).append('\n');
+                    return;
+                }
+            }
+        });
+        iterator.start();
+
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        running.set(false);
+        iterator.join();
+
+        // Final checks, now that no thread changes the store
+        int expected = initial + (int) adds.get() - (int) removes.get();
+        if (store.size() != expected) {
+            errors.append("Size is ").append(store.size()).append(", expected ").append(expected).append('\n');
+        }
+
+        BitSet seen = new BitSet(idRange);
+        int iterated = 0;
+        try {
+            iterated = checkIteration(store, idRange, seen);
+        } catch (RuntimeException e) {
+            errors.append("Final iteration failed: ").append(e).append('\n');
+        }
+        if (iterated != store.size()) {
+            errors.append("Iteration returned ").append(iterated).append(" patrons, size is ").append(store.size()).append('\n');
+        }
+        for (int i = 0; i < idRange; i++) {
+            if (store.contains(FIRST_ID + i) != seen.get(i)) {
+                errors.append("Patron ").append(FIRST_ID + i).append(" is ")
+                        .append(seen.get(i) ? "iterated but not contained" : "contained but not iterated").append('\n');
+                break;
+            }
+        }
+
+        long count = operations.get();
+        System.out.println("Store: " + storeType + ", threads: " + threads + ", seconds: " + seconds);
+        System.out.println("Operations: " + count + " (" + (count / Math.max(1, seconds)) + " ops/s)");
+        System.out.println("Successful adds: " + adds.get() + ", removals: " + removes.get());
+        System.out.println("Iterations during changes: " + iterations.get());
+        System.out.println("Final size: " + store.size() + " (expected " + expected + ")");
+        if (errors.length() == 0) {
+            System.out.println("PASSED");
+        } else {
+            System.out.print(errors);
+            System.out.println("FAILED");
+            System.exit(1);
+        }
+    }
+
+    // Looks up, adds and removes random patrons until the end time
+    private static void runWorker(PatronStore store, long seed, int idRange, long endTime,
+                                  AtomicLong operations, AtomicLong adds, AtomicLong removes) {
+        Random random = new Random(seed);
+        long done = 0;
+        long sink = 0;
+
+        while (System.nanoTime() < endTime) {
+            for (int i = 0; i < 1000; i++) {
+                int patronId = FIRST_ID + random.nextInt(idRange);
+                int choice = random.nextInt(10);
+                if (choice == 0) {
+                    if (store.add(newPatron(patronId))) adds.incrementAndGet();
+                } else if (choice == 1) {
+                    if (store.remove(patronId) != null) removes.incrementAndGet();
+                } else {
+                    Patron p = store.get(patronId);
+                    if (p != null) sink += p.getPatronId();
+                }
+            }
+            done += 1000;
+        }
+        operations.addAndGet(done);
+        if (sink == 42) System.out.print("");     // Keeps the lookups from being optimized away
+    }
+
+    /**
+     * Iterates the store once and checks that no patron comes back twice.
+     *
+     * @param seen if not null, gets a bit set for every patron returned
+     * @return the number of patrons returned
+     */
+    private static int checkIteration(PatronStore store, int idRange, BitSet seen) {
+        BitSet ids = seen != null ? seen : new BitSet(idRange);
+        int count = 0;
+        for (Patron p : store) {
+            int i = p.getPatronId() - FIRST_ID;
+            if (i < 0 || i >= idRange) {
+                throw new IllegalStateException("unexpected patron " + p.getPatronId());
+            }
+            if (ids.get(i)) {
+                throw new IllegalStateException("patron " + p.getPatronId() + " returned twice");
+            }
+            ids.set(i);
+            count++;
+        }
+        return count;
+    }
+
+    private static Patron newPatron(int patronId) {
+        return new Patron(patronId, "Stress Patron", "1 Test Street", 0.0);
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ * PatronTextDictionary stores the words of patron names and addresses once,
+ * so patrons that share a street, city, first name or surname share one String
+ * for it instead of each keeping a full copy of their text.
+ *
+ * A text is split at single spaces into words ("12 Oak St" -> "12", "Oak", "St");
+ * two spaces in a row give an empty word, so joining the words with spaces
+ * always gives back the exact text. Patron keeps the array of shared words,
+ * which costs one 4-byte reference per word (as much as an int code would).
+ *
+ * Words are held weakly: once no patron uses a word any more, the garbage
+ * collector removes it from the dictionary, so the dictionary never grows
+ * beyond the words in use.
+ *
+ * The dictionary is split into stripes with a lock each, so several loader
+ * threads can encode at the same time.
+ *
+ * Sharing is off by default: building the text back from its words makes
+ * every read of a name or address (search, listing, saving) several times
+ * slower, which only pays off when memory is the limit. Turn it on with
+ * setEnabled(true) (LMSApp --shared-text) before patrons are created; Patron
+ * then keeps the words (compact) and joins them on each read (expand).
+ */
+
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.WeakHashMap;
+
+public final class PatronTextDictionary {
+
+    // Number of independently locked parts (a power of two)
+    private static final int STRIPES = 16;
+
+    // Shared instance of each word, held weakly (the key and the referenced value are the same String)
+    private static final List<WeakHashMap<String, WeakReference<String>>> stripes = new ArrayList<>(STRIPES);
+
+    static {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes.add(new WeakHashMap<>());
+        }
+    }
+
+    // True when new patron texts are split into shared words
+    private static volatile boolean enabled = false;
+
+    private PatronTextDictionary() {
+    }
+
+    // Turns word sharing on or off for texts stored from now on (texts already stored keep their form)
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    // Returns what a Patron keeps for a text: its shared words if sharing is on, else the text itself
+    static Object compact(String text) {
+        return enabled ? encode(text) : text;
+    }
+
+    // Returns the text kept by compact
+    static String expand(Object stored) {
+        return stored instanceof String ? (String) stored : decode((String[]) stored);
+    }
+
+    /**
+     * Splits a text into its shared words.
+     *
+     * @param text text to encode (already trimmed)
+     * @return the words, each the dictionary's instance
+     */
+    public static String[] encode(String text) {
+        int count = 1;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == ' ') count++;
+        }
+
+        String[] words = new String[count];
+        int start = 0;
+        for (int w = 0; w < count; w++) {
+            int end = text.indexOf(' ', start);
+            if (end < 0) end = text.length();
+            words[w] = share(text.substring(start, end));
+            start = end + 1;
+        }
+        return words;
+    }
+
+    /**
+     * Joins encoded words back into the original text.
+     *
+     * @param words words returned by encode
+     * @return the text (no copy is made for a one-word text)
+     */
+    public static String decode(String[] words) {
+        if (words.length == 1) return words[0];
+
+        int length = words.length - 1;
+        for (String word : words) {
+            length += word.length();
+        }
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < words.length; i++) {
+            if (i > 0) sb.append(' ');
+            sb.append(words[i]);
+        }
+        return sb.toString();
+    }
+
+    // Returns the number of words in the dictionary (words no longer used may still be counted until collected)
+    public static int size() {
+        int size = 0;
+        for (WeakHashMap<String, WeakReference<String>> stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    // ===== Helpers =====
+
+    // Returns the dictionary's instance of a word, adding the word if it is new
+    private static String share(String word) {
+        WeakHashMap<String, WeakReference<String>> stripe = stripes.get(spread(word.hashCode()) & (STRIPES - 1));
+        synchronized (stripe) {
+            WeakReference<String> ref = stripe.get(word);
+            String shared = ref == null ? null : ref.get();
+            if (shared == null) {
+                shared = word;
+                stripe.put(shared, new WeakReference<>(shared));
+            }
+            return shared;
+        }
+    }
+
+    // Mixes the high hash bits into the low ones used to pick a stripe
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
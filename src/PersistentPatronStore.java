@@ -0,0 +1,319 @@
+/**
+ * PersistentPatronStore is a thread-safe PatronStore whose readers never wait.
+ *
+ * The whole roster is one immutable version (a Snapshot). A change never edits
+ * a version: it copies only the few tree nodes on the path to the changed
+ * patron, shares everything else with the previous version, and then publishes
+ * the new version in one volatile write. So:
+ *  - get, contains and size read the current version without any lock
+ *  - snapshot() costs nothing, and a snapshot never changes afterwards, so a
+ *    save or export can run on another thread while desks keep adding and
+ *    removing patrons (iteration always goes over a snapshot)
+ *  - writers take one lock, only against each other
+ *
+ * Each version has two 32-way radix trees with the same entries: one keyed by
+ * patron ID (for lookups) and one keyed by a sequence number given when the
+ * patron was added (for iterating in that order). A change copies about
+ * 5 nodes of 32 references per tree.
+ *
+ * The stored patrons are private copies: get() and iteration return a new
+ * Patron object each time, like ColumnarPatronStore; use update() to store changes.
+ */
+
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+public class PersistentPatronStore implements PatronStore {
+
+    // Tree nodes have 2^BITS children
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    // Shift of the root of the ID tree (patron IDs are below 2^24, so 5 levels cover them)
+    private static final int ID_SHIFT = 20;
+
+    // Sequence numbers are given again from 0 once removed ones outnumber the patrons by this much
+    private static final int MIN_HOLES_BEFORE_RENUMBER = 1024;
+
+    // Current version (replaced, never changed, by writers)
+    private volatile Snapshot current = Snapshot.EMPTY;
+
+    // Held by writers while they build and publish the next version
+    private final Object writeLock = new Object();
+
+    // One stored patron: its sequence number and a private copy of its values
+    private static final class Entry {
+        final int sequence;
+        final Patron patron;
+
+        Entry(int sequence, Patron patron) {
+            this.sequence = sequence;
+            this.patron = patron;
+        }
+    }
+
+    /**
+     * An immutable version of the roster. Iterates in the order patrons were
+     * added; patrons returned are copies, so changing them does not change the snapshot.
+     */
+    public static final class Snapshot implements Iterable<Patron> {
+        static final Snapshot EMPTY = new Snapshot(null, null, 0, 0, 0);
+
+        private final Object[] byId;         // ID tree (root shift ID_SHIFT), null if empty
+        private final Object[] bySequence;   // Sequence tree, null if empty
+        private final int sequenceShift;     // Shift of the sequence tree root
+        private final int nextSequence;      // Sequence number of the next patron added
+        private final int size;
+
+        private Snapshot(Object[] byId, Object[] bySequence, int sequenceShift, int nextSequence, int size) {
+            this.byId = byId;
+            this.bySequence = bySequence;
+            this.sequenceShift = sequenceShift;
+            this.nextSequence = nextSequence;
+            this.size = size;
+        }
+
+        // Returns the number of patrons in this snapshot
+        public int size() {
+            return size;
+        }
+
+        // Returns a copy of the patron with this ID, or null
+        public Patron get(int patronId) {
+            Entry entry = entry(patronId);
+            return entry == null ? null : new Patron(entry.patron);
+        }
+
+        @Override
+        public Iterator<Patron> iterator() {
+            Iterator<Entry> entries = entries();
+            return new Iterator<Patron>() {
+                @Override
+                public boolean hasNext() {
+                    return entries.hasNext();
+                }
+
+                @Override
+                public Patron next() {
+                    return new Patron(entries.next().patron);
+                }
+            };
+        }
+
+        // Iterates over the entries in sequence order
+        Iterator<Entry> entries() {
+            return new Iterator<Entry>() {
+                private int sequence = 0;
+                private Object[] leaf;
+                private Entry next = advance();
+
+                @Override
+                public boolean hasNext() {
+                    return next != null;
+                }
+
+                @Override
+                public Entry next() {
+                    if (next == null) throw new NoSuchElementException();
+                    Entry entry = next;
+                    next = advance();
+                    return entry;
+                }
+
+                // Returns the next entry in sequence order (a leaf is looked up once per 32 numbers)
+                private Entry advance() {
+                    while (sequence < nextSequence) {
+                        if ((sequence & MASK) == 0 || leaf == null) {
+                            leaf = leafFor(bySequence, sequenceShift, sequence);
+                            if (leaf == null) {
+                                sequence = (sequence | MASK) + 1;     // Whole leaf removed
+                                continue;
+                            }
+                        }
+                        Entry entry = (Entry) leaf[sequence & MASK];
+                        sequence++;
+                        if ((sequence & MASK) == 0) leaf = null;
+                        if (entry != null) return entry;
+                    }
+                    return null;
+                }
+            };
+        }
+
+        Entry entry(int patronId) {
+            if (patronId < 0 || patronId >>> (ID_SHIFT + BITS) != 0) return null;
+            return (Entry) find(byId, ID_SHIFT, patronId);
+        }
+    }
+
+    // Returns the current version; it never changes, even while other threads keep writing
+    public Snapshot snapshot() {
+        return current;
+    }
+
+    // ===== PatronStore =====
+
+    @Override
+    public int size() {
+        return current.size;
+    }
+
+    @Override
+    public boolean contains(int patronId) {
+        return current.entry(patronId) != null;
+    }
+
+    @Override
+    public Patron get(int patronId) {
+        return current.get(patronId);
+    }
+
+    @Override
+    public boolean add(Patron patron) {
+        synchronized (writeLock) {
+            Snapshot s = current;
+            if (s.entry(patron.getPatronId()) != null) return false;
+
+            int sequence = s.nextSequence;
+            int shift = s.sequenceShift;
+            Object[] bySequence = s.bySequence;
+            while (shift + BITS < Integer.SIZE && sequence >>> (shift + BITS) != 0) {
+                // The tree is full: put a new root above it
+                if (bySequence != null) {
+                    Object[] root = new Object[WIDTH];
+                    root[0] = bySequence;
+                    bySequence = root;
+                }
+                shift += BITS;
+            }
+
+            Entry entry = new Entry(sequence, new Patron(patron));
+            current = new Snapshot(
+                    set(s.byId, ID_SHIFT, patron.getPatronId(), entry),
+                    set(bySequence, shift, sequence, entry),
+                    shift, sequence + 1, s.size + 1);
+            return true;
+        }
+    }
+
+    @Override
+    public Patron remove(int patronId) {
+        synchronized (writeLock) {
+            Snapshot s = current;
+            Entry entry = s.entry(patronId);
+            if (entry == null) return null;
+
+            Snapshot next = new Snapshot(
+                    set(s.byId, ID_SHIFT, patronId, null),
+                    set(s.bySequence, s.sequenceShift, entry.sequence, null),
+                    s.sequenceShift, s.nextSequence, s.size - 1);
+            if (next.nextSequence - next.size > next.size + MIN_HOLES_BEFORE_RENUMBER) {
+                next = renumber(next);
+            }
+            current = next;
+            return new Patron(entry.patron);
+        }
+    }
+
+    @Override
+    public void update(Patron patron) {
+        synchronized (writeLock) {
+            Snapshot s = current;
+            Entry old = s.entry(patron.getPatronId());
+            if (old == null) return;
+
+            Entry entry = new Entry(old.sequence, new Patron(patron));
+            current = new Snapshot(
+                    set(s.byId, ID_SHIFT, patron.getPatronId(), entry),
+                    set(s.bySequence, s.sequenceShift, old.sequence, entry),
+                    s.sequenceShift, s.nextSequence, s.size);
+        }
+    }
+
+    @Override
+    public void clear() {
+        synchronized (writeLock) {
+            current = Snapshot.EMPTY;
+        }
+    }
+
+    // Iterates over the version current when iteration starts (later changes are not seen)
+    @Override
+    public Iterator<Patron> iterator() {
+        return current.iterator();
+    }
+
+    // ===== Helpers =====
+
+    // Returns the value stored for key in the tree, or null
+    private static Object find(Object[] node, int shift, int key) {
+        for (int s = shift; s > 0 && node != null; s -= BITS) {
+            node = (Object[]) node[(key >>> s) & MASK];
+        }
+        return node == null ? null : node[key & MASK];
+    }
+
+    // Returns the bottom node holding key (and the 31 keys next to it), or null
+    private static Object[] leafFor(Object[] node, int shift, int key) {
+        for (int s = shift; s > 0 && node != null; s -= BITS) {
+            node = (Object[]) node[(key >>> s) & MASK];
+        }
+        return node;
+    }
+
+    /**
+     * Returns a tree with key set to value (null removes it). Only the nodes on
+     * the path to key are copied; the given tree is not changed. Nodes left
+     * empty by a removal are dropped, so the result is null for an empty tree.
+     */
+    private static Object[] set(Object[] node, int shift, int key, Object value) {
+        if (node == null && value == null) return null;
+
+        Object[] copy = node == null ? new Object[WIDTH] : node.clone();
+        int i = (key >>> shift) & MASK;
+        copy[i] = shift == 0 ? value : set((Object[]) copy[i], shift - BITS, key, value);
+
+        if (value == null && copy[i] == null) {
+            for (Object child : copy) {
+                if (child != null) return copy;
+            }
+            return null;
+        }
+        return copy;
+    }
+
+    /**
+     * Returns the same roster with sequence numbers 0, 1, 2, ... again, so
+     * iteration does not walk over many removed numbers. The new trees are
+     * built in place, since no reader can see them yet.
+     */
+    private static Snapshot renumber(Snapshot s) {
+        int shift = 0;
+        while (shift + BITS < Integer.SIZE && s.size > 0 && (s.size - 1) >>> (shift + BITS) != 0) {
+            shift += BITS;
+        }
+
+        Object[] byId = null;
+        Object[] bySequence = null;
+        int sequence = 0;
+        Iterator<Entry> entries = s.entries();
+        while (entries.hasNext()) {
+            Entry old = entries.next();
+            Entry entry = new Entry(sequence, old.patron);
+            byId = setInPlace(byId, ID_SHIFT, old.patron.getPatronId(), entry);
+            bySequence = setInPlace(bySequence, shift, sequence, entry);
+            sequence++;
+        }
+        return new Snapshot(byId, bySequence, shift, sequence, sequence);
+    }
+
+    // Like set, but changes the nodes of a tree no reader can see yet instead of copying them
+    private static Object[] setInPlace(Object[] node, int shift, int key, Object value) {
+        if (node == null) node = new Object[WIDTH];
+        int i = (key >>> shift) & MASK;
+        node[i] = shift == 0 ? value : setInPlace((Object[]) node[i], shift - BITS, key, value);
+        return node;
+    }
+}
@@ -0,0 +1,165 @@
+/**
+ * PersistentStoreCheck runs the same random changes on a PersistentPatronStore
+ * and an ObjectPatronStore and checks that both always hold the same roster.
+ *
+ * Each step adds, removes, changes or looks up a patron with a random ID
+ * (IDs are drawn from a small range, so many adds hit existing patrons and many
+ * removals hit missing ones). Every few thousand steps the whole roster is
+ * compared: size, iteration order and every patron's values. Snapshots are
+ * taken along the way and checked again at the end, when the store has changed
+ * many times since, to make sure a snapshot never changes afterwards.
+ *
+ * It prints PASSED or the first differences and FAILED (exit code 1 on failure).
+ *
+ * Usage:
+ *      java PersistentStoreCheck [operations] [seed]
+ */
+
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Random;
+
+public class PersistentStoreCheck {
+
+    // Lowest patron ID used (see Patron.isValidPatronId)
+    private static final int FIRST_ID = 1_000_000;
+
+    // Number of different IDs used
+    private static final int ID_RANGE = 5_000;
+
+    // Steps between full comparisons, and between snapshots kept for the end
+    private static final int CHECK_EVERY = 5_000;
+    private static final int SNAPSHOT_EVERY = 25_000;
+
+    public static void main(String[] args) {
+        int operations = args.length > 0 ? Integer.parseInt(args[0]) : 300_000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+
+        PersistentPatronStore store = new PersistentPatronStore();
+        ObjectPatronStore expected = new ObjectPatronStore();
+        Random random = new Random(seed);
+        StringBuilder errors = new StringBuilder();
+
+        // Snapshots taken along the way, with a copy of what they held at that time
+        ArrayList<PersistentPatronStore.Snapshot> snapshots = new ArrayList<>();
+        ArrayList<ArrayList<Patron>> snapshotContents = new ArrayList<>();
+
+        for (int i = 1; i <= operations && errors.length() == 0; i++) {
+            int patronId = FIRST_ID + random.nextInt(ID_RANGE);
+            int choice = random.nextInt(10);
+
+            if (choice < 4) {
+                Patron patron = randomPatron(random, patronId);
+                boolean added = store.add(patron);
+                boolean expectedAdded = expected.add(copy(patron));
+                if (added != expectedAdded) {
+                    errors.append("Step ").append(i).append(": add of ").append(patronId)
+                            .append(" returned ").append(added).append('\n');
+                }
+            } else if (choice < 7) {
+                Patron removed = store.remove(patronId);
+                Patron expectedRemoved = expected.remove(patronId);
+                if (!same(removed, expectedRemoved)) {
+                    errors.append("Step ").append(i).append(": remove of ").append(patronId)
+                            .append(" returned ").append(removed).append(", expected ").append(expectedRemoved).append('\n');
+                }
+            } else if (choice < 9) {
+                Patron changed = expected.get(patronId);
+                if (changed != null) {
+                    changed.setName("Name " + random.nextInt(1000));
+                    changed.setOverdueFine(random.nextInt(25_001) / 100.0);
+                    store.update(copy(changed));
+                    expected.update(changed);
+                }
+            } else {
+                if (!same(store.get(patronId), expected.get(patronId)) || store.contains(patronId) != expected.contains(patronId)) {
+                    errors.append("Step ").append(i).append(": lookup of ").append(patronId).append(" differs\n");
+                }
+            }
+
+            if (i % CHECK_EVERY == 0) {
+                compare("Step " + i, store, expected, errors);
+            }
+            if (i % SNAPSHOT_EVERY == 0) {
+                snapshots.add(store.snapshot());
+                snapshotContents.add(copyAll(expected));
+            }
+        }
+        compare("End", store, expected, errors);
+
+        // Snapshots must still hold exactly what they held when taken
+        for (int s = 0; s < snapshots.size() && errors.length() == 0; s++) {
+            PersistentPatronStore.Snapshot snapshot = snapshots.get(s);
+            ArrayList<Patron> held = snapshotContents.get(s);
+            if (snapshot.size() != held.size()) {
+                errors.append("Snapshot ").append(s).append(" size is ").append(snapshot.size())
+                        .append(", expected ").append(held.size()).append('\n');
+                break;
+            }
+            Iterator<Patron> it = snapshot.iterator();
+            for (Patron p : held) {
+                if (!it.hasNext() || !same(it.next(), p) || !same(snapshot.get(p.getPatronId()), p)) {
+                    errors.append("Snapshot ").append(s).append(" changed at patron ").append(p.getPatronId()).append('\n');
+                    break;
+                }
+            }
+        }
+
+        System.out.println("Operations: " + operations + ", seed: " + seed + ", snapshots checked: " + snapshots.size());
+        System.out.println("Final size: " + store.size() + " (expected " + expected.size() + ")");
+        if (errors.length() == 0) {
+            System.out.println("PASSED");
+        } else {
+            System.out.print(errors);
+            System.out.println("FAILED");
+            System.exit(1);
+        }
+    }
+
+    // ===== Helpers =====
+
+    // Compares size, iteration order and values of the two stores
+    private static void compare(String when, PersistentPatronStore store, ObjectPatronStore expected, StringBuilder errors) {
+        if (store.size() != expected.size()) {
+            errors.append(when).append(": size is ").append(store.size()).append(", expected ").append(expected.size()).append('\n');
+            return;
+        }
+        Iterator<Patron> it = store.iterator();
+        for (Patron p : expected) {
+            Patron actual = it.hasNext() ? it.next() : null;
+            if (!same(actual, p)) {
+                errors.append(when).append(": iteration returned ").append(actual).append(", expected ").append(p).append('\n');
+                return;
+            }
+        }
+        if (it.hasNext()) {
+            errors.append(when).append(": iteration returned more patrons than size()\n");
+        }
+    }
+
+    private static boolean same(Patron a, Patron b) {
+        if (a == null || b == null) return a == b;
+        return a.getPatronId() == b.getPatronId()
+                && a.getName().equals(b.getName())
+                && a.getAddress().equals(b.getAddress())
+                && a.getOverdueFine() == b.getOverdueFine();
+    }
+
+    private static Patron randomPatron(Random random, int patronId) {
+        return new Patron(patronId, "Name " + random.nextInt(1000), random.nextInt(500) + " Test Street",
+                random.nextInt(25_001) / 100.0);
+    }
+
+    private static Patron copy(Patron p) {
+        return new Patron(p.getPatronId(), p.getName(), p.getAddress(), p.getOverdueFine());
+    }
+
+    private static ArrayList<Patron> copyAll(ObjectPatronStore store) {
+        ArrayList<Patron> patrons = new ArrayList<>(store.size());
+        for (Patron p : store) {
+            patrons.add(copy(p));
+        }
+        return patrons;
+    }
+}
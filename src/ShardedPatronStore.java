@@ -0,0 +1,393 @@
+/**
+ * ShardedPatronStore splits the roster over several files by patron ID range
+ * and keeps only the recently used shards in memory.
+ *
+ * The 7-digit ID space (1000000..9999999) is cut into shardCount equal ranges.
+ * Each range has its own CSV file in the shard folder, in the data file format.
+ *
+ *  - A shard is loaded the first time one of its IDs is looked up, added or removed
+ *  - Once more patrons are in memory than the budget allows, the least recently
+ *    used shards are dropped from memory
+ *  - Only shards that changed (dirty shards) are written back, when they are
+ *    dropped and on flush()
+ *
+ * So startup time and memory depend on the patrons actually used, not on the
+ * size of the whole roster.
+ *
+ * Iteration goes shard by shard (lowest IDs first), loading each shard in turn;
+ * within a shard patrons are in the order they were added.
+ *
+ * Every method is synchronized, so the store can be shared between threads.
+ */
+
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+public class ShardedPatronStore implements PatronStore {
+
+    // Valid patron IDs are 1000000..9999999
+    private static final int FIRST_ID = 1_000_000;
+    private static final int ID_RANGE = 9_000_000;
+
+    // Remembers how many shards the folder was created with
+    private static final String MANIFEST_NAME = "shards.txt";
+
+    private final File directory;
+    private final Shard[] shards;
+    private final long maxResidentPatrons;
+
+    // Loaded shards, least recently used first
+    private final LinkedHashMap<Integer, Shard> resident = new LinkedHashMap<>(16, 0.75f, true);
+    private long residentPatrons;
+
+    private long shardLoads;
+    private long evictions;
+
+    /**
+     * One ID range: its file, and its patrons while it is loaded.
+     */
+    private static class Shard {
+        final int number;
+        final File file;
+        ObjectPatronStore patrons;      // null while not loaded
+        int count = -1;                 // Number of patrons (-1 until counted or loaded)
+        boolean dirty;
+
+        Shard(int number, File file) {
+            this.number = number;
+            this.file = file;
+        }
+    }
+
+    /**
+     * Opens (or creates) a shard folder.
+     *
+     * @param directory folder holding the shard files
+     * @param shardCount number of ID ranges for a new folder (an existing folder keeps its own)
+     * @param maxResidentPatrons how many patrons may be in memory before shards are dropped
+     * @throws IOException if the folder cannot be created or its manifest read
+     */
+    public ShardedPatronStore(File directory, int shardCount, long maxResidentPatrons) throws IOException {
+        this.directory = directory;
+        this.maxResidentPatrons = Math.max(1, maxResidentPatrons);
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create shard folder: " + directory.getPath());
+        }
+
+        int count = readManifest();
+        if (count <= 0) {
+            count = Math.max(1, Math.min(ID_RANGE, shardCount));
+            writeManifest(count);
+        }
+
+        shards = new Shard[count];
+        for (int i = 0; i < count; i++) {
+            int first = FIRST_ID + (int) ((long) ID_RANGE * i / count);
+            int last = FIRST_ID + (int) ((long) ID_RANGE * (i + 1) / count) - 1;
+            shards[i] = new Shard(i, new File(directory, "patrons-" + first + "-" + last + ".csv"));
+        }
+    }
+
+    // ===== PatronStore =====
+
+    @Override
+    public synchronized int size() {
+        long total = 0;
+        for (Shard shard : shards) {
+            total += countOf(shard);
+        }
+        return (int) total;
+    }
+
+    @Override
+    public synchronized boolean contains(int patronId) {
+        Shard shard = shardFor(patronId);
+        return shard != null && load(shard).contains(patronId);
+    }
+
+    @Override
+    public synchronized Patron get(int patronId) {
+        Shard shard = shardFor(patronId);
+        return shard == null ? null : load(shard).get(patronId);
+    }
+
+    @Override
+    public synchronized boolean add(Patron patron) {
+        Shard shard = shardFor(patron.getPatronId());
+        if (shard == null || !load(shard).add(patron)) return false;
+
+        shard.count++;
+        shard.dirty = true;
+        residentPatrons++;
+        evictIfNeeded(shard);
+        return true;
+    }
+
+    @Override
+    public synchronized Patron remove(int patronId) {
+        Shard shard = shardFor(patronId);
+        if (shard == null) return null;
+
+        Patron removed = load(shard).remove(patronId);
+        if (removed != null) {
+            shard.count--;
+            shard.dirty = true;
+            residentPatrons--;
+        }
+        return removed;
+    }
+
+    @Override
+    public synchronized void update(Patron patron) {
+        Shard shard = shardFor(patron.getPatronId());
+        if (shard == null) return;
+
+        // The caller may hold the object from before its shard was dropped; store that one
+        ObjectPatronStore patrons = load(shard);
+        if (patrons.get(patron.getPatronId()) != patron) {
+            if (patrons.remove(patron.getPatronId()) == null) return;
+            patrons.add(patron);
+        }
+        shard.dirty = true;
+    }
+
+    @Override
+    public synchronized void clear() {
+        resident.clear();
+        residentPatrons = 0;
+        for (Shard shard : shards) {
+            shard.patrons = new ObjectPatronStore();
+            shard.count = 0;
+            shard.dirty = true;
+            resident.put(shard.number, shard);
+        }
+    }
+
+    /**
+     * Writes every changed shard back to its file.
+     *
+     * @return true if all were written, false otherwise
+     */
+    @Override
+    public synchronized boolean flush() {
+        boolean saved = true;
+        for (Shard shard : shards) {
+            if (shard.dirty) {
+                saved &= writeShard(shard);
+            }
+        }
+        return saved;
+    }
+
+    /**
+     * Iterates shard by shard. Each shard is copied when the iterator reaches
+     * it, so shards can be loaded and dropped while iterating.
+     */
+    @Override
+    public Iterator<Patron> iterator() {
+        return new Iterator<Patron>() {
+            int nextShard = 0;
+            Iterator<Patron> current = null;
+
+            @Override
+            public boolean hasNext() {
+                while (current == null || !current.hasNext()) {
+                    if (nextShard >= shards.length) return false;
+                    current = copyOf(shards[nextShard++]).iterator();
+                }
+                return true;
+            }
+
+            @Override
+            public Patron next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return current.next();
+            }
+        };
+    }
+
+    // ===== Statistics =====
+
+    public synchronized int getShardCount() {
+        return shards.length;
+    }
+
+    public synchronized int getResidentShardCount() {
+        return resident.size();
+    }
+
+    public synchronized long getResidentPatronCount() {
+        return residentPatrons;
+    }
+
+    // Returns how many times a shard was read from its file
+    public synchronized long getShardLoadCount() {
+        return shardLoads;
+    }
+
+    // Returns how many times a shard was dropped from memory
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    // ===== Helpers =====
+
+    // Returns the shard of an ID, or null if the ID is not a valid patron ID
+    private Shard shardFor(int patronId) {
+        if (!Patron.isValidPatronId(patronId)) return null;
+        return shards[(int) ((long) (patronId - FIRST_ID) * shards.length / ID_RANGE)];
+    }
+
+    // Returns the patrons of a shard, reading its file first if needed
+    private ObjectPatronStore load(Shard shard) {
+        if (shard.patrons != null) {
+            resident.get(shard.number);     // Marks it as most recently used
+            return shard.patrons;
+        }
+
+        ObjectPatronStore patrons = new ObjectPatronStore();
+        try {
+            byte[] bytes = Files.readAllBytes(shard.file.toPath());
+            PatronLineParser parser = new PatronLineParser(StandardCharsets.UTF_8);
+            int lineStart = 0;
+            boolean firstLine = true;
+            for (int i = 0; i <= bytes.length; i++) {
+                if (i < bytes.length && bytes[i] != '\n' && bytes[i] != '\r') continue;
+                if (i > lineStart && parser.parse(bytes, lineStart, i, firstLine) == PatronLineParser.OK) {
+                    patrons.add(parser.toPatron());
+                }
+                firstLine = false;
+                lineStart = i + 1;
+            }
+        } catch (NoSuchFileException e) {
+            // No file yet: the shard is empty
+        } catch (IOException e) {
+            System.out.println("Error loading shard " + shard.file.getName() + ": " + e.getMessage());
+        }
+
+        shard.patrons = patrons;
+        shard.count = patrons.size();
+        shardLoads++;
+        resident.put(shard.number, shard);
+        residentPatrons += patrons.size();
+        evictIfNeeded(shard);
+        return patrons;
+    }
+
+    // Drops least recently used shards (never the one in use) until the budget is met
+    private void evictIfNeeded(Shard inUse) {
+        Iterator<Shard> oldestFirst = resident.values().iterator();
+        while (residentPatrons > maxResidentPatrons && oldestFirst.hasNext()) {
+            Shard shard = oldestFirst.next();
+            if (shard == inUse) continue;
+
+            // A changed shard that cannot be written stays in memory rather than losing changes
+            if (shard.dirty && !writeShard(shard)) continue;
+
+            residentPatrons -= shard.patrons.size();
+            shard.patrons = null;
+            oldestFirst.remove();
+            evictions++;
+        }
+    }
+
+    // Writes a shard to a temp file and renames it over the old file, so a crash never leaves half a shard
+    private boolean writeShard(Shard shard) {
+        File temp = new File(directory, shard.file.getName() + ".tmp");
+        try {
+            try (BufferedWriter file = new BufferedWriter(
+                    new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8), 64 * 1024)) {
+                PatronLineWriter out = new PatronLineWriter(file);
+                out.writeLine("patronId,name,address,overdueFine");
+                for (Patron p : shard.patrons) {
+                    out.writeCsv(p);
+                }
+            }
+            Files.move(temp.toPath(), shard.file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            shard.dirty = false;
+            return true;
+
+        } catch (IOException e) {
+            System.out.println("Error writing shard " + shard.file.getName() + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Returns the number of patrons in a shard, counting the rows of its file if it was never loaded
+    private long countOf(Shard shard) {
+        if (shard.count >= 0) return shard.count;
+
+        int rows = 0;
+        try {
+            byte[] bytes = Files.readAllBytes(shard.file.toPath());
+            boolean inLine = false;
+            for (byte b : bytes) {
+                if (b == '\n' || b == '\r') {
+                    if (inLine) rows++;
+                    inLine = false;
+                } else {
+                    inLine = true;
+                }
+            }
+            if (inLine) rows++;
+            rows = Math.max(0, rows - 1);   // Header row
+        } catch (NoSuchFileException e) {
+            rows = 0;
+        } catch (IOException e) {
+            System.out.println("Error reading shard " + shard.file.getName() + ": " + e.getMessage());
+            return 0;
+        }
+        shard.count = rows;
+        return rows;
+    }
+
+    // Copies a shard's patrons (loading it if needed)
+    private synchronized List<Patron> copyOf(Shard shard) {
+        if (countOf(shard) == 0 && shard.patrons == null) return new ArrayList<>();
+
+        ArrayList<Patron> copy = new ArrayList<>(shard.count);
+        for (Patron p : load(shard)) {
+            copy.add(p);
+        }
+        return copy;
+    }
+
+    // Returns the shard count stored in the folder, or 0 for a new folder
+    private int readManifest() throws IOException {
+        Path manifest = new File(directory, MANIFEST_NAME).toPath();
+        if (!Files.exists(manifest)) return 0;
+
+        for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (line.startsWith("shardCount=")) {
+                try {
+                    return Integer.parseInt(line.substring("shardCount=".length()).trim());
+                } catch (NumberFormatException e) {
+                    throw new IOException("Bad shard count in " + manifest);
+                }
+            }
+        }
+        throw new IOException("No shard count in " + manifest);
+    }
+
+    private void writeManifest(int shardCount) throws IOException {
+        Files.write(new File(directory, MANIFEST_NAME).toPath(),
+                ("shardCount=" + shardCount + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+    }
+}